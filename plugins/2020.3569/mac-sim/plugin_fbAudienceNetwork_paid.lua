@@ -25,6 +25,18 @@ function lib.isLoaded()
     showWarning("fbAudienceNetwork.isLoaded()")
 end
 
+function lib.getState()
+    showWarning("fbAudienceNetwork.getState()")
+end
+
+function lib.getStats()
+    showWarning("fbAudienceNetwork.getStats()")
+end
+
+function lib.resetStats()
+    showWarning("fbAudienceNetwork.resetStats()")
+end
+
 function lib.show()
     showWarning("fbAudienceNetwork.show()")
 end
@@ -37,6 +49,30 @@ function lib.getSize()
     showWarning("fbAudienceNetwork.getSize()")
 end
 
+function lib.getInitTimings()
+    showWarning("fbAudienceNetwork.getInitTimings()")
+end
+
+function lib.loadMany()
+    showWarning("fbAudienceNetwork.loadMany()")
+end
+
+function lib.showMany()
+    showWarning("fbAudienceNetwork.showMany()")
+end
+
+function lib.hideMany()
+    showWarning("fbAudienceNetwork.hideMany()")
+end
+
+function lib.registerPlacement()
+    showWarning("fbAudienceNetwork.registerPlacement()")
+end
+
+function lib.setListener()
+    showWarning("fbAudienceNetwork.setListener()")
+end
+
 -------------------------------------------------------------------------------
 -- END
 -------------------------------------------------------------------------------
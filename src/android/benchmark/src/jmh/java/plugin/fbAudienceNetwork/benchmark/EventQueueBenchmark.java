@@ -0,0 +1,94 @@
+//
+//  EventQueueBenchmark.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import plugin.fbAudienceNetwork.core.EventQueue;
+import plugin.fbAudienceNetwork.core.EventRouter;
+import plugin.fbAudienceNetwork.core.FakeLuaStack;
+
+/**
+ * Posting ad events from the SDK callbacks and delivering them to Lua in one flush, per event.
+ * The init() listener skips 'clicked' events and one placement has its own listener.
+ */
+@State(Scope.Thread)
+public class EventQueueBenchmark {
+    private static final int EVENTS_PER_FRAME = 8;
+
+    @Param({"false", "true"})
+    public boolean batch;
+
+    private FakeLuaStack L;
+    private FakeRuntimeDispatcher dispatcher;
+    private EventQueue queue;
+    private EventRouter router;
+
+    @Setup
+    public void setup() {
+        L = new FakeLuaStack();
+        dispatcher = new FakeRuntimeDispatcher(L);
+        queue = new EventQueue("fbAudienceNetwork", dispatcher);
+        queue.preallocate(EVENTS_PER_FRAME);
+
+        router = new EventRouter();
+        router.setGlobal(1, EventRouter.ALL_PHASES & ~EventRouter.phaseBit("clicked"));
+        router.setPlacement("rewarded", 2, EventRouter.ALL_PHASES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS_PER_FRAME)
+    public int postAndFlush() {
+        for (int i = 0; i < EVENTS_PER_FRAME; i++) {
+            queue.post("loaded", "interstitial", "placement", false, 0, null, -1);
+        }
+        dispatcher.runPending(queue, router, batch);
+        return dispatcher.dispatchedEvents;
+    }
+
+    // events of two placements with different listeners, interleaved
+    @Benchmark
+    @OperationsPerInvocation(EVENTS_PER_FRAME)
+    public int postAndFlushTwoListeners() {
+        for (int i = 0; i < EVENTS_PER_FRAME; i++) {
+            queue.post("loaded", "interstitial", ((i & 1) == 0) ? "placement" : "rewarded", false, 0, null, -1);
+        }
+        dispatcher.runPending(queue, router, batch);
+        return dispatcher.dispatchedEvents;
+    }
+
+    // events nobody listens to, checked the way the plugin does before posting
+    @Benchmark
+    @OperationsPerInvocation(EVENTS_PER_FRAME)
+    public int unsubscribed() {
+        for (int i = 0; i < EVENTS_PER_FRAME; i++) {
+            if (router.wants("clicked", "placement")) {
+                queue.post("clicked", "interstitial", "placement", false, 0, null, -1);
+            }
+        }
+        dispatcher.runPending(queue, router, batch);
+        return dispatcher.dispatchedEvents;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS_PER_FRAME)
+    public int postAndFlushErrors() {
+        for (int i = 0; i < EVENTS_PER_FRAME; i++) {
+            queue.post("failed", "interstitial", "placement", true, 1001, "No fill", 12.5);
+        }
+        dispatcher.runPending(queue, router, batch);
+        return dispatcher.dispatchedEvents;
+    }
+}
@@ -0,0 +1,57 @@
+//
+//  FakeRuntimeDispatcher.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.benchmark;
+
+import plugin.fbAudienceNetwork.core.EventQueue;
+import plugin.fbAudienceNetwork.core.EventRouter;
+import plugin.fbAudienceNetwork.core.FakeLuaStack;
+
+/**
+ * Stand-in for CoronaRuntimeTaskDispatcher. Flush requests are counted instead of being sent to the
+ * Lua thread, runPending() then plays the part of the runtime executing the task.
+ */
+final class FakeRuntimeDispatcher implements EventQueue.Scheduler, EventQueue.EventSink {
+    private final FakeLuaStack L;
+    private int pendingFlushes = 0;
+    int dispatchedEvents = 0;
+
+    FakeRuntimeDispatcher(FakeLuaStack L) {
+        this.L = L;
+    }
+
+    @Override
+    public void requestFlush() {
+        pendingFlushes++;
+    }
+
+    // CoronaLua.newEvent()
+    @Override
+    public void newEvent() {
+        L.newTable();
+        L.pushString("adsRequest");
+        L.setField(-2, "name");
+    }
+
+    // CoronaLua.dispatchEvent()
+    @Override
+    public void dispatchEvent(int listener) {
+        dispatchedEvents++;
+        L.pop(1);
+    }
+
+    // run the flush tasks sent since the last call
+    void runPending(EventQueue queue, EventRouter router, boolean batch) {
+        while (pendingFlushes > 0) {
+            pendingFlushes--;
+            queue.flush(L, this, router, batch);
+        }
+        L.reset();
+    }
+}
@@ -0,0 +1,105 @@
+//
+//  LoadOptionsBenchmark.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import plugin.fbAudienceNetwork.core.FakeLuaStack;
+import plugin.fbAudienceNetwork.core.LoadOptions;
+
+/**
+ * Parsing the arguments of fbAudienceNetwork.load() and loadMany(). Building the argument tables on the fake stack
+ * is part of every operation, and allocation free.
+ */
+@State(Scope.Thread)
+public class LoadOptionsBenchmark {
+    private FakeLuaStack L;
+    private LoadOptions loadOptions;
+
+    @Setup
+    public void setup() {
+        L = new FakeLuaStack();
+        loadOptions = new LoadOptions();
+    }
+
+    // load("banner", "placement", "BANNER_HEIGHT_90")
+    @Benchmark
+    public String legacy() {
+        L.reset();
+        L.pushString("banner");
+        L.pushString("placement");
+        L.pushString("BANNER_HEIGHT_90");
+        return loadOptions.parse(L, "BANNER_HEIGHT_50");
+    }
+
+    // load("banner", {placementId="placement", bannerSize="BANNER_HEIGHT_90"})
+    @Benchmark
+    public String banner() {
+        L.reset();
+        L.pushString("banner");
+        L.newTable();
+        L.pushString("placement");
+        L.setField(-2, "placementId");
+        L.pushString("BANNER_HEIGHT_90");
+        L.setField(-2, "bannerSize");
+        return loadOptions.parse(L, "BANNER_HEIGHT_50");
+    }
+
+    // one loadMany() request, {adUnitType="banner", placementId="placement", bannerSize="BANNER_HEIGHT_90"}
+    @Benchmark
+    public String batchRequest() {
+        L.reset();
+        L.newTable();
+        L.pushString("banner");
+        L.setField(-2, "adUnitType");
+        L.pushString("placement");
+        L.setField(-2, "placementId");
+        L.pushString("BANNER_HEIGHT_90");
+        L.setField(-2, "bannerSize");
+        return loadOptions.parseRequest(L, L.getTop(), "BANNER_HEIGHT_50");
+    }
+
+    // load("interstitial", {placementId="placement", preloadDepth=3, ttl=600000, retry={maxRetries=3, baseDelay=1000}})
+    @Benchmark
+    public String interstitialWithRetry() {
+        L.reset();
+        L.pushString("interstitial");
+        L.newTable();
+        L.pushString("placement");
+        L.setField(-2, "placementId");
+        L.pushNumber(3);
+        L.setField(-2, "preloadDepth");
+        L.pushNumber(600000);
+        L.setField(-2, "ttl");
+        L.newTable();
+        L.pushNumber(3);
+        L.setField(-2, "maxRetries");
+        L.pushNumber(1000);
+        L.setField(-2, "baseDelay");
+        L.setField(-2, "retry");
+        return loadOptions.parse(L, "BANNER_HEIGHT_50");
+    }
+
+    // load("interstitial", {placementId="placement", preloadDepth=9}), rejected
+    @Benchmark
+    public String invalid() {
+        L.reset();
+        L.pushString("interstitial");
+        L.newTable();
+        L.pushString("placement");
+        L.setField(-2, "placementId");
+        L.pushNumber(9);
+        L.setField(-2, "preloadDepth");
+        return loadOptions.parse(L, "BANNER_HEIGHT_50");
+    }
+}
@@ -0,0 +1,144 @@
+//
+//  SchedulingBenchmark.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import plugin.fbAudienceNetwork.core.AdErrorCodes;
+import plugin.fbAudienceNetwork.core.AdExpiry;
+import plugin.fbAudienceNetwork.core.AdStatus;
+import plugin.fbAudienceNetwork.core.FrameTaskQueue;
+import plugin.fbAudienceNetwork.core.LoadScheduler;
+import plugin.fbAudienceNetwork.core.RetryPolicy;
+import plugin.fbAudienceNetwork.core.Waterfall;
+
+/**
+ * Retry backoff, ad lifecycle transitions, expiry deadlines, waterfall races, the load limiter and the UI task queue.
+ */
+@State(Scope.Thread)
+public class SchedulingBenchmark {
+    private static final int[] ERROR_CODES = {
+            AdErrorCodes.NETWORK_ERROR,
+            AdErrorCodes.NO_FILL,
+            AdErrorCodes.LOAD_TOO_FREQUENTLY,
+            AdErrorCodes.SERVER_ERROR,
+    };
+
+    private static final int LOAD_REQUESTS = 8;
+    private static final int UI_TASKS = 8;
+
+    private RetryPolicy retryPolicy;
+    private LoadScheduler<Object> loadScheduler;
+    private final Object[] loadRequests = new Object[LOAD_REQUESTS];
+    private final Object[] startedRequests = new Object[LOAD_REQUESTS];
+    private int startedCount = 0;
+    private FrameTaskQueue uiTasks;
+    private final Object[] uiTaskKeys = new Object[UI_TASKS / 2];
+    private int uiTasksRun = 0;
+    private final Runnable uiTask = new Runnable() {
+        @Override
+        public void run() {
+            uiTasksRun++;
+        }
+    };
+    private AdStatus adStatus;
+    private int attempt = 0;
+    private long loadedAt = 0;
+
+    @Setup
+    public void setup() {
+        retryPolicy = new RetryPolicy(RetryPolicy.DEFAULT_MAX_RETRIES, RetryPolicy.DEFAULT_BASE_DELAY_MS, RetryPolicy.DEFAULT_MAX_DELAY_MS);
+        adStatus = new AdStatus();
+
+        loadScheduler = new LoadScheduler<>(new LoadScheduler.Starter<Object>() {
+            @Override
+            public void start(Object request) {
+                startedRequests[startedCount++] = request;
+            }
+        });
+        loadScheduler.setMaxInFlight(2, 0);
+        for (int i = 0; i < LOAD_REQUESTS; i++) {
+            loadRequests[i] = new Object();
+        }
+
+        uiTasks = new FrameTaskQueue(new FrameTaskQueue.Scheduler() {
+            @Override
+            public void requestFrame() {
+            }
+        });
+        for (int i = 0; i < uiTaskKeys.length; i++) {
+            uiTaskKeys[i] = new Object();
+        }
+    }
+
+    @Benchmark
+    public long retryDelay() {
+        attempt = (attempt + 1) % (RetryPolicy.DEFAULT_MAX_RETRIES + 1);
+        return retryPolicy.nextDelay(attempt, ERROR_CODES[attempt % ERROR_CODES.length]);
+    }
+
+    // loading -> loaded -> showing -> idle, and the rejected showing -> loading
+    @Benchmark
+    public boolean lifecycle() {
+        adStatus.reset();
+        boolean valid = adStatus.moveTo(AdStatus.STATE_LOADING);
+        valid &= adStatus.moveTo(AdStatus.STATE_LOADED);
+        valid &= adStatus.moveTo(AdStatus.STATE_SHOWING);
+        valid &= !adStatus.moveTo(AdStatus.STATE_LOADING);
+        valid &= adStatus.moveTo(AdStatus.STATE_IDLE);
+        return valid;
+    }
+
+    @Benchmark
+    public long expiryDeadline() {
+        loadedAt += 1000;
+        return AdExpiry.nextDeadline(loadedAt, AdExpiry.DEFAULT_TTL_MS, (loadedAt & 1024) != 0);
+    }
+
+    // three sources: the first fails, the third loads before the second
+    @Benchmark
+    public int waterfall() {
+        Waterfall race = new Waterfall(Waterfall.POLICY_PRIORITY, 3);
+        race.failed(0);
+        race.loaded(2);
+        return race.loaded(1);
+    }
+
+    // a scene requesting 8 ads of mixed priority with 2 allowed in flight, until all have completed
+    @Benchmark
+    @OperationsPerInvocation(LOAD_REQUESTS)
+    public int loadScheduler() {
+        for (int i = 0; i < LOAD_REQUESTS; i++) {
+            loadScheduler.submit(loadRequests[i], i % 3, 0);
+        }
+        // complete the requests in the order they were sent, which starts the queued ones
+        int completed = 0;
+        while (completed < startedCount) {
+            loadScheduler.finished(startedRequests[completed++], 0);
+        }
+        startedCount = 0;
+        return completed;
+    }
+
+    // a frame's worth of show() calls, each placement called twice so half of them coalesce, then run
+    @Benchmark
+    @OperationsPerInvocation(UI_TASKS)
+    public int uiTaskQueue() {
+        for (int i = 0; i < UI_TASKS; i++) {
+            uiTasks.post(uiTaskKeys[i % uiTaskKeys.length], uiTask);
+        }
+        uiTasks.runFrame(Long.MAX_VALUE);
+        return uiTasksRun;
+    }
+}
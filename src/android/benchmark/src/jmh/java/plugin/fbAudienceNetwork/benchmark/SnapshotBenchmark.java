@@ -0,0 +1,142 @@
+//
+//  SnapshotBenchmark.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import plugin.fbAudienceNetwork.core.AdStatus;
+import plugin.fbAudienceNetwork.core.PlacementSnapshot;
+
+/**
+ * Placement snapshots: the reads behind isLoaded() and getState() on the Lua thread, and a dirty slot publishing
+ * its snapshot on the UI thread. A slot whose visible state didn't change publishes without allocating.
+ */
+@State(Scope.Thread)
+public class SnapshotBenchmark {
+    private static final long TTL_MS = 3600000;
+
+    @Param({"4", "32"})
+    public int placements;
+
+    private ConcurrentHashMap<String, PlacementSnapshot> snapshots;
+    private String[] placementIds;
+    private int next = 0;
+    private long now;
+    private final Object showTaskKey = new Object();
+
+    // the ads of the slot being published, as AdSlot.publish() walks them
+    private final PlacementSnapshot.Builder builder = new PlacementSnapshot.Builder();
+    private final int[] adStates = {AdStatus.STATE_LOADED, AdStatus.STATE_LOADED, AdStatus.STATE_LOADING};
+    private final long[] adLoadedAt = new long[adStates.length];
+    private PlacementSnapshot published;
+
+    @Setup
+    public void setup() {
+        snapshots = new ConcurrentHashMap<>();
+        placementIds = new String[placements];
+        now = 10 * TTL_MS;
+        for (int i = 0; i < placements; i++) {
+            // distinct instances, like the strings JNLua hands over on every call
+            placementIds[i] = new String("placement_" + i);
+            snapshots.put(placementIds[i], snapshot(2));
+        }
+
+        for (int i = 0; i < adLoadedAt.length; i++) {
+            adLoadedAt[i] = now - i * 1000;
+        }
+        published = collect();
+    }
+
+    private String nextPlacementId() {
+        next = (next + 1) % placements;
+        return placementIds[next];
+    }
+
+    // an interstitial slot holding 'ready' ads, the oldest one already stale
+    private PlacementSnapshot snapshot(int ready) {
+        builder.reset();
+        fillSettings();
+        for (int i = 0; i < ready; i++) {
+            builder.addReady(AdStatus.STATE_LOADED, now - TTL_MS + i * 1000);
+        }
+        return builder.build();
+    }
+
+    private void fillSettings() {
+        builder.adType = "interstitial";
+        builder.showTaskKey = showTaskKey;
+        builder.depth = 3;
+        builder.ttlMs = TTL_MS;
+        builder.sources = null;
+        builder.waterfallPolicy = 0;
+        builder.full = true;
+        builder.showing = false;
+        builder.loading = false;
+        builder.restingState = AdStatus.STATE_IDLE;
+        builder.width = 0;
+        builder.height = 0;
+    }
+
+    // what AdSlot.publish() collects from the slot's ads. returns a new snapshot, or null when nothing changed
+    private PlacementSnapshot collect() {
+        builder.reset();
+        fillSettings();
+        for (int i = 0; i < adStates.length; i++) {
+            if (adStates[i] == AdStatus.STATE_LOADED) {
+                builder.addReady(adStates[i], adLoadedAt[i]);
+            } else if (adStates[i] == AdStatus.STATE_LOADING) {
+                builder.loading = true;
+            }
+        }
+        return builder.matches(published) ? null : builder.build();
+    }
+
+    // isLoaded(placementId)
+    @Benchmark
+    public double isLoaded() {
+        PlacementSnapshot snapshot = snapshots.get(nextPlacementId());
+        return (snapshot != null) ? snapshot.readyAge(now) : -1;
+    }
+
+    // getState(placementId)
+    @Benchmark
+    public int getState() {
+        PlacementSnapshot snapshot = snapshots.get(nextPlacementId());
+        return (snapshot != null) ? snapshot.getState(now) : AdStatus.STATE_IDLE;
+    }
+
+    private PlacementSnapshot publish() {
+        PlacementSnapshot snapshot = collect();
+        if (snapshot != null) {
+            published = snapshot;
+            snapshots.put(nextPlacementId(), snapshot);
+        }
+        return snapshot;
+    }
+
+    // a dirty slot publishing after a change Lua can't see, e.g. a refill timer which found the slot full
+    @Benchmark
+    public PlacementSnapshot publishUnchanged() {
+        return publish();
+    }
+
+    // a dirty slot publishing after one of its ads loaded
+    @Benchmark
+    public PlacementSnapshot publishChanged() {
+        adLoadedAt[0]++;
+        return publish();
+    }
+}
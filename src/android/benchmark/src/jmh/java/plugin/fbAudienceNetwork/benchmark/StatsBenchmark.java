@@ -0,0 +1,125 @@
+//
+//  StatsBenchmark.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+
+import plugin.fbAudienceNetwork.core.FakeLuaStack;
+import plugin.fbAudienceNetwork.core.PlacementHistory;
+import plugin.fbAudienceNetwork.core.PlacementStats;
+import plugin.fbAudienceNetwork.core.StatsRegistry;
+
+/**
+ * Placement registry lookups, counting from the SDK callbacks, the on-disk history and getStats().
+ */
+@State(Scope.Thread)
+public class StatsBenchmark {
+    @Param({"4", "32"})
+    public int placements;
+
+    private FakeLuaStack L;
+    private StatsRegistry registry;
+    private String[] placementIds;
+    private int next = 0;
+    private File historyFile;
+    private PlacementHistory history;
+    private int[] historyRecords;
+
+    @Setup
+    public void setup() throws IOException {
+        L = new FakeLuaStack();
+        registry = new StatsRegistry();
+        placementIds = new String[placements];
+        for (int i = 0; i < placements; i++) {
+            // distinct instances, like the strings JNLua hands over on every call
+            placementIds[i] = new String("placement_" + i);
+            registry.obtain(placementIds[i], "interstitial");
+        }
+
+        historyFile = File.createTempFile("history", ".bin");
+        history = PlacementHistory.open(historyFile);
+        historyRecords = new int[placements];
+        for (int i = 0; i < placements; i++) {
+            historyRecords[i] = history.recordFor(placementIds[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        historyFile.delete();
+    }
+
+    private String nextPlacementId() {
+        next = (next + 1) % placements;
+        return placementIds[next];
+    }
+
+    // getStats(placementId) / isLoaded() style lookup
+    @Benchmark
+    public PlacementStats lookup() {
+        return registry.get(nextPlacementId());
+    }
+
+    // every load() goes through obtain()
+    @Benchmark
+    public PlacementStats obtain() {
+        return registry.obtain(nextPlacementId(), "interstitial");
+    }
+
+    // onAdLoaded(): lookup, count and record the latency
+    @Benchmark
+    public long countLoaded() {
+        PlacementStats stats = registry.get(nextPlacementId());
+        stats.count(PlacementStats.STAT_LOADED);
+        stats.loadLatency.record(next * 100);
+        return stats.get(PlacementStats.STAT_LOADED);
+    }
+
+    // onError()
+    @Benchmark
+    public long countError() {
+        PlacementStats stats = registry.get(nextPlacementId());
+        stats.countError(1001);
+        return stats.get(PlacementStats.STAT_FAILED);
+    }
+
+    // onAdLoaded() and the request before it, written to the memory-mapped history
+    @Benchmark
+    public int historyLoaded() {
+        next = (next + 1) % placements;
+        history.countRequest(historyRecords[next]);
+        history.countLoaded(historyRecords[next], next * 100);
+        return history.requests(historyRecords[next]);
+    }
+
+    // what the next request of a placement is ranked and timed out by
+    @Benchmark
+    public long historyLoadTimeout() {
+        next = (next + 1) % placements;
+        return history.loadTimeout(historyRecords[next], 10000, 60000) + history.loadRank(historyRecords[next]);
+    }
+
+    // getStats() without arguments
+    @Benchmark
+    public int pushAll() {
+        L.reset();
+        registry.push(L);
+        return L.getTop();
+    }
+}
@@ -0,0 +1,135 @@
+//
+//  EventRouterTest.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventRouterTest {
+    private static final int INIT_LISTENER = 1;
+    private static final int PLACEMENT_LISTENER = 2;
+
+    private final EventRouter router = new EventRouter();
+    private final FakeLuaStack L = new FakeLuaStack();
+
+    // pushes an array of phase names
+    private void pushPhases(String... phases) {
+        L.newTable();
+        for (int i = 0; i < phases.length; i++) {
+            L.pushString(phases[i]);
+            L.rawSet(-2, i + 1);
+        }
+    }
+
+    @Test
+    public void phaseBitsAreDistinct() {
+        int loaded = EventRouter.phaseBit("loaded");
+        int failed = EventRouter.phaseBit("failed");
+
+        assertTrue(loaded != 0);
+        assertTrue(failed != 0);
+        assertEquals(0, loaded & failed);
+        assertEquals(loaded, EventRouter.ALL_PHASES & loaded);
+        assertEquals(0, EventRouter.phaseBit("displayed"));
+    }
+
+    @Test
+    public void initListenerGetsItsPhasesOnly() {
+        router.setGlobal(INIT_LISTENER, EventRouter.phaseBit("init") | EventRouter.phaseBit("loaded"));
+
+        assertEquals(INIT_LISTENER, router.listenerFor("loaded", "p"));
+        assertEquals(EventRouter.NO_LISTENER, router.listenerFor("failed", "p"));
+        assertFalse(router.wants("failed", null));
+
+        // phases which can't be subscribed to always go through
+        assertEquals(INIT_LISTENER, router.listenerFor("displayed", "p"));
+    }
+
+    @Test
+    public void noListenerBeforeInit() {
+        assertFalse(router.wants("loaded", null));
+    }
+
+    @Test
+    public void placementListenerTakesItsPhases() {
+        router.setGlobal(INIT_LISTENER, EventRouter.ALL_PHASES);
+        assertEquals(EventRouter.NO_LISTENER, router.setPlacement("p", PLACEMENT_LISTENER, EventRouter.phaseBit("failed")));
+
+        assertEquals(PLACEMENT_LISTENER, router.listenerFor("failed", "p"));
+        assertEquals(INIT_LISTENER, router.listenerFor("loaded", "p"));
+        assertEquals(INIT_LISTENER, router.listenerFor("failed", "q"));
+        assertEquals(INIT_LISTENER, router.listenerFor("failed", null));
+
+        assertEquals(PLACEMENT_LISTENER, router.setPlacement("p", 3, EventRouter.ALL_PHASES));
+        assertEquals(3, router.removePlacement("p"));
+        assertEquals(EventRouter.NO_LISTENER, router.removePlacement("p"));
+        assertEquals(INIT_LISTENER, router.listenerFor("failed", "p"));
+    }
+
+    @Test
+    public void clearReturnsThePlacementListeners() {
+        router.setGlobal(INIT_LISTENER, EventRouter.ALL_PHASES);
+        router.setPlacement("p", 2, EventRouter.ALL_PHASES);
+        router.setPlacement("q", 3, EventRouter.ALL_PHASES);
+
+        int[] listeners = router.clear();
+        Arrays.sort(listeners);
+
+        assertEquals(2, listeners.length);
+        assertEquals(2, listeners[0]);
+        assertEquals(3, listeners[1]);
+        assertFalse(router.wants("loaded", "p"));
+    }
+
+    @Test
+    public void parsesPhaseArrays() {
+        pushPhases("loaded", "failed");
+
+        assertEquals(EventRouter.phaseBit("loaded") | EventRouter.phaseBit("failed"), EventRouter.parsePhases(L, 1));
+        assertEquals(1, L.getTop());
+    }
+
+    @Test
+    public void rejectsUnknownPhases() {
+        pushPhases("loaded", "displayed");
+
+        assertEquals(-1, EventRouter.parsePhases(L, 1));
+        assertEquals(1, L.getTop());
+    }
+
+    @Test
+    public void rejectsKeyedTables() {
+        L.newTable();
+        L.pushString("loaded");
+        L.setField(-2, "phase");
+
+        assertEquals(-1, EventRouter.parsePhases(L, 1));
+        assertEquals(1, L.getTop());
+    }
+
+    @Test
+    public void rejectsOtherTypes() {
+        L.pushString("loaded");
+
+        assertEquals(-1, EventRouter.parsePhases(L, 1));
+    }
+
+    @Test
+    public void emptyArraySubscribesToNothing() {
+        L.newTable();
+
+        assertEquals(0, EventRouter.parsePhases(L, 1));
+    }
+}
@@ -0,0 +1,261 @@
+//
+//  FakeLuaStack.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+/**
+ * In-memory stand-in for JNLua's LuaState, used by the unit tests and the benchmarks.
+ * <p>
+ * Values live in parallel arrays and tables come from a pool which is recycled by reset(), so the fake
+ * itself doesn't allocate and the gc profiler only reports what the plugin code allocates.
+ * Tables are plain lists of entries, good enough for the handful of keys the plugin uses.
+ */
+public final class FakeLuaStack implements LuaStack {
+    private static final int STACK_SIZE = 64;
+    private static final int TABLE_POOL_SIZE = 1024;
+
+    static final class FakeTable {
+        private static final int CAPACITY = 32;
+
+        final String[] keys = new String[CAPACITY];   // null for integer keys
+        final int[] intKeys = new int[CAPACITY];
+        final int[] types = new int[CAPACITY];
+        final double[] numbers = new double[CAPACITY];
+        final Object[] refs = new Object[CAPACITY];
+        int size;
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                keys[i] = null;
+                refs[i] = null;
+            }
+            size = 0;
+        }
+
+        int find(String key) {
+            for (int i = 0; i < size; i++) {
+                if (key.equals(keys[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int find(int key) {
+            for (int i = 0; i < size; i++) {
+                if ((keys[i] == null) && (intKeys[i] == key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int slot(int index) {
+            if (index < 0) {
+                if (size == CAPACITY) {
+                    throw new IllegalStateException("FakeTable full");
+                }
+                index = size++;
+            }
+            return index;
+        }
+    }
+
+    private final int[] types = new int[STACK_SIZE];
+    private final double[] numbers = new double[STACK_SIZE];
+    private final Object[] refs = new Object[STACK_SIZE];
+    private int top = 0;
+
+    private final FakeTable[] tablePool = new FakeTable[TABLE_POOL_SIZE];
+    private int tablesUsed = 0;
+
+    public FakeLuaStack() {
+        for (int i = 0; i < TABLE_POOL_SIZE; i++) {
+            tablePool[i] = new FakeTable();
+        }
+    }
+
+    // empty the stack and recycle every table
+    public void reset() {
+        for (int i = 0; i < top; i++) {
+            refs[i] = null;
+        }
+        top = 0;
+        for (int i = 0; i < tablesUsed; i++) {
+            tablePool[i].clear();
+        }
+        tablesUsed = 0;
+    }
+
+    // table at 'index', for sinks which need to look inside events
+    FakeTable tableAt(int index) {
+        return (FakeTable) refs[absolute(index)];
+    }
+
+    private int absolute(int index) {
+        return (index < 0) ? (top + index) : (index - 1);
+    }
+
+    private boolean valid(int slot) {
+        return (slot >= 0) && (slot < top);
+    }
+
+    private void push(int type, double number, Object ref) {
+        if (top == STACK_SIZE) {
+            throw new IllegalStateException("FakeLuaStack overflow");
+        }
+        types[top] = type;
+        numbers[top] = number;
+        refs[top] = ref;
+        top++;
+    }
+
+    @Override
+    public int getTop() {
+        return top;
+    }
+
+    @Override
+    public int type(int index) {
+        int slot = absolute(index);
+        return valid(slot) ? types[slot] : TYPE_NONE;
+    }
+
+    @Override
+    public String typeName(int index) {
+        switch (type(index)) {
+            case TYPE_NONE:
+                return "no value";
+            case TYPE_NIL:
+                return "nil";
+            case TYPE_BOOLEAN:
+                return "boolean";
+            case TYPE_NUMBER:
+                return "number";
+            case TYPE_STRING:
+                return "string";
+            case TYPE_TABLE:
+                return "table";
+            default:
+                return "userdata";
+        }
+    }
+
+    @Override
+    public boolean toBoolean(int index) {
+        int type = type(index);
+        if (type == TYPE_BOOLEAN) {
+            return numbers[absolute(index)] != 0;
+        }
+        return (type != TYPE_NONE) && (type != TYPE_NIL);
+    }
+
+    @Override
+    public double toNumber(int index) {
+        return (type(index) == TYPE_NUMBER) ? numbers[absolute(index)] : 0;
+    }
+
+    @Override
+    public String toString(int index) {
+        return (type(index) == TYPE_STRING) ? (String) refs[absolute(index)] : null;
+    }
+
+    @Override
+    public boolean next(int index) {
+        FakeTable table = tableAt(index);
+
+        // the key on top is the previous one, entries are walked in insertion order
+        int entry;
+        if (type(-1) == TYPE_NIL) {
+            entry = 0;
+        } else if (type(-1) == TYPE_STRING) {
+            entry = table.find(toString(-1)) + 1;
+        } else {
+            entry = table.find((int) toNumber(-1)) + 1;
+        }
+        pop(1);
+
+        if (entry >= table.size) {
+            return false;
+        }
+
+        if (table.keys[entry] != null) {
+            push(TYPE_STRING, 0, table.keys[entry]);
+        } else {
+            push(TYPE_NUMBER, table.intKeys[entry], null);
+        }
+        push(table.types[entry], table.numbers[entry], table.refs[entry]);
+        return true;
+    }
+
+    @Override
+    public void pop(int count) {
+        for (int i = 0; i < count; i++) {
+            refs[--top] = null;
+        }
+    }
+
+    @Override
+    public void pushNil() {
+        push(TYPE_NIL, 0, null);
+    }
+
+    @Override
+    public void pushBoolean(boolean value) {
+        push(TYPE_BOOLEAN, value ? 1 : 0, null);
+    }
+
+    @Override
+    public void pushNumber(double value) {
+        push(TYPE_NUMBER, value, null);
+    }
+
+    @Override
+    public void pushString(String value) {
+        if (value == null) {
+            pushNil();
+        } else {
+            push(TYPE_STRING, 0, value);
+        }
+    }
+
+    @Override
+    public void newTable() {
+        if (tablesUsed == TABLE_POOL_SIZE) {
+            throw new IllegalStateException("FakeLuaStack table pool exhausted, call reset()");
+        }
+        push(TYPE_TABLE, 0, tablePool[tablesUsed++]);
+    }
+
+    @Override
+    public void setField(int index, String key) {
+        FakeTable table = tableAt(index);
+        int slot = table.slot(table.find(key));
+        store(table, slot);
+        table.keys[slot] = key;
+        pop(1);
+    }
+
+    @Override
+    public void rawSet(int index, int key) {
+        FakeTable table = tableAt(index);
+        int slot = table.slot(table.find(key));
+        store(table, slot);
+        table.keys[slot] = null;
+        table.intKeys[slot] = key;
+        pop(1);
+    }
+
+    private void store(FakeTable table, int slot) {
+        int from = top - 1;
+        table.types[slot] = types[from];
+        table.numbers[slot] = numbers[from];
+        table.refs[slot] = refs[from];
+    }
+}
@@ -0,0 +1,144 @@
+//
+//  FrameTaskQueueTest.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameTaskQueueTest {
+    private final List<String> ran = new ArrayList<>();
+    private int framesRequested = 0;
+
+    private final FrameTaskQueue queue = new FrameTaskQueue(new FrameTaskQueue.Scheduler() {
+        @Override
+        public void requestFrame() {
+            framesRequested++;
+        }
+    });
+
+    private Runnable task(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void runsInOrderAndRequestsOneFrame() {
+        queue.post(task("a"));
+        queue.post(task("b"));
+        assertEquals(1, framesRequested);
+
+        assertEquals(2, queue.runFrame(Long.MAX_VALUE));
+        assertEquals(Arrays.asList("a", "b"), ran);
+        assertEquals(1, framesRequested);
+    }
+
+    @Test
+    public void sameKeyReplacesThePendingTaskInPlace() {
+        queue.post("a", task("a1"));
+        queue.post(task("b"));
+        queue.post("a", task("a2"));
+        assertEquals(2, queue.size());
+
+        queue.runFrame(Long.MAX_VALUE);
+        assertEquals(Arrays.asList("a2", "b"), ran);
+    }
+
+    @Test
+    public void nullKeyNeverCoalesces() {
+        queue.post(null, task("a"));
+        queue.post(null, task("b"));
+
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void laterTaskOfTheGroupKeepsTheOrder() {
+        // load(), hide(), load() of the same placement
+        queue.post("load:p", "p", task("load1"));
+        queue.post(null, "p", task("hide"));
+        queue.post("load:p", "p", task("load2"));
+        assertEquals(3, queue.size());
+
+        queue.runFrame(Long.MAX_VALUE);
+        assertEquals(Arrays.asList("load1", "hide", "load2"), ran);
+    }
+
+    @Test
+    public void otherGroupsDontPreventCoalescing() {
+        queue.post("load:p", "p", task("load1"));
+        queue.post(null, "q", task("hideQ"));
+        queue.post("load:p", "p", task("load2"));
+        assertEquals(2, queue.size());
+
+        queue.runFrame(Long.MAX_VALUE);
+        assertEquals(Arrays.asList("load2", "hideQ"), ran);
+    }
+
+    @Test
+    public void allGroupsKeepTheOrderWithEveryGroup() {
+        queue.post("load:p", "p", task("load1"));
+        queue.post(null, FrameTaskQueue.ALL_GROUPS, task("batch"));
+        queue.post("load:p", "p", task("load2"));
+
+        // a keyed task in every group only coalesces while it is the last one
+        queue.post("batch", FrameTaskQueue.ALL_GROUPS, task("batch1"));
+        queue.post("batch", FrameTaskQueue.ALL_GROUPS, task("batch2"));
+        queue.post(null, "q", task("hideQ"));
+        queue.post("batch", FrameTaskQueue.ALL_GROUPS, task("batch3"));
+        assertEquals(6, queue.size());
+
+        queue.runFrame(Long.MAX_VALUE);
+        assertEquals(Arrays.asList("load1", "batch", "load2", "batch2", "hideQ", "batch3"), ran);
+    }
+
+    @Test
+    public void budgetSpreadsTasksOverFrames() {
+        queue.post(task("a"));
+        queue.post(task("b"));
+        queue.post(task("c"));
+
+        // at least one task runs, and the leftovers ask for another frame
+        assertEquals(1, queue.runFrame(0));
+        assertEquals(2, queue.size());
+        assertEquals(2, framesRequested);
+
+        assertEquals(2, queue.runFrame(Long.MAX_VALUE));
+        assertEquals(Arrays.asList("a", "b", "c"), ran);
+        assertEquals(2, framesRequested);
+    }
+
+    @Test
+    public void emptyFrameRunsNothing() {
+        assertEquals(0, queue.runFrame(Long.MAX_VALUE));
+        assertEquals(0, framesRequested);
+    }
+
+    @Test
+    public void clearDropsPendingTasks() {
+        queue.post("a", task("a"));
+        queue.clear();
+        assertEquals(0, queue.size());
+
+        // the queue is idle again, the next task asks for a frame
+        queue.post("a", task("a2"));
+        assertEquals(2, framesRequested);
+        queue.runFrame(Long.MAX_VALUE);
+        assertEquals(Arrays.asList("a2"), ran);
+    }
+}
@@ -0,0 +1,335 @@
+//
+//  LoadOptionsTest.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class LoadOptionsTest {
+    private static final String DEFAULT_BANNER_SIZE = "BANNER_HEIGHT_50";
+
+    private final FakeLuaStack L = new FakeLuaStack();
+    private final LoadOptions options = new LoadOptions();
+
+    // pushes the arguments of load(adUnitType, {placementId=placementId}), more options can be set on the table
+    private void pushLoad(String adUnitType, String placementId) {
+        L.pushString(adUnitType);
+        L.newTable();
+        if (placementId != null) {
+            L.pushString(placementId);
+            L.setField(-2, "placementId");
+        }
+    }
+
+    // pushes an array of strings
+    private void pushArray(String... values) {
+        L.newTable();
+        for (int i = 0; i < values.length; i++) {
+            L.pushString(values[i]);
+            L.rawSet(-2, i + 1);
+        }
+    }
+
+    private String parse() {
+        String error = options.parse(L, DEFAULT_BANNER_SIZE);
+        assertEquals("stack left unbalanced", 2, L.getTop());
+        return error;
+    }
+
+    @Test
+    public void legacyArguments() {
+        L.pushString("banner");
+        L.pushString("placement");
+        L.pushString("BANNER_HEIGHT_90");
+
+        assertNull(options.parse(L, DEFAULT_BANNER_SIZE));
+        assertEquals("banner", options.adUnitType);
+        assertEquals("placement", options.placementId);
+        assertEquals("BANNER_HEIGHT_90", options.bannerSize);
+    }
+
+    @Test
+    public void defaults() {
+        pushLoad("interstitial", "placement");
+
+        assertNull(parse());
+        assertEquals("interstitial", options.adUnitType);
+        assertEquals("placement", options.placementId);
+        assertNull(options.placementIds);
+        assertEquals(DEFAULT_BANNER_SIZE, options.bannerSize);
+        assertEquals(LoadOptions.DEFAULT_PRELOAD_DEPTH, options.preloadDepth);
+        assertEquals(AdExpiry.DEFAULT_TTL_MS, options.ttlMs);
+        assertNull(options.retryPolicy);
+        assertNull(options.refreshPolicy);
+    }
+
+    @Test
+    public void reusedInstanceStartsFromDefaults() {
+        pushLoad("interstitial", "placement");
+        L.pushNumber(3);
+        L.setField(-2, "preloadDepth");
+        assertNull(parse());
+
+        L.reset();
+        pushLoad("interstitial", "placement");
+        assertNull(parse());
+        assertEquals(LoadOptions.DEFAULT_PRELOAD_DEPTH, options.preloadDepth);
+    }
+
+    @Test
+    public void wrongArgumentCount() {
+        L.pushString("interstitial");
+
+        assertEquals("Expected 2 arguments, got 1", options.parse(L, DEFAULT_BANNER_SIZE));
+    }
+
+    @Test
+    public void wrongArgumentTypes() {
+        L.pushNumber(1);
+        L.newTable();
+        assertEquals("adUnitType (string) expected, got number", options.parse(L, DEFAULT_BANNER_SIZE));
+
+        L.reset();
+        L.pushString("interstitial");
+        L.pushBoolean(true);
+        assertEquals("options (table) expected, got boolean", options.parse(L, DEFAULT_BANNER_SIZE));
+    }
+
+    @Test
+    public void invalidOption() {
+        pushLoad("interstitial", "placement");
+        L.pushNumber(1);
+        L.setField(-2, "depth");
+
+        assertEquals("Invalid option 'depth'", parse());
+    }
+
+    @Test
+    public void waterfall() {
+        pushLoad("rewardedVideo", null);
+        pushArray("a", "b", "c");
+        L.setField(-2, "placementIds");
+        L.pushString("first");
+        L.setField(-2, "waterfall");
+
+        assertNull(parse());
+        assertEquals("a", options.placementId);
+        assertArrayEquals(new String[]{"a", "b", "c"}, options.placementIds);
+        assertEquals(Waterfall.POLICY_FIRST, options.waterfallPolicy);
+    }
+
+    @Test
+    public void singleSourceIsAPlainPlacement() {
+        pushLoad("interstitial", null);
+        pushArray("a");
+        L.setField(-2, "placementIds");
+
+        assertNull(parse());
+        assertEquals("a", options.placementId);
+        assertNull(options.placementIds);
+    }
+
+    @Test
+    public void invalidWaterfalls() {
+        pushLoad("interstitial", "a");
+        pushArray("a", "b");
+        L.setField(-2, "placementIds");
+        assertEquals("options.placementId and options.placementIds cannot be used together", parse());
+
+        L.reset();
+        pushLoad("interstitial", null);
+        pushArray("a", "b", "a");
+        L.setField(-2, "placementIds");
+        assertEquals("options.placementIds contains 'a' more than once", parse());
+
+        L.reset();
+        pushLoad("interstitial", null);
+        pushArray("a", "b", "c", "d", "e", "f");
+        L.setField(-2, "placementIds");
+        assertEquals("options.placementIds must be an array of up to 5 strings", parse());
+
+        L.reset();
+        pushLoad("interstitial", null);
+        pushArray();
+        L.setField(-2, "placementIds");
+        assertEquals("options.placementIds cannot be empty", parse());
+
+        L.reset();
+        pushLoad("interstitial", null);
+        L.pushString("fastest");
+        L.setField(-2, "waterfall");
+        assertEquals("options.waterfall must be 'priority' or 'first'", parse());
+    }
+
+    @Test
+    public void preloadDepthAndTtlAreChecked() {
+        pushLoad("interstitial", "placement");
+        L.pushNumber(LoadOptions.MAX_PRELOAD_DEPTH + 1);
+        L.setField(-2, "preloadDepth");
+        assertEquals("options.preloadDepth must be between 1 and " + LoadOptions.MAX_PRELOAD_DEPTH, parse());
+
+        L.reset();
+        pushLoad("interstitial", "placement");
+        L.pushNumber(AdExpiry.MIN_TTL_MS - 1);
+        L.setField(-2, "ttl");
+        assertEquals("options.ttl must be at least " + AdExpiry.MIN_TTL_MS + " milliseconds", parse());
+    }
+
+    @Test
+    public void retryWithDefaults() {
+        pushLoad("interstitial", "placement");
+        L.pushBoolean(true);
+        L.setField(-2, "retry");
+
+        assertNull(parse());
+        assertEquals(RetryPolicy.DEFAULT_MAX_RETRIES, options.retryPolicy.maxRetries);
+        assertEquals(RetryPolicy.DEFAULT_BASE_DELAY_MS, options.retryPolicy.baseDelayMs);
+        assertEquals(RetryPolicy.DEFAULT_MAX_DELAY_MS, options.retryPolicy.maxDelayMs);
+    }
+
+    @Test
+    public void retryTable() {
+        pushLoad("interstitial", "placement");
+        L.newTable();
+        L.pushNumber(3);
+        L.setField(-2, "maxRetries");
+        L.pushNumber(1000);
+        L.setField(-2, "baseDelay");
+        L.setField(-2, "retry");
+
+        assertNull(parse());
+        assertEquals(3, options.retryPolicy.maxRetries);
+        assertEquals(1000, options.retryPolicy.baseDelayMs);
+        assertEquals(RetryPolicy.DEFAULT_MAX_DELAY_MS, options.retryPolicy.maxDelayMs);
+    }
+
+    @Test
+    public void invalidRetryTables() {
+        pushLoad("interstitial", "placement");
+        L.newTable();
+        L.pushNumber(5000);
+        L.setField(-2, "baseDelay");
+        L.pushNumber(1000);
+        L.setField(-2, "maxDelay");
+        L.setField(-2, "retry");
+        assertEquals("options.retry.baseDelay must be positive and not greater than options.retry.maxDelay", parse());
+
+        L.reset();
+        pushLoad("interstitial", "placement");
+        L.newTable();
+        L.pushString("3");
+        L.setField(-2, "maxRetries");
+        L.setField(-2, "retry");
+        assertEquals("options.retry.maxRetries (number) expected, got: string", parse());
+
+        L.reset();
+        pushLoad("interstitial", "placement");
+        L.newTable();
+        L.pushNumber(3);
+        L.setField(-2, "attempts");
+        L.setField(-2, "retry");
+        assertEquals("Invalid option 'retry.attempts'", parse());
+    }
+
+    @Test
+    public void refreshTable() {
+        pushLoad("banner", "placement");
+        L.newTable();
+        L.pushNumber(45000);
+        L.setField(-2, "interval");
+        L.pushBoolean(false);
+        L.setField(-2, "pauseWhenHidden");
+        L.setField(-2, "refresh");
+
+        assertNull(parse());
+        assertEquals(45000, options.refreshPolicy.intervalMs);
+        assertEquals(RefreshPolicy.UNLIMITED_REFRESHES, options.refreshPolicy.maxRefreshes);
+        assertFalse(options.refreshPolicy.pauseWhenHidden);
+    }
+
+    @Test
+    public void maxRefreshesMustAllowARefresh() {
+        pushLoad("banner", "placement");
+        L.newTable();
+        L.pushNumber(0);
+        L.setField(-2, "maxRefreshes");
+        L.setField(-2, "refresh");
+        assertEquals("options.refresh.maxRefreshes must be at least 1", parse());
+
+        L.reset();
+        pushLoad("banner", "placement");
+        L.newTable();
+        L.pushNumber(2);
+        L.setField(-2, "maxRefreshes");
+        L.setField(-2, "refresh");
+        assertNull(parse());
+        assertEquals(2, options.refreshPolicy.maxRefreshes);
+        assertEquals(-1, options.refreshPolicy.nextRefreshAt(0, 2, true));
+    }
+
+    @Test
+    public void loadManyRequest() {
+        L.newTable();
+        L.pushString("banner");
+        L.setField(-2, "adUnitType");
+        L.pushString("placement");
+        L.setField(-2, "placementId");
+
+        assertNull(options.parseRequest(L, 1, DEFAULT_BANNER_SIZE));
+        assertEquals("banner", options.adUnitType);
+        assertEquals("placement", options.placementId);
+
+        L.reset();
+        L.newTable();
+        L.pushString("placement");
+        L.setField(-2, "placementId");
+        assertEquals("request.adUnitType (string) expected", options.parseRequest(L, 1, DEFAULT_BANNER_SIZE));
+
+        // the banner position is only allowed in profiles
+        L.reset();
+        L.newTable();
+        L.pushString("banner");
+        L.setField(-2, "adUnitType");
+        L.pushString("top");
+        L.setField(-2, "y");
+        assertEquals("Invalid option 'y'", options.parseRequest(L, 1, DEFAULT_BANNER_SIZE));
+        assertEquals(1, L.getTop());
+    }
+
+    @Test
+    public void profile() {
+        L.newTable();
+        L.pushString("banner");
+        L.setField(-2, "adUnitType");
+        L.pushString("placement");
+        L.setField(-2, "placementId");
+        L.pushNumber(40);
+        L.setField(-2, "y");
+
+        assertNull(options.parseProfile(L, 1, DEFAULT_BANNER_SIZE));
+        assertNull(options.yAlign);
+        assertEquals(40, options.yOffset, 0);
+
+        LoadOptions copy = options.copy();
+        L.reset();
+        L.newTable();
+        L.pushString("banner");
+        L.setField(-2, "adUnitType");
+        assertEquals("profile.placementId (string) expected", options.parseProfile(L, 1, DEFAULT_BANNER_SIZE));
+
+        // the copy keeps the profile once the instance is reused
+        assertEquals("placement", copy.placementId);
+        assertEquals(40, copy.yOffset, 0);
+    }
+}
@@ -0,0 +1,149 @@
+//
+//  LoadSchedulerTest.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LoadSchedulerTest {
+    private final List<String> started = new ArrayList<>();
+    private final List<Long> timerDelays = new ArrayList<>();
+
+    private final LoadScheduler<String> scheduler = new LoadScheduler<>(new LoadScheduler.Starter<String>() {
+        @Override
+        public void start(String request) {
+            started.add(request);
+        }
+    }, new LoadScheduler.Timer() {
+        @Override
+        public void schedule(long delayMs) {
+            timerDelays.add(delayMs);
+        }
+    });
+
+    @Test
+    public void startsRightAwayWithoutLimit() {
+        scheduler.submit("a", 1, 0);
+        scheduler.submit("b", 1, 0);
+
+        assertEquals(Arrays.asList("a", "b"), started);
+        assertEquals(2, scheduler.inFlightCount());
+    }
+
+    @Test
+    public void queuedByPriorityThenRankThenOrder() {
+        scheduler.setMaxInFlight(1, 0);
+        scheduler.submit("first", 1, 0);
+
+        scheduler.submit("low", 1, LoadScheduler.DEFAULT_RANK, LoadScheduler.STALE_TIMEOUT_MS, 0);
+        scheduler.submit("high", 3, LoadScheduler.DEFAULT_RANK, LoadScheduler.STALE_TIMEOUT_MS, 0);
+        scheduler.submit("highRanked", 3, 5, LoadScheduler.STALE_TIMEOUT_MS, 0);
+        scheduler.submit("high2", 3, LoadScheduler.DEFAULT_RANK, LoadScheduler.STALE_TIMEOUT_MS, 0);
+        assertEquals(4, scheduler.queuedCount());
+
+        for (String request : new String[]{"first", "highRanked", "high", "high2"}) {
+            scheduler.finished(request, 0);
+        }
+
+        assertEquals(Arrays.asList("first", "highRanked", "high", "high2", "low"), started);
+    }
+
+    @Test
+    public void finishingAnUnknownRequestStartsNothing() {
+        scheduler.setMaxInFlight(1, 0);
+        scheduler.submit("a", 1, 0);
+        scheduler.submit("b", 1, 0);
+
+        scheduler.finished("refresh", 0);
+
+        assertEquals(Arrays.asList("a"), started);
+    }
+
+    @Test
+    public void cancelledRequestsAreNotStarted() {
+        scheduler.setMaxInFlight(1, 0);
+        scheduler.submit("a", 1, 0);
+        scheduler.submit("b", 1, 0);
+        scheduler.submit("c", 1, 0);
+
+        scheduler.cancel("b", 0);
+        scheduler.cancel("a", 0);
+
+        assertEquals(Arrays.asList("a", "c"), started);
+        assertEquals(0, scheduler.queuedCount());
+    }
+
+    @Test
+    public void pausedHoldsNewRequests() {
+        scheduler.setPaused(true, 0);
+        scheduler.submit("a", 1, 0);
+        assertEquals(0, started.size());
+
+        scheduler.setPaused(false, 0);
+        assertEquals(Arrays.asList("a"), started);
+    }
+
+    @Test
+    public void timerArmedOnlyWhileRequestsWait() {
+        scheduler.setMaxInFlight(1, 0);
+        scheduler.submit("a", 1, LoadScheduler.DEFAULT_RANK, 1000, 0);
+        assertEquals(0, timerDelays.size());
+
+        // armed for the deadline of "a", not re-armed by later calls while it stays the same
+        scheduler.submit("b", 1, LoadScheduler.DEFAULT_RANK, 1000, 100);
+        scheduler.submit("c", 1, LoadScheduler.DEFAULT_RANK, 1000, 200);
+        assertEquals(Arrays.asList(900L), timerDelays);
+
+        // "a" finished, armed for the deadline of "b"
+        scheduler.finished("a", 500);
+        assertEquals(Arrays.asList(900L, 1000L), timerDelays);
+
+        // "b" finished, nothing waits any more
+        scheduler.finished("b", 600);
+        assertEquals(Arrays.asList(900L, 1000L, -1L), timerDelays);
+    }
+
+    @Test
+    public void timedOutRequestsFreeTheirSlot() {
+        scheduler.setMaxInFlight(1, 0);
+        scheduler.submit("a", 1, LoadScheduler.DEFAULT_RANK, 1000, 0);
+        scheduler.submit("b", 1, LoadScheduler.DEFAULT_RANK, 1000, 0);
+
+        scheduler.checkTimeouts(999);
+        assertEquals(Arrays.asList("a"), started);
+
+        scheduler.checkTimeouts(1000);
+        assertEquals(Arrays.asList("a", "b"), started);
+        assertEquals(1, scheduler.inFlightCount());
+
+        // a late report of the abandoned request doesn't free the slot of "b"
+        scheduler.submit("c", 1, 1000);
+        scheduler.finished("a", 1100);
+        assertEquals(Arrays.asList("a", "b"), started);
+    }
+
+    @Test
+    public void clearCancelsTheTimer() {
+        scheduler.setMaxInFlight(1, 0);
+        scheduler.submit("a", 1, 0);
+        scheduler.submit("b", 1, 0);
+
+        scheduler.clear();
+
+        assertEquals(-1L, (long) timerDelays.get(timerDelays.size() - 1));
+        assertEquals(0, scheduler.inFlightCount());
+        assertEquals(0, scheduler.queuedCount());
+    }
+}
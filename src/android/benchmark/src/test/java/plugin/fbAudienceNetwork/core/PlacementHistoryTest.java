@@ -0,0 +1,180 @@
+//
+//  PlacementHistoryTest.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlacementHistoryTest {
+    private final PlacementHistory history = PlacementHistory.inMemory();
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("placement_history", ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static void record(PlacementHistory history, int record, int requests, int loaded, int noFills) {
+        for (int i = 0; i < requests; i++) {
+            history.countRequest(record);
+        }
+        for (int i = 0; i < loaded; i++) {
+            history.countLoaded(record, 300);
+        }
+        for (int i = 0; i < noFills; i++) {
+            history.countError(record, AdErrorCodes.NO_FILL);
+        }
+    }
+
+    @Test
+    public void recordsArePerPlacement() {
+        assertFalse(history.isPersistent());
+
+        assertEquals(0, history.recordFor("a"));
+        assertEquals(1, history.recordFor("b"));
+        assertEquals(0, history.recordFor("a"));
+    }
+
+    @Test
+    public void noRecordWhenFullOrTooLong() {
+        char[] longId = new char[63];
+        Arrays.fill(longId, 'x');
+        assertEquals(PlacementHistory.NO_RECORD, history.recordFor(new String(longId)));
+
+        for (int i = 0; i < PlacementHistory.MAX_RECORDS; i++) {
+            assertEquals(i, history.recordFor("placement_" + i));
+        }
+        assertEquals(PlacementHistory.NO_RECORD, history.recordFor("one_too_many"));
+
+        // counting without a record is ignored
+        record(history, PlacementHistory.NO_RECORD, 30, 30, 0);
+        assertEquals(0, history.requests(PlacementHistory.NO_RECORD));
+        assertEquals(-1, history.fillRate(PlacementHistory.NO_RECORD), 0);
+    }
+
+    @Test
+    public void ratesNeedEnoughHistory() {
+        int record = history.recordFor("a");
+
+        record(history, record, 19, 10, 9);
+        assertEquals(-1, history.fillRate(record), 0);
+        assertEquals(-1, history.noFillRate(record), 0);
+        assertEquals(-1, history.latencyPercentile(record, 0.95));
+        assertEquals(5000, history.loadTimeout(record, 1000, 5000));
+        assertEquals(500, history.loadRank(record));
+
+        record(history, record, 1, 0, 0);
+        assertEquals(0.5, history.fillRate(record), 1e-9);
+        assertEquals(0.45, history.noFillRate(record), 1e-9);
+        assertEquals(500, history.loadRank(record));
+    }
+
+    @Test
+    public void placementsWhichRarelyFillBackOffSooner() {
+        int rarely = history.recordFor("rarely");
+        int sometimes = history.recordFor("sometimes");
+        int often = history.recordFor("often");
+
+        record(history, rarely, 20, 4, 16);
+        record(history, sometimes, 20, 10, 10);
+        record(history, often, 20, 19, 1);
+
+        assertEquals(2, history.retryHeadStart(rarely));
+        assertEquals(1, history.retryHeadStart(sometimes));
+        assertEquals(0, history.retryHeadStart(often));
+        assertTrue(history.loadRank(often) > history.loadRank(rarely));
+    }
+
+    @Test
+    public void latencyFromTheHistogramBuckets() {
+        int record = history.recordFor("a");
+
+        // 300ms lands in the 500ms bucket
+        record(history, record, 20, 20, 0);
+        assertEquals(500, history.latencyPercentile(record, 0.95));
+        assertEquals(1500, history.loadTimeout(record, 1000, 5000));
+        assertEquals(2000, history.loadTimeout(record, 2000, 5000));
+        assertEquals(1200, history.loadTimeout(record, 1000, 1200));
+
+        // loads slower than the last bucket
+        int slow = history.recordFor("slow");
+        for (int i = 0; i < 20; i++) {
+            history.countLoaded(slow, 60000);
+        }
+        long lastBucket = LatencyHistogram.BUCKETS_MS[LatencyHistogram.BUCKETS_MS.length - 1];
+        assertEquals(lastBucket * 2, history.latencyPercentile(slow, 0.5));
+    }
+
+    @Test
+    public void countsAreHalvedWithAge() {
+        int record = history.recordFor("a");
+
+        record(history, record, 9999, 3000, 1000);
+        assertEquals(9999, history.requests(record));
+
+        history.countRequest(record);
+        assertEquals(5000, history.requests(record));
+        assertEquals(0.3, history.fillRate(record), 1e-9);
+        assertEquals(0.1, history.noFillRate(record), 1e-9);
+    }
+
+    @Test
+    public void historyIsReadBackFromTheFile() throws IOException {
+        File file = tempFile();
+
+        PlacementHistory written = PlacementHistory.open(file);
+        assertTrue(written.isPersistent());
+        written.recordFor("a");
+        record(written, written.recordFor("b"), 40, 30, 10);
+
+        PlacementHistory read = PlacementHistory.open(file);
+        assertEquals(1, read.recordFor("b"));
+        assertEquals(40, read.requests(1));
+        assertEquals(0.75, read.fillRate(1), 1e-9);
+        assertEquals(2, read.recordFor("c"));
+    }
+
+    @Test
+    public void unreadableFileStartsOver() throws IOException {
+        File file = tempFile();
+
+        byte[] garbage = new byte[PlacementHistory.FILE_SIZE];
+        Arrays.fill(garbage, (byte) 0x7f);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(garbage);
+        } finally {
+            out.close();
+        }
+
+        PlacementHistory read = PlacementHistory.open(file);
+        assertEquals(0, read.recordFor("a"));
+        assertEquals(0, read.requests(0));
+    }
+
+    @Test
+    public void unmappableFileFallsBackToMemory() throws IOException {
+        File directory = tempFile();
+        assertTrue(directory.delete() && directory.mkdir());
+        directory.deleteOnExit();
+
+        PlacementHistory fallback = PlacementHistory.open(directory);
+        assertFalse(fallback.isPersistent());
+        assertEquals(0, fallback.recordFor("a"));
+    }
+}
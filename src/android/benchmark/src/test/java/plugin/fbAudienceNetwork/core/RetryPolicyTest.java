@@ -0,0 +1,74 @@
+//
+//  RetryPolicyTest.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+    private static final int SAMPLES = 1000;
+    private static final int UNKNOWN_ERROR = 1203;   // e.g. an invalid placement
+
+    private final RetryPolicy policy = new RetryPolicy(5, 1000, 60000);
+
+    // the jittered delay keeps at least half of 'delayMs' and never goes past it
+    private static void assertJitteredDelay(long delayMs, RetryPolicy policy, int attempt, int errorCode, int headStart) {
+        for (int i = 0; i < SAMPLES; i++) {
+            long delay = policy.nextDelay(attempt, errorCode, headStart);
+            assertTrue("delay " + delay + " below " + (delayMs / 2), delay >= delayMs / 2);
+            assertTrue("delay " + delay + " above " + delayMs, delay <= delayMs);
+        }
+    }
+
+    @Test
+    public void transientErrorsDoubleFromTheBaseDelay() {
+        assertJitteredDelay(1000, policy, 0, AdErrorCodes.NETWORK_ERROR, 0);
+        assertJitteredDelay(2000, policy, 1, AdErrorCodes.SERVER_ERROR, 0);
+        assertJitteredDelay(4000, policy, 2, AdErrorCodes.INTERNAL_ERROR, 0);
+    }
+
+    @Test
+    public void noFillStartsLater() {
+        assertJitteredDelay(4000, policy, 0, AdErrorCodes.NO_FILL, 0);
+    }
+
+    @Test
+    public void throttlingWaitsTheMaxDelay() {
+        assertJitteredDelay(60000, policy, 0, AdErrorCodes.LOAD_TOO_FREQUENTLY, 0);
+    }
+
+    @Test
+    public void delaysAreCapped() {
+        assertJitteredDelay(60000, policy, 4, AdErrorCodes.NO_FILL, 0);
+    }
+
+    @Test
+    public void headStartSkipsDoublings() {
+        assertJitteredDelay(4000, policy, 0, AdErrorCodes.NETWORK_ERROR, 2);
+    }
+
+    @Test
+    public void givesUpAfterMaxRetries() {
+        assertTrue(policy.nextDelay(4, AdErrorCodes.NETWORK_ERROR) >= 0);
+        assertEquals(-1, policy.nextDelay(5, AdErrorCodes.NETWORK_ERROR));
+    }
+
+    @Test
+    public void givesUpOnErrorsWhichWontFixThemselves() {
+        assertFalse(RetryPolicy.isRetryable(UNKNOWN_ERROR));
+        assertEquals(-1, policy.nextDelay(0, UNKNOWN_ERROR));
+
+        assertTrue(RetryPolicy.isRetryable(AdErrorCodes.CACHE_ERROR));
+        assertTrue(RetryPolicy.isRetryable(AdErrorCodes.NO_FILL));
+    }
+}
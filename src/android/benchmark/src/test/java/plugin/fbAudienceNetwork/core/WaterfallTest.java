@@ -0,0 +1,64 @@
+//
+//  WaterfallTest.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class WaterfallTest {
+    @Test
+    public void priorityWaitsForBetterSources() {
+        Waterfall waterfall = new Waterfall(Waterfall.POLICY_PRIORITY, 3);
+
+        assertEquals(Waterfall.PENDING, waterfall.loaded(2));
+        assertEquals(Waterfall.PENDING, waterfall.loaded(1));
+        assertEquals(1, waterfall.failed(0));
+    }
+
+    @Test
+    public void priorityTakesTheFirstSourceRightAway() {
+        Waterfall waterfall = new Waterfall(Waterfall.POLICY_PRIORITY, 3);
+
+        assertEquals(0, waterfall.loaded(0));
+    }
+
+    @Test
+    public void priorityFailsOnceEverySourceFailed() {
+        Waterfall waterfall = new Waterfall(Waterfall.POLICY_PRIORITY, 2);
+
+        assertEquals(Waterfall.PENDING, waterfall.failed(1));
+        assertEquals(Waterfall.EXHAUSTED, waterfall.failed(0));
+    }
+
+    @Test
+    public void firstTakesWhicheverLoadsFirst() {
+        Waterfall waterfall = new Waterfall(Waterfall.POLICY_FIRST, 3);
+
+        assertEquals(Waterfall.PENDING, waterfall.failed(0));
+        assertEquals(2, waterfall.loaded(2));
+    }
+
+    @Test
+    public void firstFailsOnceEverySourceFailed() {
+        Waterfall waterfall = new Waterfall(Waterfall.POLICY_FIRST, 3);
+
+        assertEquals(Waterfall.PENDING, waterfall.failed(2));
+        assertEquals(Waterfall.PENDING, waterfall.failed(0));
+        assertEquals(Waterfall.EXHAUSTED, waterfall.failed(1));
+    }
+
+    @Test
+    public void policyNames() {
+        assertEquals(Waterfall.POLICY_PRIORITY, Waterfall.policyFromName("priority"));
+        assertEquals(Waterfall.POLICY_FIRST, Waterfall.policyFromName("first"));
+        assertEquals(-1, Waterfall.policyFromName("fastest"));
+    }
+}
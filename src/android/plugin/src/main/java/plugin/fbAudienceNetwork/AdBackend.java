@@ -0,0 +1,77 @@
+//
+//  AdBackend.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork;
+
+import android.view.View;
+
+import com.ansca.corona.CoronaActivity;
+
+/**
+ * Source of ads used by LuaLoader.
+ * <p>
+ * {@link AudienceNetworkBackend} talks to the Audience Network SDK, {@link SimulatedBackend} fakes fill,
+ * latency, errors and expiry in-process so the plugin can be load tested offline.
+ * Every method is called on the UI thread and every listener callback must be delivered on the UI thread.
+ */
+interface AdBackend {
+    // banner sizes
+    String BANNER_320_50 = "BANNER_320_50";
+    String BANNER_HEIGHT_50 = "BANNER_HEIGHT_50";
+    String BANNER_HEIGHT_90 = "BANNER_HEIGHT_90";
+    String RECTANGLE_HEIGHT_250 = "RECTANGLE_HEIGHT_250";
+
+    // a single ad request and, once loaded, the ad itself
+    interface BackendAd {
+        String getPlacementId();
+
+        // send the request. results are reported to the listener the ad was created with
+        void load();
+
+        // loaded and still valid
+        boolean isLoaded();
+
+        // full-screen ads only. the listener is told when the ad is displayed and closed
+        void show();
+
+        // banners only, the view to add to the layout
+        View getView();
+
+        void destroy();
+    }
+
+    interface Listener {
+        void onLoaded(BackendAd ad);
+
+        void onError(BackendAd ad, int errorCode, String errorMessage);
+
+        void onClicked(BackendAd ad);
+
+        void onImpression(BackendAd ad);
+
+        // interstitials only
+        void onDisplayed(BackendAd ad);
+
+        // full-screen ads only
+        void onClosed(BackendAd ad);
+
+        // rewarded ads only
+        void onRewarded(BackendAd ad);
+    }
+
+    // get ready to serve ads. 'onReady' is run on the UI thread when done
+    void initialize(CoronaActivity coronaActivity, Runnable onReady);
+
+    // 'bannerSize' is one of the size constants above
+    BackendAd createBanner(CoronaActivity coronaActivity, String placementId, String bannerSize, Listener listener);
+
+    BackendAd createInterstitial(CoronaActivity coronaActivity, String placementId, Listener listener);
+
+    BackendAd createRewarded(CoronaActivity coronaActivity, String placementId, Listener listener);
+}
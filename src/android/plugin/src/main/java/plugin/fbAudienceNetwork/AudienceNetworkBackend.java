@@ -0,0 +1,240 @@
+//
+//  AudienceNetworkBackend.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.View;
+
+import com.ansca.corona.CoronaActivity;
+import com.facebook.ads.Ad;
+import com.facebook.ads.AdError;
+import com.facebook.ads.AdListener;
+import com.facebook.ads.AdSize;
+import com.facebook.ads.AdView;
+import com.facebook.ads.AudienceNetworkAds;
+import com.facebook.ads.InterstitialAd;
+import com.facebook.ads.InterstitialAdListener;
+import com.facebook.ads.RewardedVideoAd;
+import com.facebook.ads.RewardedVideoAdListener;
+
+import plugin.fbAudienceNetwork.core.AdErrorCodes;
+
+/**
+ * Ads served by the Audience Network SDK.
+ * <p>
+ * Each wrapper is also the SDK listener of its ad, so callbacks map straight back to the request.
+ */
+final class AudienceNetworkBackend implements AdBackend {
+    // reports requests the SDK refused to send, the way it reports its own errors: later, on the UI thread
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void initialize(final CoronaActivity coronaActivity, final Runnable onReady) {
+        AudienceNetworkAds
+                .buildInitSettings(coronaActivity)
+                .withInitListener(new AudienceNetworkAds.InitListener() {
+                    @Override
+                    public void onInitialized(AudienceNetworkAds.InitResult result) {
+                        coronaActivity.runOnUiThread(onReady);
+                    }
+                })
+                .initialize();
+    }
+
+    @Override
+    public BackendAd createBanner(CoronaActivity coronaActivity, String placementId, String bannerSize, Listener listener) {
+        AdSize bannerAdSize;
+
+        switch (bannerSize) {
+            case BANNER_320_50:
+                //noinspection deprecation
+                bannerAdSize = AdSize.BANNER_320_50;
+                break;
+            case BANNER_HEIGHT_90:
+                bannerAdSize = AdSize.BANNER_HEIGHT_90;
+                break;
+            case RECTANGLE_HEIGHT_250:
+                bannerAdSize = AdSize.RECTANGLE_HEIGHT_250;
+                break;
+            default:
+                bannerAdSize = AdSize.BANNER_HEIGHT_50;
+                break;
+        }
+
+        return new Banner(new AdView(coronaActivity, placementId, bannerAdSize), placementId, listener);
+    }
+
+    @Override
+    public BackendAd createInterstitial(CoronaActivity coronaActivity, String placementId, Listener listener) {
+        return new Interstitial(new InterstitialAd(coronaActivity, placementId), placementId, listener);
+    }
+
+    @Override
+    public BackendAd createRewarded(CoronaActivity coronaActivity, String placementId, Listener listener) {
+        return new Rewarded(new RewardedVideoAd(coronaActivity, placementId), placementId, listener);
+    }
+
+    // common part of the wrappers. 'ad' is the SDK object, 'listener' the plugin's
+    private static abstract class SdkAd<T extends Ad> implements BackendAd, AdListener {
+        final T ad;
+        final Listener listener;
+        private final String placementId;
+
+        SdkAd(T ad, String placementId, Listener listener) {
+            this.ad = ad;
+            this.placementId = placementId;
+            this.listener = listener;
+        }
+
+        @Override
+        public String getPlacementId() {
+            return placementId;
+        }
+
+        // sends the SDK request
+        abstract void loadAd();
+
+        @Override
+        public void load() {
+            try {
+                loadAd();
+            } catch (final Exception e) {
+                Log.e("Corona", "error loading ad for placement " + placementId, e);
+
+                // no callback will come, fail the request so its load slot is freed and the retry policy applies
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onError(SdkAd.this, AdErrorCodes.INTERNAL_ERROR, String.valueOf(e.getMessage()));
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void show() {
+        }
+
+        @Override
+        public View getView() {
+            return null;
+        }
+
+        @Override
+        public void destroy() {
+            ad.destroy();
+        }
+
+        @Override
+        public void onError(Ad ad, AdError error) {
+            listener.onError(this, error.getErrorCode(), error.getErrorMessage());
+        }
+
+        @Override
+        public void onAdLoaded(Ad ad) {
+            listener.onLoaded(this);
+        }
+
+        @Override
+        public void onAdClicked(Ad ad) {
+            listener.onClicked(this);
+        }
+
+        @Override
+        public void onLoggingImpression(Ad ad) {
+            listener.onImpression(this);
+        }
+    }
+
+    private static final class Banner extends SdkAd<AdView> {
+        Banner(AdView ad, String placementId, Listener listener) {
+            super(ad, placementId, listener);
+        }
+
+        @Override
+        void loadAd() {
+            ad.loadAd(ad.buildLoadAdConfig().withAdListener(this).build());
+        }
+
+        @Override
+        public boolean isLoaded() {
+            return true;   // AdView has no such query, the plugin tracks it
+        }
+
+        @Override
+        public View getView() {
+            return ad;
+        }
+    }
+
+    private static final class Interstitial extends SdkAd<InterstitialAd> implements InterstitialAdListener {
+        Interstitial(InterstitialAd ad, String placementId, Listener listener) {
+            super(ad, placementId, listener);
+        }
+
+        @Override
+        void loadAd() {
+            ad.loadAd(ad.buildLoadAdConfig().withAdListener(this).build());
+        }
+
+        @Override
+        public boolean isLoaded() {
+            return ad.isAdLoaded() && !ad.isAdInvalidated();
+        }
+
+        @Override
+        public void show() {
+            ad.show();
+        }
+
+        @Override
+        public void onInterstitialDisplayed(Ad ad) {
+            listener.onDisplayed(this);
+        }
+
+        @Override
+        public void onInterstitialDismissed(Ad ad) {
+            listener.onClosed(this);
+        }
+    }
+
+    private static final class Rewarded extends SdkAd<RewardedVideoAd> implements RewardedVideoAdListener {
+        Rewarded(RewardedVideoAd ad, String placementId, Listener listener) {
+            super(ad, placementId, listener);
+        }
+
+        @Override
+        void loadAd() {
+            ad.loadAd(ad.buildLoadAdConfig().withAdListener(this).build());
+        }
+
+        @Override
+        public boolean isLoaded() {
+            return ad.isAdLoaded() && !ad.isAdInvalidated();
+        }
+
+        @Override
+        public void show() {
+            ad.show();
+        }
+
+        @Override
+        public void onRewardedVideoCompleted() {
+            listener.onRewarded(this);
+        }
+
+        @Override
+        public void onRewardedVideoClosed() {
+            listener.onClosed(this);
+        }
+    }
+}
@@ -9,45 +9,82 @@
 
 package plugin.fbAudienceNetwork;
 
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Point;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.Display;
 import android.view.Gravity;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.FrameLayout;
 
 import com.ansca.corona.CoronaActivity;
 import com.ansca.corona.CoronaEnvironment;
 import com.ansca.corona.CoronaLua;
-import com.ansca.corona.CoronaLuaEvent;
 import com.ansca.corona.CoronaRuntime;
 import com.ansca.corona.CoronaRuntimeListener;
 import com.ansca.corona.CoronaRuntimeTask;
 import com.ansca.corona.CoronaRuntimeTaskDispatcher;
-import com.facebook.ads.Ad;
-import com.facebook.ads.AdError;
-import com.facebook.ads.AdListener;
 import com.facebook.ads.AdSettings;
-import com.facebook.ads.AdSize;
-import com.facebook.ads.AdView;
-import com.facebook.ads.AudienceNetworkAds;
-import com.facebook.ads.InterstitialAd;
-import com.facebook.ads.InterstitialAdListener;
-import com.facebook.ads.RewardedVideoAd;
-import com.facebook.ads.RewardedVideoAdListener;
 import com.naef.jnlua.JavaFunction;
 import com.naef.jnlua.LuaState;
 import com.naef.jnlua.LuaType;
 import com.naef.jnlua.NamedJavaFunction;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import plugin.fbAudienceNetwork.core.AdExpiry;
+import plugin.fbAudienceNetwork.core.AdStatus;
+import plugin.fbAudienceNetwork.core.EventQueue;
+import plugin.fbAudienceNetwork.core.EventRouter;
+import plugin.fbAudienceNetwork.core.FrameTaskQueue;
+import plugin.fbAudienceNetwork.core.InitTimings;
+import plugin.fbAudienceNetwork.core.LoadOptions;
+import plugin.fbAudienceNetwork.core.LoadScheduler;
+import plugin.fbAudienceNetwork.core.LuaStack;
+import plugin.fbAudienceNetwork.core.MemoryBudget;
+import plugin.fbAudienceNetwork.core.PlacementHistory;
+import plugin.fbAudienceNetwork.core.PlacementSnapshot;
+import plugin.fbAudienceNetwork.core.PlacementStats;
+import plugin.fbAudienceNetwork.core.RefreshPolicy;
+import plugin.fbAudienceNetwork.core.RetryPolicy;
+import plugin.fbAudienceNetwork.core.SimulatorConfig;
+import plugin.fbAudienceNetwork.core.StatsRegistry;
+import plugin.fbAudienceNetwork.core.Waterfall;
 
 import static android.content.res.Configuration.ORIENTATION_PORTRAIT;
 import static java.lang.Math.ceil;
+import static plugin.fbAudienceNetwork.core.AdStatus.STATE_EXPIRED;
+import static plugin.fbAudienceNetwork.core.AdStatus.STATE_FAILED;
+import static plugin.fbAudienceNetwork.core.AdStatus.STATE_IDLE;
+import static plugin.fbAudienceNetwork.core.AdStatus.STATE_LOADED;
+import static plugin.fbAudienceNetwork.core.AdStatus.STATE_LOADING;
+import static plugin.fbAudienceNetwork.core.AdStatus.STATE_NAMES;
+import static plugin.fbAudienceNetwork.core.AdStatus.STATE_SHOWING;
+import static plugin.fbAudienceNetwork.core.PlacementStats.STAT_CLICKS;
+import static plugin.fbAudienceNetwork.core.PlacementStats.STAT_EXPIRED;
+import static plugin.fbAudienceNetwork.core.PlacementStats.STAT_IMPRESSIONS;
+import static plugin.fbAudienceNetwork.core.PlacementStats.STAT_LOADED;
+import static plugin.fbAudienceNetwork.core.PlacementStats.STAT_REFRESHED;
+import static plugin.fbAudienceNetwork.core.PlacementStats.STAT_REQUESTS;
+import static plugin.fbAudienceNetwork.core.PlacementStats.STAT_SHOWS;
 
 
 /**
@@ -74,10 +111,10 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
     private static final List<String> validAdTypes = new ArrayList<>();
 
     // banner sizes
-    private static final String BANNER_320_50 = "BANNER_320_50";
-    private static final String BANNER_HEIGHT_50 = "BANNER_HEIGHT_50";
-    private static final String BANNER_HEIGHT_90 = "BANNER_HEIGHT_90";
-    private static final String RECTANGLE_HEIGHT_250 = "RECTANGLE_HEIGHT_250";
+    private static final String BANNER_320_50 = AdBackend.BANNER_320_50;
+    private static final String BANNER_HEIGHT_50 = AdBackend.BANNER_HEIGHT_50;
+    private static final String BANNER_HEIGHT_90 = AdBackend.BANNER_HEIGHT_90;
+    private static final String RECTANGLE_HEIGHT_250 = AdBackend.RECTANGLE_HEIGHT_250;
 
     // banner alignment
     private static final String BANNER_ALIGN_TOP = "top";
@@ -95,9 +132,15 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
     private static final String PHASE_CLOSED = "closed";
     private static final String PHASE_CLICKED = "clicked";
     private static final String PHASE_REWARD = "reward";
+    private static final String PHASE_EXPIRED = "expired";
+    private static final String PHASE_EVICTED = "evicted";
 
 
-    private static final String STATUS_SUFFIX = "_status";
+    // background refills after a failed load of a slot without a retry policy (interstitial and rewarded only).
+    // they back off from POOL_REFILL_DELAY_MS and stop after a few attempts, so a placement which never fills
+    // isn't requested for as long as the app runs
+    private static final long POOL_REFILL_DELAY_MS = 30000;
+    private static final RetryPolicy POOL_REFILL_POLICY = new RetryPolicy(RetryPolicy.DEFAULT_MAX_RETRIES, POOL_REFILL_DELAY_MS, RetryPolicy.DEFAULT_MAX_DELAY_MS);
 
     // message constants
     private static final String CORONA_TAG = "Corona";
@@ -110,16 +153,169 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
     private static final String EVENT_TYPE_KEY = "type";
     private static final String EVENT_PLACEMENTID_KEY = "placementId";
 
-    // ad dictionary keys
-    private static final String Y_RATIO_KEY = "yRatio";    // used to calculate Corona -> UIKit coordinate ratio
-    private static final String SDKREADY_KEY = "sdkReady";  // true when corona's placement id's could be retrieved
+    // registered ad slots, one per placement id
+    // NOTE: slots are only changed on the UI thread, the Lua thread reads placementSnapshots instead
+    private static final ConcurrentHashMap<String, AdSlot> adSlots = new ConcurrentHashMap<>();
 
-    // saved objects (apiKey, ad state, etc)
-    private static final Map<String, Object> fbObjects = new HashMap<>();
+    // the latest snapshot of each slot, published by the UI thread. see PlacementSnapshot
+    private static final ConcurrentHashMap<String, PlacementSnapshot> placementSnapshots = new ConcurrentHashMap<>();
+
+    // slots changed since they last published, and the scratch space their snapshots are collected in
+    // NOTE: only touched on the UI thread
+    private static final List<AdSlot> dirtySlots = new ArrayList<>();
+    private static final PlacementSnapshot.Builder snapshotBuilder = new PlacementSnapshot.Builder();
+
+    private static final Runnable publishDirtySlotsTask = new Runnable() {
+        @Override
+        public void run() {
+            publishDirtySlots();
+        }
+    };
+
+    // registerPlacement() profiles, a placement's handle is its index + 1
+    // NOTE: only touched on the Lua thread
+    private static final ArrayList<LoadOptions> placementProfiles = new ArrayList<>();
+    private static final HashMap<String, Integer> profileHandles = new HashMap<>();
+
+    // the slot each ad was requested for, until the ad is destroyed. see slotFor()
+    // placement ids can't be used: a waterfall source may also be loaded on its own, or by another waterfall
+    // NOTE: only touched on the UI thread
+    private static final IdentityHashMap<AdBackend.BackendAd, AdSlot> adOwners = new IdentityHashMap<>();
+
+    // performance stats per placement id
+    private static final StatsRegistry statsRegistry = new StatsRegistry();
+
+    private static final CoronaDisplayMetrics displayMetrics = new CoronaDisplayMetrics();
+    private static volatile boolean sdkReady = false; // true when the SDK has reported it is initialized
 
     private static int coronaListener = CoronaLua.REFNIL;
+
+    // which listener receives each event: per placement listeners and the phases each listener subscribed to
+    private static final EventRouter eventRouter = new EventRouter();
     private static CoronaRuntimeTaskDispatcher coronaRuntimeTaskDispatcher = null;
 
+    // number of event records preallocated for the event queue
+    private static final int EVENT_POOL_SIZE = 32;
+    private static volatile boolean batchEvents = false;   // deliver each flush as a single 'batch' event
+
+    // load() requests made after init() but before the SDK is ready, run on the UI thread once it is
+    private static final List<Runnable> pendingLoads = new ArrayList<>();  // guarded by itself
+    private static volatile boolean parallelLoad = false;  // send load() requests while the SDK is still initializing
+
+    // banner containers released by hide(), kept in the overlay and reused by the next banner load()
+    // NOTE: only touched on the UI thread
+    private static final List<FrameLayout> bannerContainerPool = new ArrayList<>();
+
+    // used to schedule background slot refills on the UI thread
+    private static final Handler uiHandler = new Handler(Looper.getMainLooper());
+
+    // where ads come from, the Audience Network SDK unless init() asked for the simulator
+    private static AdBackend adBackend = new AudienceNetworkBackend();
+
+    // default load priorities, higher values are sent first when the number of loads in flight is limited
+    private static final int DEFAULT_PRIORITY_REWARDED = 3;
+    private static final int DEFAULT_PRIORITY_INTERSTITIAL = 2;
+    private static final int DEFAULT_PRIORITY_BANNER = 1;
+
+    private static volatile int priorityRewarded = DEFAULT_PRIORITY_REWARDED;
+    private static volatile int priorityInterstitial = DEFAULT_PRIORITY_INTERSTITIAL;
+    private static volatile int priorityBanner = DEFAULT_PRIORITY_BANNER;
+
+    // ad requests, limited to init()'s maxConcurrentLoads in flight
+    // NOTE: only touched on the UI thread
+    private static final LoadScheduler<AdBackend.BackendAd> loadScheduler = new LoadScheduler<>(new LoadScheduler.Starter<AdBackend.BackendAd>() {
+        @Override
+        public void start(AdBackend.BackendAd ad) {
+            ad.load();
+        }
+    }, new LoadScheduler.Timer() {
+        @Override
+        public void schedule(long delayMs) {
+            uiHandler.removeCallbacks(loadTimeoutCheck);
+            if (delayMs >= 0) {
+                uiHandler.postDelayed(loadTimeoutCheck, delayMs);
+            }
+        }
+    });
+
+    // frees the slots of requests which never reported back, so the queued ones don't wait for the next load()
+    private static final Runnable loadTimeoutCheck = new Runnable() {
+        @Override
+        public void run() {
+            loadScheduler.checkTimeouts(SystemClock.elapsedRealtime());
+        }
+    };
+
+    // UI work of the API functions, spread over frames so it never takes more than the frame budget
+    private static final long DEFAULT_UI_FRAME_BUDGET_NS = 4000000;  // 4ms
+    private static volatile long uiFrameBudgetNs = DEFAULT_UI_FRAME_BUDGET_NS;
+
+    private static final FrameTaskQueue uiTasks = new FrameTaskQueue(new FrameTaskQueue.Scheduler() {
+        @Override
+        public void requestFrame() {
+            uiHandler.post(uiFrameRequest);
+        }
+    });
+
+    // Choreographer runs the queue right before the next frame is drawn (API 16+).
+    // older devices run it from a Handler message, which still lets input and drawing in between
+    private static final Runnable uiFrameRequest = new Runnable() {
+        @Override
+        public void run() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                UiFrameCallback.post();
+            } else {
+                uiTasks.runFrame(uiFrameBudgetNs);
+                publishDirtySlots();
+            }
+        }
+    };
+
+    // ads waiting to be destroyed, one per task so several destroy() calls never land in the same frame
+    // NOTE: only touched on the UI thread
+    private static final List<AdBackend.BackendAd> retiredAds = new ArrayList<>();
+
+    private static final Runnable destroyRetiredAdTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!retiredAds.isEmpty()) {
+                retiredAds.remove(0).destroy();
+            }
+            if (!retiredAds.isEmpty()) {
+                uiTasks.post(this);
+            }
+        }
+    };
+
+    // loaded ads are evicted to fit in part of this budget when the OS asks us to trim memory.
+    // 0 until init(), which defaults it to a quarter of the app's memory class
+    private static final int DEFAULT_MEMORY_BUDGET_SHARE = 4;
+    private static volatile long memoryBudgetBytes = 0;
+
+    // NOTE: only touched on the UI thread
+    private static final MemoryBudget<CoronaAdInstance> memoryBudget = new MemoryBudget<>(0);
+
+    // fill, error and latency history of each placement from this and earlier sessions, mapped from a file by init().
+    // the file is mapped on a background thread, until then the history of this session is kept in memory
+    // NOTE: only touched on the UI thread
+    private static final String HISTORY_FILE_NAME = "plugin.fbAudienceNetwork.history";
+    private static final long MIN_LOAD_TIMEOUT_MS = 10000;
+    private static PlacementHistory placementHistory = PlacementHistory.inMemory();
+    private static boolean historyOpening = false;
+
+    // time spent in each stage of init()
+    private static final InitTimings initTimings = new InitTimings();
+
+    // starts the SDK initialization deferred by init()'s deferInit, null when it isn't waiting
+    private static volatile Runnable deferredSdkInit = null;
+
+    // true while the app is in the background. no ad requests are sent and slot timers are stopped
+    // NOTE: only touched on the UI thread
+    private static boolean suspended = false;
+
+    // banners loaded longer ago than this are refreshed when the app comes back to the foreground
+    private static final long BANNER_RESUME_REFRESH_MS = 60000;
+
     private static String functionSignature = "";
 
     // ----------------------------------------------------------------------------------
@@ -166,8 +362,17 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
                         new load(),
                         new show(),
                         new hide(),
+                        new loadMany(),
+                        new showMany(),
+                        new hideMany(),
                         new isLoaded(),
+                        new getState(),
+                        new getStats(),
+                        new resetStats(),
                         new getSize(),
+                        new getInitTimings(),
+                        new registerPlacement(),
+                        new setListener(),
                 };
         String libName = L.toString(1);
         L.register(libName, luaFunctions);
@@ -193,7 +398,10 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
         if (coronaRuntimeTaskDispatcher == null) {
             coronaRuntimeTaskDispatcher = new CoronaRuntimeTaskDispatcher(runtime);
 
-            fbObjects.put(SDKREADY_KEY, false);
+            // preallocate event records
+            eventQueue.preallocate(EVENT_POOL_SIZE);
+
+            sdkReady = false;
 
             // add validation data
             validAdTypes.add(TYPE_BANNER);
@@ -228,6 +436,17 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
      */
     @Override
     public void onSuspended(CoronaRuntime runtime) {
+        uiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                suspended = true;
+                loadScheduler.setPaused(true, SystemClock.elapsedRealtime());
+
+                for (AdSlot adSlot : adSlots.values()) {
+                    adSlot.suspend();
+                }
+            }
+        });
     }
 
     /**
@@ -239,6 +458,22 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
      */
     @Override
     public void onResumed(CoronaRuntime runtime) {
+        uiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!suspended) {
+                    return;
+                }
+                suspended = false;
+
+                // slots queue their replacements first, so they're sent by priority with the held requests
+                for (AdSlot adSlot : adSlots.values()) {
+                    adSlot.resume();
+                }
+
+                loadScheduler.setPaused(false, SystemClock.elapsedRealtime());
+            }
+        });
     }
 
     /**
@@ -256,25 +491,75 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
     public void onExiting(final CoronaRuntime runtime) {
         final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
 
+        // handles are only valid for this runtime
+        placementProfiles.clear();
+        profileHandles.clear();
+
         if (coronaActivity != null) {
             Runnable runnableActivity = new Runnable() {
                 public void run() {
+                    // cancel pending slot refills and UI work
+                    uiHandler.removeCallbacksAndMessages(null);
+                    uiTasks.clear();
+
+                    // drop events which can no longer be delivered
+                    eventQueue.clear();
+                    batchEvents = false;
+
+                    // drop load requests which were waiting for the SDK
+                    synchronized (pendingLoads) {
+                        pendingLoads.clear();
+                    }
+                    parallelLoad = false;
+
+                    coronaActivity.getApplicationContext().unregisterComponentCallbacks(componentCallbacks);
+                    displayMetrics.invalidate();
+
+                    statsRegistry.clear();
+
                     // clear the saved ad objects
-                    for (String key : fbObjects.keySet()) {
-                        Object object = fbObjects.get(key);
-                        if (object instanceof CoronaAdInstance) {
-                            CoronaAdInstance adInstance = (CoronaAdInstance) object;
-                            adInstance.dealloc();
-                        }
+                    for (AdSlot adSlot : adSlots.values()) {
+                        adSlot.dealloc();
+                        adSlot.releaseBannerContainer();
+                    }
+                    adSlots.clear();
+                    placementSnapshots.clear();
+                    dirtySlots.clear();
+                    adOwners.clear();
+
+                    // no more frames to spread the ads' destruction over
+                    while (!retiredAds.isEmpty()) {
+                        retiredAds.remove(0).destroy();
                     }
-                    fbObjects.clear();
+                    uiFrameBudgetNs = DEFAULT_UI_FRAME_BUDGET_NS;
+                    memoryBudgetBytes = 0;
+                    deferredSdkInit = null;
+                    memoryBudget.clear();
+
+                    // the overlay goes away with the activity
+                    for (FrameLayout bannerContainer : bannerContainerPool) {
+                        removeFromParent(bannerContainer);
+                    }
+                    bannerContainerPool.clear();
+                    sdkReady = false;
 
                     CoronaLua.deleteRef(runtime.getLuaState(), coronaListener);
                     coronaListener = CoronaLua.REFNIL;
+                    for (int listener : eventRouter.clear()) {
+                        CoronaLua.deleteRef(runtime.getLuaState(), listener);
+                    }
 
                     validAdTypes.clear();
                     validBannerPositions.clear();
 
+                    adBackend = new AudienceNetworkBackend();
+                    loadScheduler.clear();
+                    loadScheduler.setMaxInFlight(0, SystemClock.elapsedRealtime());
+                    loadScheduler.setPaused(false, SystemClock.elapsedRealtime());
+                    suspended = false;
+                    priorityRewarded = DEFAULT_PRIORITY_REWARDED;
+                    priorityInterstitial = DEFAULT_PRIORITY_INTERSTITIAL;
+                    priorityBanner = DEFAULT_PRIORITY_BANNER;
                     coronaRuntimeTaskDispatcher = null;
                 }
             };
@@ -297,817 +582,2759 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
         Log.i(CORONA_TAG, msgType + functionID + errorMsg);
     }
 
-    // return true if SDK is properly initialized
-    private boolean isSDKInitialized() {
+    // return true if init() has been called, the SDK may still be initializing
+    private boolean isInitCalled() {
         if (coronaListener == CoronaLua.REFNIL) {
             logMsg(ERROR_MSG, "fbAudienceNetwork.init() must be called before calling other API functions");
             return false;
         }
 
-        // have we got our placement ids from the endpoint?
-        if (!fbObjects.containsKey(SDKREADY_KEY)) {
-            return false; // handle edge case where a user has exited the app just before an API call
-        } else {
-            if (!(boolean) fbObjects.get(SDKREADY_KEY)) {
-                logMsg(ERROR_MSG, "You must wait for the 'init' event before calling other API methods");
-                return false;
-            }
+        // handle edge case where a user has exited the app just before an API call
+        return coronaRuntimeTaskDispatcher != null;
+    }
+
+    // return true if SDK is properly initialized
+    private boolean isSDKInitialized() {
+        if (!isInitCalled()) {
+            return false;
+        }
+
+        // has the SDK reported it is ready?
+        if (!sdkReady) {
+            logMsg(ERROR_MSG, "You must wait for the 'init' event before calling other API methods");
+            return false;
         }
 
         return true;
     }
 
-    // dispatch a Lua event to our callback (dynamic handling of properties through map)
-    private void dispatchLuaEvent(final Map<String, Object> event) {
-        if (coronaRuntimeTaskDispatcher != null) {
-            coronaRuntimeTaskDispatcher.send(new CoronaRuntimeTask() {
-                public void executeUsing(CoronaRuntime runtime) {
-                    try {
-                        LuaState L = runtime.getLuaState();
-                        CoronaLua.newEvent(L, EVENT_NAME);
-                        boolean hasErrorKey = false;
-
-                        // add event parameters from map
-                        for (String key : event.keySet()) {
-                            CoronaLua.pushValue(L, event.get(key));           // push value
-                            L.setField(-2, key);                              // push key
-
-                            if (!hasErrorKey) {
-                                hasErrorKey = key.equals(CoronaLuaEvent.ISERROR_KEY);
-                            }
-                        }
+    // the UI work of a loadMany(), showMany() or hideMany() call, run in one go
+    private static final class BatchRequest implements Runnable {
+        private final Runnable[] requests;
 
-                        // add error key if not in map
-                        if (!hasErrorKey) {
-                            L.pushBoolean(false);
-                            L.setField(-2, CoronaLuaEvent.ISERROR_KEY);
-                        }
+        BatchRequest(List<Runnable> requests) {
+            this.requests = requests.toArray(new Runnable[requests.size()]);
+        }
 
-                        // add provider
-                        L.pushString(PROVIDER_NAME);
-                        L.setField(-2, CoronaLuaEvent.PROVIDER_KEY);
+        @Override
+        public void run() {
+            for (Runnable request : requests) {
+                request.run();
+            }
+        }
+    }
 
-                        CoronaLua.dispatchEvent(L, coronaListener, 0);
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                    }
+    // a repeated load() only changes the slot's retry policy
+    private static void updateRetryPolicy(final String placementId, final String adType, final RetryPolicy retryPolicy) {
+        uiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                AdSlot adSlot = adSlots.get(placementId);
+                if ((adSlot != null) && adSlot.adType.equals(adType)) {
+                    adSlot.retryPolicy = retryPolicy;
                 }
-            });
-        }
+            }
+        });
     }
 
-    private static class CoronaAdStatus {
-        boolean isLoaded;
+    // run a load() request on the UI thread, or hold it until the SDK is ready.
+    // a request replaces the one for the same placement still waiting for its frame, unless a show() or hide() of the
+    // placement was queued after it. batches have a null placementId
+    private void runLoadRequest(String placementId, Runnable loadRequest) {
+        // the first request starts a deferred SDK initialization
+        Runnable sdkInit = deferredSdkInit;
+        if (sdkInit != null) {
+            uiHandler.post(sdkInit);
+        }
 
-        CoronaAdStatus() {
-            this.isLoaded = false;
+        synchronized (pendingLoads) {
+            if (!sdkReady && !parallelLoad) {
+                pendingLoads.add(loadRequest);
+                return;
+            }
         }
-    }
 
-    private static class CoronaAdInstance {
-        Object adInstance;
-        String adType;
-        float width;
-        float height;
+        uiTasks.post(placementId, (placementId != null) ? placementId : FrameTaskQueue.ALL_GROUPS, loadRequest);
+    }
 
-        CoronaAdInstance(Object ad, String adType) {
-            this(ad, adType, 0, 0);
+    // detach a view from whatever it has been added to
+    private static void removeFromParent(View view) {
+        ViewGroup parent = (ViewGroup) view.getParent();
+        if (parent != null) {
+            parent.removeView(view);
         }
+    }
 
-        CoronaAdInstance(Object ad, String adType, float width, float height) {
-            this.adInstance = ad;
-            this.adType = adType;
-            this.width = width;
-            this.height = height;
+    // map the history file off the UI thread: creating, sizing and mapping it is disk I/O
+    // NOTE: only safe to call on the UI thread!
+    private static void openPlacementHistory(final Context context) {
+        if (placementHistory.isPersistent() || historyOpening) {
+            return;
         }
+        historyOpening = true;
 
-        // NOTE: only safe to call on the UI thread!
-        void dealloc() {
-            final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final PlacementHistory history = PlacementHistory.open(new File(context.getFilesDir(), HISTORY_FILE_NAME));
+                uiHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        usePlacementHistory(history);
+                    }
+                });
+            }
+        }, "fbAudienceNetwork history").start();
+    }
 
-            if ((coronaActivity != null) && (adInstance != null)) {
-                if (adInstance instanceof AdView) {
-                    AdView oldBanner = (AdView) adInstance;
-                    oldBanner.setVisibility(View.INVISIBLE);
-                    coronaActivity.getOverlayView().removeView(oldBanner);
-                    oldBanner.destroy();
-                } else if (adInstance instanceof InterstitialAd) {
-                    InterstitialAd oldInterstitial = (InterstitialAd) adInstance;
-                    oldInterstitial.destroy();
-                }
+    // switch to the history mapped by openPlacementHistory(). what was recorded in memory in the meantime is dropped
+    // NOTE: only safe to call on the UI thread!
+    private static void usePlacementHistory(PlacementHistory history) {
+        historyOpening = false;
+        if (!history.isPersistent()) {
+            return; // the file couldn't be mapped, keep the one in memory
+        }
 
-                adInstance = null;
-            }
+        placementHistory = history;
+        for (AdSlot adSlot : adSlots.values()) {
+            adSlot.historyRecord = history.recordFor(adSlot.placementId);
         }
     }
 
-    // -------------------------------------------------------
-    // plugin implementation
-    // -------------------------------------------------------
+    // send an ad request through the load scheduler
+    // NOTE: only safe to call on the UI thread!
+    private static void requestAd(AdBackend.BackendAd ad, String adType, int historyRecord) {
+        loadScheduler.submit(ad, priorityOf(adType), placementHistory.loadRank(historyRecord),
+                placementHistory.loadTimeout(historyRecord, MIN_LOAD_TIMEOUT_MS, LoadScheduler.STALE_TIMEOUT_MS),
+                SystemClock.elapsedRealtime());
+    }
 
-    // [Lua] fbAudienceNetwork.init(listener [, options)
-    @SuppressWarnings("SpellCheckingInspection")
-    private class init implements NamedJavaFunction {
-        // Gets the name of the Lua function as it would appear in the Lua script
-        @Override
-        public String getName() {
-            return "init";
+    // init()'s loadPriorities, also used to pick which ads to keep when memory runs low
+    private static int priorityOf(String adType) {
+        switch (adType) {
+            case TYPE_REWARDED:
+                return priorityRewarded;
+            case TYPE_INTERSTITIAL:
+                return priorityInterstitial;
+            default:
+                return priorityBanner;
         }
+    }
 
-        // This method is executed when the Lua function is called
-        @Override
-        public int invoke(LuaState L) {
-            functionSignature = "fbAudienceNetwork.init(listener [, options)";
-
-            // prevent init from being called twice
-            if (coronaListener != CoronaLua.REFNIL) {
-                logMsg(WARNING_MSG, "init() should only be called once");
-                return 0;
+    // destroy an ad, withdrawing its request if it is still queued or in flight.
+    // the SDK call itself is deferred to the UI task queue, the ad's callbacks are ignored from now on
+    // NOTE: only safe to call on the UI thread!
+    private static void destroyAd(AdBackend.BackendAd ad) {
+        loadScheduler.cancel(ad, SystemClock.elapsedRealtime());
+        adOwners.remove(ad);
+
+        if (!retiredAds.contains(ad)) {
+            retiredAds.add(ad);
+            if (retiredAds.size() == 1) {
+                uiTasks.post(destroyRetiredAdTask);
             }
+        }
+    }
 
-            // check number of arguments
-            int nargs = L.getTop();
-            if ((nargs < 1) || (nargs > 2)) {
-                logMsg(ERROR_MSG, "Expected 1 or 2 arguments, got " + nargs);
-                return 0;
+    // true while an interstitial or rewarded ad covers the screen
+    // NOTE: only safe to call on the UI thread!
+    private static boolean isFullScreenAdShowing() {
+        for (AdSlot adSlot : adSlots.values()) {
+            if (adSlot.showingAd != null) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            String hashedId = null;
-            Collection<String> hashedIds = new ArrayList<>();
-
-            // Get listener key (required)
-            if (CoronaLua.isListener(L, 1, PROVIDER_NAME)) {
-                coronaListener = CoronaLua.newRef(L, 1);
-            } else {
-                logMsg(ERROR_MSG, "listener expected, got: " + L.typeName(1));
-                return 0;
+    // banners with a refresh policy pause or resume when a full-screen ad covers or uncovers them
+    // NOTE: only safe to call on the UI thread!
+    private static void updateBannerRefresh() {
+        for (AdSlot adSlot : adSlots.values()) {
+            if (adSlot.refreshPolicy != null) {
+                adSlot.scheduleBannerRefresh();
             }
+        }
+    }
 
-            // check second parameter
-            if (!L.isNoneOrNil(2)) {
-                if (L.type(2) == LuaType.STRING) {
-                    // Single device hashed id
-                    hashedId = L.toString(2);
-                } else if (L.type(2) == LuaType.TABLE) {
-                    boolean legacyAPI = false;
+    // true once an ad has been handed to destroyAd()
+    // NOTE: only safe to call on the UI thread!
+    private static boolean isRetired(AdBackend.BackendAd ad) {
+        return retiredAds.contains(ad);
+    }
 
-                    for (L.pushNil(); L.next(2); L.pop(1)) {
-                        if (L.type(-2) != LuaType.STRING) {
-                            legacyAPI = true;
-                            L.pop(2);
-                            break;
-                        }
+    // make the current state of the slots which changed visible to the Lua thread
+    // NOTE: only safe to call on the UI thread!
+    private static void publishDirtySlots() {
+        for (int i = 0; i < dirtySlots.size(); i++) {
+            dirtySlots.get(i).publish();
+        }
+        dirtySlots.clear();
+        uiHandler.removeCallbacks(publishDirtySlotsTask);
+    }
 
-                        String key = L.toString(-2);
+    // runs the UI task queue from Choreographer frames. only loaded on API 16+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static final class UiFrameCallback implements Choreographer.FrameCallback {
+        private static final UiFrameCallback instance = new UiFrameCallback();
 
-                        if (key.equals("testDevices")) {
-                            if (L.type(-1) == LuaType.STRING) {
-                                hashedId = L.toString(-1);
-                            } else if (L.type(-1) == LuaType.TABLE) {
-                                int ntypes = L.length(-1);
+        // NOTE: only safe to call on the UI thread!
+        static void post() {
+            Choreographer.getInstance().postFrameCallback(instance);
+        }
 
-                                if (ntypes > 0) {
-                                    for (int i = 1; i <= ntypes; i++) {
-                                        L.rawGet(-1, i);
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            uiTasks.runFrame(uiFrameBudgetNs);
+            publishDirtySlots();
+        }
+    }
 
-                                        if (L.type(-1) == LuaType.STRING) {
-                                            hashedIds.add(L.toString(-1));
-                                        } else {
-                                            logMsg(ERROR_MSG, "hashedId[" + i + "] (string) expected, got: " + L.typeName(-1));
-                                            return 0;
-                                        }
-                                        L.pop(1);
-                                    }
-                                } else {
-                                    logMsg(ERROR_MSG, "hashedId table cannot be empty");
-                                    return 0;
-                                }
-                            } else {
-                                logMsg(ERROR_MSG, "options.hashedId (string or table) expected, got: " + L.typeName(-1));
-                                return 0;
-                            }
-                        } else {
-                            logMsg(ERROR_MSG, "Invalid option '" + key + "'");
-                            return 0;
-                        }
-                    }
+    // returns an invisible banner container attached to the overlay, reusing a released one when possible.
+    // banners are sized and positioned through their container, so the overlay itself never changes
+    // NOTE: only safe to call on the UI thread!
+    private static FrameLayout acquireBannerContainer(CoronaActivity coronaActivity) {
+        FrameLayout overlay = coronaActivity.getOverlayView();
+
+        while (!bannerContainerPool.isEmpty()) {
+            FrameLayout bannerContainer = bannerContainerPool.remove(bannerContainerPool.size() - 1);
+            if (bannerContainer.getParent() == overlay) {
+                bannerContainer.setVisibility(View.INVISIBLE);
+                return bannerContainer;
+            }
+        }
 
-                    if (legacyAPI) {
-                        // Multiple device hashed id's
-                        int ntypes = L.length(2);
+        FrameLayout bannerContainer = new FrameLayout(coronaActivity);
+        bannerContainer.setVisibility(View.INVISIBLE);
 
-                        if (ntypes > 0) {
-                            for (int i = 1; i <= ntypes; i++) {
-                                L.rawGet(2, i);
+        // the banner needs to be part of the hierarchy in order for it to get the proper size when loading
+        // show() moves the container to its final position
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.WRAP_CONTENT,
+                FrameLayout.LayoutParams.WRAP_CONTENT
+        );
+        params.gravity = Gravity.BOTTOM | Gravity.CENTER;
+        overlay.addView(bannerContainer, params);
 
-                                if (L.type(-1) == LuaType.STRING) {
-                                    hashedIds.add(L.toString(-1));
-                                } else {
-                                    logMsg(ERROR_MSG, "hashedId[" + i + "] (string) expected, got: " + L.typeName(-1));
-                                    return 0;
-                                }
-                                L.pop(1);
-                            }
-                        } else {
-                            logMsg(ERROR_MSG, "hashedId table cannot be empty");
-                            return 0;
-                        }
-                    }
-                } else {
-                    logMsg(ERROR_MSG, "hashedId (string or table) expected, got " + L.typeName(2));
-                    return 0;
-                }
-            }
+        return bannerContainer;
+    }
 
-            // set test devices
-            if (hashedId != null) {
-                AdSettings.addTestDevice(hashedId);
-            }
+    // Display values used to size and position banners. They are computed on the UI thread the first
+    // time they're needed and again only after a configuration change (rotation, resize, etc.)
+    private static final class CoronaDisplayMetrics {
+        private volatile boolean valid = false;
+        volatile double yRatio = 1.0;   // used to calculate Corona -> UIKit coordinate ratio
+        int orientedHeight;             // screen height for the current orientation in device pixels (UI thread only)
 
-            if (hashedIds.size() > 0) {
-                AdSettings.addTestDevices(hashedIds);
+        // NOTE: only safe to call on the UI thread!
+        void update(CoronaActivity coronaActivity) {
+            if (valid) {
+                return;
             }
 
-            // log the plugin version to device console
-            Log.i(CORONA_TAG, PLUGIN_NAME + ": " + PLUGIN_VERSION + " (SDK: " + PLUGIN_SDK_VERSION + ")");
+            // calculate the Corona->device coordinate ratio.
+            // we don't use display.contentScaleY here as there are cases where it's difficult to get the proper values to use
+            // especially on Android. uses the same formula for iOS and Android for the sake of consistency.
+            Point point1 = coronaActivity.convertCoronaPointToAndroidPoint(0, 0);
+            Point point2 = coronaActivity.convertCoronaPointToAndroidPoint(1000, 1000);
+            yRatio = (double) (point2.y - point1.y) / 1000.0;
 
-            final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
+            Display display = coronaActivity.getWindowManager().getDefaultDisplay();
+            int orientation = coronaActivity.getResources().getConfiguration().orientation;
 
-            if (coronaActivity != null) {
-                coronaActivity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        AudienceNetworkAds
-                                .buildInitSettings(coronaActivity)
-                                .withInitListener(new AudienceNetworkAds.InitListener() {
-                                    @Override
-                                    public void onInitialized(AudienceNetworkAds.InitResult result) {
-                                        coronaActivity.runOnUiThread(new Runnable() {
-                                            @Override
-                                            public void run() {
-                                                fbObjects.put(SDKREADY_KEY, true);
-                                                // send Corona Lua event
-                                                Map<String, Object> coronaEvent = new HashMap<>();
-                                                coronaEvent.put(EVENT_PHASE_KEY, PHASE_INIT);
-                                                dispatchLuaEvent(coronaEvent);
-                                            }
-                                        });
-                                    }
-                                })
-                                .initialize();
+            Point size = new Point();
+            display.getSize(size);
 
-                    }
-                });
+            if (orientation == ORIENTATION_PORTRAIT) {
+                orientedHeight = size.y;
+            } else {
+                //noinspection SuspiciousNameCombination
+                orientedHeight = size.x;
             }
 
-            return 0;
+            valid = true;
+        }
+
+        void invalidate() {
+            valid = false;
         }
     }
 
-    // [Lua] fbAudienceNetwork.load(adUnitType, options])
+    // drops the cached display metrics whenever the configuration changes, and loaded ads when memory runs low
+    private final ComponentCallbacks2 componentCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+            displayMetrics.invalidate();
+        }
+
+        @Override
+        public void onTrimMemory(int level) {
+            evictAds(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            evictAds(MemoryBudget.LOW_MEMORY);
+        }
+    };
+
+    // estimated memory held by a loaded ad of 'adType'
+    private static long adBytes(String adType) {
+        switch (adType) {
+            case TYPE_REWARDED:
+                return MemoryBudget.REWARDED_BYTES;
+            case TYPE_INTERSTITIAL:
+                return MemoryBudget.INTERSTITIAL_BYTES;
+            default:
+                return MemoryBudget.BANNER_BYTES;
+        }
+    }
+
+    // drop loaded ads, lowest priority and oldest loaded first, until they fit in what 'level' allows
+    // NOTE: only safe to call on the UI thread!
+    private void evictAds(int level) {
+        long targetBytes = memoryBudget.targetFor(level);
+        if (targetBytes < 0) {
+            return;
+        }
+
+        memoryBudget.clear();
+
+        for (AdSlot adSlot : adSlots.values()) {
+            long bytes = adBytes(adSlot.adType);
+
+            if (adSlot.showingAd != null) {
+                memoryBudget.addPinned(bytes);
+            }
+
+            for (CoronaAdInstance adInstance : adSlot.ads) {
+                int state = adInstance.adStatus.get();
+
+                if (state == STATE_SHOWING) {
+                    memoryBudget.addPinned(bytes);  // banner on screen
+                } else if (state == STATE_LOADED) {
+                    memoryBudget.add(adInstance, bytes, priorityOf(adSlot.adType), adInstance.loadedAt);
+                }
+            }
+        }
+
+        List<CoronaAdInstance> evicted = memoryBudget.evict(targetBytes);
+
+        if (!evicted.isEmpty()) {
+            logMsg(WARNING_MSG, "Memory is running low (level " + level + "), evicting " + evicted.size() + " loaded ad(s)");
+
+            for (AdSlot adSlot : adSlots.values()) {
+                for (CoronaAdInstance adInstance : adSlot.ads) {
+                    if (evicted.contains(adInstance)) {
+                        adSlot.evict(adInstance);
+                    }
+                }
+            }
+        }
+
+        memoryBudget.clear();
+    }
+
+    // Corona's Lua state, as seen by the platform independent code
+    // NOTE: only used on the Lua thread
+    private static final class CoronaLuaStack implements LuaStack {
+        LuaState L;
+
+        @Override
+        public int getTop() {
+            return L.getTop();
+        }
+
+        @Override
+        public int type(int index) {
+            LuaType luaType = L.type(index);
+
+            if (luaType == null) {
+                return TYPE_NONE;
+            }
+
+            switch (luaType) {
+                case NIL:
+                    return TYPE_NIL;
+                case BOOLEAN:
+                    return TYPE_BOOLEAN;
+                case NUMBER:
+                    return TYPE_NUMBER;
+                case STRING:
+                    return TYPE_STRING;
+                case TABLE:
+                    return TYPE_TABLE;
+                default:
+                    return TYPE_OTHER;
+            }
+        }
+
+        @Override
+        public String typeName(int index) {
+            return L.typeName(index);
+        }
+
+        @Override
+        public boolean toBoolean(int index) {
+            return L.toBoolean(index);
+        }
+
+        @Override
+        public double toNumber(int index) {
+            return L.toNumber(index);
+        }
+
+        @Override
+        public String toString(int index) {
+            return L.toString(index);
+        }
+
+        @Override
+        public boolean next(int index) {
+            return L.next(index);
+        }
+
+        @Override
+        public void pop(int count) {
+            L.pop(count);
+        }
+
+        @Override
+        public void pushNil() {
+            L.pushNil();
+        }
+
+        @Override
+        public void pushBoolean(boolean value) {
+            L.pushBoolean(value);
+        }
+
+        @Override
+        public void pushNumber(double value) {
+            L.pushNumber(value);
+        }
+
+        @Override
+        public void pushString(String value) {
+            L.pushString(value);
+        }
+
+        @Override
+        public void newTable() {
+            L.newTable();
+        }
+
+        @Override
+        public void setField(int index, String key) {
+            L.setField(index, key);
+        }
+
+        @Override
+        public void rawSet(int index, int key) {
+            L.rawSet(index, key);
+        }
+    }
+
+    private final CoronaLuaStack coronaLuaStack = new CoronaLuaStack();
+
+    // returns the Lua state wrapped for the platform independent code
+    // NOTE: only safe to call on the Lua thread!
+    private LuaStack luaStack(LuaState L) {
+        coronaLuaStack.L = L;
+        return coronaLuaStack;
+    }
+
+    // events waiting to be delivered to Lua, flushed once per Corona frame
+    private final EventQueue eventQueue = new EventQueue(PROVIDER_NAME, new EventQueue.Scheduler() {
+        @Override
+        public void requestFlush() {
+            CoronaRuntimeTaskDispatcher dispatcher = coronaRuntimeTaskDispatcher;
+            if (dispatcher != null) {
+                dispatcher.send(eventFlushTask);
+            }
+        }
+    });
+
+    // creates event tables and delivers them to the listener picked by eventRouter
+    private final EventQueue.EventSink eventSink = new EventQueue.EventSink() {
+        @Override
+        public void newEvent() {
+            CoronaLua.newEvent(coronaLuaStack.L, EVENT_NAME);
+        }
+
+        @Override
+        public void dispatchEvent(int listener) {
+            try {
+                CoronaLua.dispatchEvent(coronaLuaStack.L, listener, 0);
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+    };
+
+    // delivers every queued event on the Corona thread
+    private final CoronaRuntimeTask eventFlushTask = new CoronaRuntimeTask() {
+        public void executeUsing(CoronaRuntime runtime) {
+            eventQueue.flush(luaStack(runtime.getLuaState()), eventSink, eventRouter, batchEvents);
+        }
+    };
+
+    // queue a Lua event for our callback
+    // all events queued during a Corona frame are delivered in order by a single runtime task,
+    // events nobody subscribed to are never queued
+    private void dispatchLuaEvent(String phase, String type, String placementId) {
+        dispatchLuaEvent(phase, type, placementId, -1);
+    }
+
+    private void dispatchLuaEvent(String phase, String type, String placementId, double age) {
+        if ((coronaRuntimeTaskDispatcher != null) && eventRouter.wants(phase, placementId)) {
+            eventQueue.post(phase, type, placementId, false, 0, null, age);
+        }
+    }
+
+    // queue a 'failed' event
+    private void dispatchLuaError(String type, String placementId, int errorCode, String errorMessage) {
+        if ((coronaRuntimeTaskDispatcher != null) && eventRouter.wants(PHASE_FAILED, placementId)) {
+            eventQueue.post(PHASE_FAILED, type, placementId, true, errorCode, errorMessage, -1);
+        }
+    }
+
+    private static class CoronaAdInstance {
+        AdBackend.BackendAd adInstance;
+        final String adType;
+        final AdStatus adStatus = new AdStatus();
+        long loadedAt;             // SystemClock.elapsedRealtime() of the last successful load
+        boolean expiring;          // a replacement has been requested because this ad is about to expire
+        long requestedAt;          // SystemClock.elapsedRealtime() of the pending loadAd(), 0 when none (UI thread only)
+
+        // waterfall: one request per source placement racing to provide this ad, indexed by priority.
+        // 'adInstance' is null until the race is settled (UI thread only)
+        Waterfall race;
+        AdBackend.BackendAd[] candidates;
+
+        CoronaAdInstance(AdBackend.BackendAd ad, String adType) {
+            this.adInstance = ad;
+            this.adType = adType;
+        }
+
+        CoronaAdInstance(AdBackend.BackendAd[] candidates, int policy, String adType) {
+            this.candidates = candidates;
+            this.race = new Waterfall(policy, candidates.length);
+            this.adType = adType;
+        }
+
+        // index of a racing ad, or -1
+        int candidateIndex(AdBackend.BackendAd ad) {
+            if (candidates != null) {
+                for (int i = 0; i < candidates.length; i++) {
+                    if (candidates[i] == ad) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        // keep the winning ad (none when 'winner' < 0) and destroy the others
+        // NOTE: only safe to call on the UI thread!
+        void settle(int winner) {
+            for (int i = 0; i < candidates.length; i++) {
+                if ((i != winner) && (candidates[i] != null)) {
+                    destroyAd(candidates[i]);
+                }
+            }
+
+            adInstance = (winner >= 0) ? candidates[winner] : null;
+            candidates = null;
+            race = null;
+        }
+
+        // NOTE: only safe to call on the UI thread!
+        void dealloc() {
+            final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
+
+            if ((coronaActivity != null) && (adInstance != null)) {
+                View bannerView = adInstance.getView();
+                if (bannerView != null) {
+                    removeFromParent(bannerView);
+                }
+                destroyAd(adInstance);
+
+                adInstance = null;
+            }
+
+            if (candidates != null) {
+                settle(-1);
+            }
+        }
+
+        // true when the backend reports the ad as ready to be shown
+        boolean isAdLoaded() {
+            AdBackend.BackendAd ad = adInstance;
+            return (ad != null) && ad.isLoaded();
+        }
+    }
+
+    // One record per placement holding its ad instances, their status and the banner geometry.
+    // Banners hold a single ad, interstitial and rewarded slots keep up to 'depth' ads loaded ahead of time.
+    // The UI thread owns the slots: every read and write happens there, in API work posted from Lua, SDK callbacks
+    // and the slot housekeeping. The Lua thread only sees the PlacementSnapshot each slot publishes.
+    private class AdSlot {
+        final String placementId;
+        final String adType;
+        int depth;
+        String[] sources;   // waterfall placement ids by priority, null for a single placement
+        int waterfallPolicy;
+        private CoronaAdInstance[] ads = new CoronaAdInstance[0];  // oldest first
+
+        // banner geometry in device pixels
+        float width;
+        float height;
+
+        // holds the banner's view. it stays in the overlay across reloads
+        // NOTE: only touched on the UI thread
+        FrameLayout bannerContainer;
+
+        RetryPolicy retryPolicy;   // null when retries are disabled
+        private int retryAttempt;
+
+        long ttlMs = AdExpiry.DEFAULT_TTL_MS;
+        private boolean expiryCheckScheduled;
+
+        // banner refresh requested by the plugin, null to leave it to the SDK
+        RefreshPolicy refreshPolicy;
+        int refreshCount;               // refreshes requested since load() (UI thread only)
+        private boolean refreshScheduled;
+        private long refreshFailedAt;   // SystemClock.elapsedRealtime() the last refresh failed at, 0 when none
+        private long refreshRetryDelayMs = -1;  // retry policy delay after that failure, -1 to wait for the interval
+
+        // full-screen ad taken out of the slot by show(), until it is closed
+        CoronaAdInstance showingAd;
+
+        // coalesces show() calls made before the UI thread gets to them, the last one wins
+        final Object showTaskKey = new Object();
+
+        // state reported by getState() while no ad is loaded or loading
+        private int restingState = STATE_IDLE;
+
+        // changed since the last snapshot was published, and that snapshot
+        private boolean dirty;
+        private PlacementSnapshot snapshot;
+
+        final PlacementStats stats;
+        int historyRecord;              // this placement's record in placementHistory (UI thread only)
+        private long showRequestedAt;   // when show() was called for the ad about to be displayed, 0 when none (UI thread only)
+
+        private final Runnable expiryCheckRunnable = new Runnable() {
+            @Override
+            public void run() {
+                expiryCheckScheduled = false;
+                checkExpiry();
+            }
+        };
+
+        private boolean refillScheduled;
+
+        private final Runnable refillRunnable = new Runnable() {
+            @Override
+            public void run() {
+                refillScheduled = false;
+
+                if (adType.equals(TYPE_BANNER)) {
+                    reloadBanner();
+                } else {
+                    fill();
+                }
+            }
+        };
+
+        private final Runnable refreshRunnable = new Runnable() {
+            @Override
+            public void run() {
+                refreshScheduled = false;
+
+                CoronaAdInstance adInstance = first();
+                if ((adInstance != null) && adInstance.adStatus.isLoaded()) {
+                    refreshCount++;
+                    refreshBanner(adInstance);
+                }
+            }
+        };
+
+        // saves the banner size once the loaded ad has been laid out
+        final Runnable saveBannerSizeRunnable = new Runnable() {
+            @Override
+            public void run() {
+                CoronaAdInstance adInstance = first();
+                View bannerView = (adInstance != null) && (adInstance.adInstance != null) ? adInstance.adInstance.getView() : null;
+                if (bannerView != null) {
+                    width = bannerView.getWidth();
+                    height = bannerView.getHeight();
+                    changed();
+                }
+            }
+        };
+
+        AdSlot(String placementId, String adType, int depth) {
+            this.placementId = placementId;
+            this.adType = adType;
+            this.depth = depth;
+            this.stats = statsRegistry.obtain(placementId, adType);
+            this.historyRecord = placementHistory.recordFor(placementId);
+        }
+
+        // returns the oldest ad, or null if the slot is empty
+        CoronaAdInstance first() {
+            CoronaAdInstance[] snapshot = ads;
+            return (snapshot.length > 0) ? snapshot[0] : null;
+        }
+
+        // returns the record holding the backend ad, or null if it is no longer part of this slot
+        CoronaAdInstance find(AdBackend.BackendAd ad) {
+            for (CoronaAdInstance adInstance : ads) {
+                if ((adInstance.adInstance == ad) || (adInstance.candidateIndex(ad) >= 0)) {
+                    return adInstance;
+                }
+            }
+
+            return null;
+        }
+
+        // returns the oldest ad that is still valid, or null if none is ready
+        CoronaAdInstance peekReady() {
+            long now = SystemClock.elapsedRealtime();
+            boolean checkTtl = !adType.equals(TYPE_BANNER);
+
+            for (CoronaAdInstance adInstance : ads) {
+                // we're using our own adStatus also since the built-in one doesn't always reflect the truth
+                if (adInstance.adStatus.isLoaded() && adInstance.isAdLoaded()) {
+                    if (checkTtl && (now - adInstance.loadedAt >= ttlMs)) {
+                        continue; // stale, waiting to be dropped by checkExpiry()
+                    }
+                    return adInstance;
+                }
+            }
+
+            return null;
+        }
+
+        // true when the slot already holds or is loading every ad it should
+        boolean isFull() {
+            return freshCount() >= depth;
+        }
+
+        // number of ads which count towards 'depth' (loaded or loading, and not about to expire)
+        private int freshCount() {
+            int count = 0;
+            for (CoronaAdInstance adInstance : ads) {
+                if (!adInstance.expiring) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        // an ad finished loading. returns false when the ad is no longer waiting for one
+        // NOTE: only safe to call on the UI thread!
+        boolean markLoaded(CoronaAdInstance adInstance) {
+            // banners are refreshed in place, either off screen or while showing
+            if (!adInstance.adStatus.moveTo(STATE_LOADED) && !adInstance.adStatus.moveTo(STATE_SHOWING)) {
+                return false;
+            }
+
+            adInstance.loadedAt = SystemClock.elapsedRealtime();
+            adInstance.expiring = false;
+            restingState = STATE_IDLE;
+            resetRetries();
+
+            // banners refresh on their own, those loads weren't requested by us
+            if (adInstance.requestedAt != 0) {
+                stats.count(STAT_LOADED);
+                stats.loadLatency.record(adInstance.loadedAt - adInstance.requestedAt);
+                placementHistory.countLoaded(historyRecord, adInstance.loadedAt - adInstance.requestedAt);
+                adInstance.requestedAt = 0;
+            } else {
+                stats.count(STAT_REFRESHED);
+            }
+
+            if (!adType.equals(TYPE_BANNER)) {
+                // the new ad replaces the oldest one which is about to expire
+                for (CoronaAdInstance oldAdInstance : ads) {
+                    if (oldAdInstance.expiring) {
+                        discard(oldAdInstance);
+                        break;
+                    }
+                }
+
+                scheduleExpiryCheck();
+            } else {
+                scheduleBannerRefresh();
+            }
+
+            // the listener reports the new ad right away
+            changed();
+            publish();
+            return true;
+        }
+
+        // drop expired ads and request replacements for ads which are about to expire
+        // NOTE: only safe to call on the UI thread!
+        private void checkExpiry() {
+            long now = SystemClock.elapsedRealtime();
+            long refreshAt = AdExpiry.refreshAge(ttlMs);
+            boolean needsFill = false;
+
+            for (CoronaAdInstance adInstance : ads) {
+                if (!adInstance.adStatus.isLoaded()) {
+                    continue;
+                }
+
+                long age = now - adInstance.loadedAt;
+
+                if ((age >= ttlMs) || !adInstance.isAdLoaded()) {
+                    // the replacement didn't arrive in time
+                    if (!adInstance.adStatus.moveTo(STATE_EXPIRED)) {
+                        continue;
+                    }
+                    restingState = STATE_EXPIRED;
+                    stats.count(STAT_EXPIRED);
+                    discard(adInstance);
+                    publish();
+                    dispatchLuaEvent(PHASE_EXPIRED, adType, placementId, age / 1000.0);
+                    needsFill = true;
+                } else if (!adInstance.expiring && (age >= refreshAt)) {
+                    adInstance.expiring = true;
+                    changed();
+                    needsFill = true;
+                }
+            }
+
+            if (needsFill) {
+                fill();
+            }
+
+            scheduleExpiryCheck();
+        }
+
+        // run checkExpiry() when the next ad needs a replacement or expires
+        // NOTE: only safe to call on the UI thread!
+        private void scheduleExpiryCheck() {
+            long next = Long.MAX_VALUE;
+
+            for (CoronaAdInstance adInstance : ads) {
+                if (adInstance.adStatus.isLoaded()) {
+                    long deadline = AdExpiry.nextDeadline(adInstance.loadedAt, ttlMs, adInstance.expiring);
+                    next = Math.min(next, deadline);
+                }
+            }
+
+            if (expiryCheckScheduled) {
+                uiHandler.removeCallbacks(expiryCheckRunnable);
+                expiryCheckScheduled = false;
+            }
+
+            // resume() checks every slot
+            if ((next != Long.MAX_VALUE) && !suspended) {
+                expiryCheckScheduled = true;
+                uiHandler.postDelayed(expiryCheckRunnable, Math.max(0, next - SystemClock.elapsedRealtime()));
+            }
+        }
+
+        boolean isReady() {
+            return peekReady() != null;
+        }
+
+        // something the snapshot holds has changed. it's published once the UI thread is done with the slot
+        // NOTE: only safe to call on the UI thread!
+        void changed() {
+            if (!dirty) {
+                dirty = true;
+                dirtySlots.add(this);
+                if (dirtySlots.size() == 1) {
+                    uiHandler.post(publishDirtySlotsTask);
+                }
+            }
+        }
+
+        // publish the slot's snapshot now if it changed, before the change is reported to Lua
+        // NOTE: only safe to call on the UI thread!
+        void publish() {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+
+            // hidden or replaced, its snapshot is gone
+            if (adSlots.get(placementId) != this) {
+                return;
+            }
+
+            PlacementSnapshot.Builder builder = snapshotBuilder;
+            builder.reset();
+            builder.adType = adType;
+            builder.showTaskKey = showTaskKey;
+            builder.depth = depth;
+            builder.ttlMs = adType.equals(TYPE_BANNER) ? PlacementSnapshot.NEVER_EXPIRES : ttlMs;
+            builder.sources = sources;
+            builder.waterfallPolicy = waterfallPolicy;
+            builder.full = isFull();
+            builder.showing = (showingAd != null);
+            builder.loading = false;
+            builder.restingState = restingState;
+            builder.width = width;
+            builder.height = height;
+
+            for (CoronaAdInstance adInstance : ads) {
+                int state = adInstance.adStatus.get();
+
+                // the SDK is only asked here, on the UI thread
+                if (((state == STATE_LOADED) || (state == STATE_SHOWING)) && adInstance.isAdLoaded()) {
+                    builder.addReady(state, adInstance.loadedAt);
+                } else if (state == STATE_LOADING) {
+                    builder.loading = true;
+                }
+            }
+
+            // nothing Lua can see has changed
+            if (builder.matches(snapshot)) {
+                return;
+            }
+
+            snapshot = builder.build();
+            placementSnapshots.put(placementId, snapshot);
+        }
+
+        // NOTE: only safe to call on the UI thread!
+        void add(CoronaAdInstance adInstance) {
+            CoronaAdInstance[] snapshot = ads;
+            CoronaAdInstance[] updated = new CoronaAdInstance[snapshot.length + 1];
+            System.arraycopy(snapshot, 0, updated, 0, snapshot.length);
+            updated[snapshot.length] = adInstance;
+            ads = updated;
+            changed();
+        }
+
+        // NOTE: only safe to call on the UI thread!
+        boolean remove(CoronaAdInstance adInstance) {
+            CoronaAdInstance[] snapshot = ads;
+
+            for (int i = 0; i < snapshot.length; i++) {
+                if (snapshot[i] == adInstance) {
+                    CoronaAdInstance[] updated = new CoronaAdInstance[snapshot.length - 1];
+                    System.arraycopy(snapshot, 0, updated, 0, i);
+                    System.arraycopy(snapshot, i + 1, updated, i, snapshot.length - i - 1);
+                    ads = updated;
+                    changed();
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        // request new interstitial/rewarded ads until the slot holds 'depth' ads (loaded or loading)
+        // NOTE: only safe to call on the UI thread!
+        void fill() {
+            final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
+            if (coronaActivity == null) {
+                return;
+            }
+
+            if (refillScheduled) {
+                uiHandler.removeCallbacks(refillRunnable);
+                refillScheduled = false;
+            }
+
+            // drop surplus ads (newest first) when the depth has been lowered
+            for (int i = ads.length - 1; (i >= 0) && (freshCount() > depth); i--) {
+                if (!ads[i].expiring) {
+                    discard(ads[i]);
+                }
+            }
+
+            // ads which are about to expire stay usable until their replacement arrives
+            while (freshCount() < depth) {
+                String[] waterfall = sources;
+
+                if (waterfall == null) {
+                    AdBackend.BackendAd ad = createAd(coronaActivity, placementId);
+                    CoronaAdInstance adInstance = new CoronaAdInstance(ad, adType);
+                    add(adInstance);
+                    countRequest(adInstance);
+
+                    sendRequest(ad);
+                } else {
+                    // request every source at once, the race is settled by the listener
+                    AdBackend.BackendAd[] candidates = new AdBackend.BackendAd[waterfall.length];
+                    for (int i = 0; i < waterfall.length; i++) {
+                        candidates[i] = createAd(coronaActivity, waterfall[i]);
+                    }
+
+                    CoronaAdInstance adInstance = new CoronaAdInstance(candidates, waterfallPolicy, adType);
+                    add(adInstance);
+                    countRequest(adInstance);
+
+                    for (AdBackend.BackendAd ad : candidates) {
+                        sendRequest(ad);
+                    }
+                }
+            }
+        }
+
+        // NOTE: only safe to call on the UI thread!
+        private AdBackend.BackendAd createAd(CoronaActivity coronaActivity, String adPlacementId) {
+            AdBackend.BackendAd ad;
+            if (adType.equals(TYPE_INTERSTITIAL)) {
+                ad = adBackend.createInterstitial(coronaActivity, adPlacementId, interstitialAdListener);
+            } else {
+                ad = adBackend.createRewarded(coronaActivity, adPlacementId, rewardedAdListener);
+            }
+            adOwners.put(ad, this);
+            return ad;
+        }
+
+        // make 'placementIds' (null for none) the waterfall sources of this slot
+        // NOTE: only safe to call on the UI thread!
+        void setSources(String[] placementIds, int policy) {
+            sources = placementIds;
+            waterfallPolicy = policy;
+            changed();
+        }
+
+        // take the ad out of the slot so it can be shown, and start loading its replacement
+        // NOTE: only safe to call on the UI thread!
+        void consume(CoronaAdInstance adInstance) {
+            remove(adInstance);
+            fill();
+            scheduleExpiryCheck();
+        }
+
+        // an ad request is about to be sent to the SDK
+        // NOTE: only safe to call on the UI thread!
+        void countRequest(CoronaAdInstance adInstance) {
+            adInstance.requestedAt = SystemClock.elapsedRealtime();
+            stats.count(STAT_REQUESTS);
+            placementHistory.countRequest(historyRecord);
+        }
+
+        // send a request for this placement through the load scheduler, ranked and timed out from its history
+        // NOTE: only safe to call on the UI thread!
+        void sendRequest(AdBackend.BackendAd ad) {
+            requestAd(ad, adType, historyRecord);
+        }
+
+        // show() was called for an ad which wasn't on screen yet
+        // NOTE: only safe to call on the UI thread!
+        void countShow(long showCalledAt) {
+            showRequestedAt = showCalledAt;
+            stats.count(STAT_SHOWS);
+        }
+
+        // the ad passed to countShow() is now on screen
+        // NOTE: only safe to call on the UI thread!
+        void countDisplayed() {
+            if (showRequestedAt != 0) {
+                stats.showLatency.record(SystemClock.elapsedRealtime() - showRequestedAt);
+                showRequestedAt = 0;
+            }
+        }
+
+        // destroy an ad which failed or was closed
+        // NOTE: only safe to call on the UI thread!
+        void discard(CoronaAdInstance adInstance) {
+            remove(adInstance);
+            adInstance.adStatus.reset();
+            adInstance.dealloc();
+        }
+
+        // drop a loaded ad to free memory. it isn't replaced until the next load(), or a refill already scheduled
+        // NOTE: only safe to call on the UI thread!
+        void evict(CoronaAdInstance adInstance) {
+            if (adType.equals(TYPE_BANNER)) {
+                dealloc();  // the slot keeps its container for the next load()
+            } else {
+                discard(adInstance);
+                scheduleExpiryCheck();
+            }
+
+            publish();
+            dispatchLuaEvent(PHASE_EVICTED, adType, placementId);
+        }
+
+        // the full-screen ad shown by show() was closed or failed to display
+        // NOTE: only safe to call on the UI thread!
+        void finishShowing(CoronaAdInstance adInstance) {
+            if (showingAd == adInstance) {
+                adInstance.adStatus.moveTo(STATE_IDLE);
+                showingAd = null;
+                updateBannerRefresh();
+
+                // reported as 'closed' or 'failed' right away
+                changed();
+                publish();
+            }
+        }
+
+        // re-request after a failed load without hammering the SDK. while suspended it waits for resume()
+        void scheduleRefill(long delayMs) {
+            if (!refillScheduled) {
+                refillScheduled = true;
+                if (!suspended) {
+                    uiHandler.postDelayed(refillRunnable, delayMs);
+                }
+            }
+        }
+
+        // the app went to the background, stop the timers
+        // NOTE: only safe to call on the UI thread!
+        void suspend() {
+            // a scheduled refill stays scheduled, it's sent when the app is resumed
+            uiHandler.removeCallbacks(refillRunnable);
+
+            if (expiryCheckScheduled) {
+                uiHandler.removeCallbacks(expiryCheckRunnable);
+                expiryCheckScheduled = false;
+            }
+
+            cancelBannerRefresh();
+        }
+
+        // the app is back in the foreground. the refill and expiry check also restart the timers
+        // NOTE: only safe to call on the UI thread!
+        void resume() {
+            if (refillScheduled) {
+                refillRunnable.run();
+            }
+
+            if (adType.equals(TYPE_BANNER)) {
+                CoronaAdInstance adInstance = first();
+                if (refreshPolicy != null) {
+                    scheduleBannerRefresh();
+                } else if ((adInstance != null) && adInstance.adStatus.isLoaded()
+                        && (SystemClock.elapsedRealtime() - adInstance.loadedAt >= BANNER_RESUME_REFRESH_MS)) {
+                    refreshBanner(adInstance);
+                }
+            } else {
+                // drop the ads which expired in the background and replace those about to expire
+                checkExpiry();
+            }
+        }
+
+        // request the current banner again after a failed load
+        // NOTE: only safe to call on the UI thread!
+        private void reloadBanner() {
+            CoronaAdInstance adInstance = first();
+            if ((adInstance != null) && (adInstance.adInstance != null) && adInstance.adStatus.moveTo(STATE_LOADING)) {
+                changed();
+                countRequest(adInstance);
+                sendRequest(adInstance.adInstance);
+            }
+        }
+
+        // request a new ad for a loaded banner, on screen or not. it stays in its state until the new ad arrives
+        // NOTE: only safe to call on the UI thread!
+        void refreshBanner(CoronaAdInstance adInstance) {
+            if (adInstance.requestedAt == 0) {
+                countRequest(adInstance);
+                sendRequest(adInstance.adInstance);
+            }
+        }
+
+        // true when the banner is on screen and not covered by a full-screen ad
+        // NOTE: only safe to call on the UI thread!
+        private boolean isBannerVisible(CoronaAdInstance adInstance) {
+            return (adInstance.adStatus.get() == STATE_SHOWING) && (bannerContainer != null)
+                    && (bannerContainer.getVisibility() == View.VISIBLE) && !isFullScreenAdShowing();
+        }
+
+        // (re)start the refresh timer of a banner with a refresh policy, or stop it while the policy says so.
+        // called whenever the banner loads or its visibility may have changed
+        // NOTE: only safe to call on the UI thread!
+        void scheduleBannerRefresh() {
+            cancelBannerRefresh();
+
+            RefreshPolicy policy = refreshPolicy;
+            CoronaAdInstance adInstance = first();
+            if ((policy == null) || suspended || (adInstance == null) || !adInstance.adStatus.isLoaded()) {
+                return;
+            }
+
+            long refreshAt = policy.nextRefreshAt(adInstance.loadedAt, refreshCount, isBannerVisible(adInstance));
+            if ((refreshAt >= 0) && (refreshFailedAt > adInstance.loadedAt)) {
+                // the last refresh failed, the next one is timed from the failure rather than from the current ad
+                refreshAt = refreshFailedAt + ((refreshRetryDelayMs >= 0) ? refreshRetryDelayMs : policy.intervalMs);
+            }
+            if (refreshAt >= 0) {
+                // a banner which was paused past its interval is refreshed as soon as it's visible again
+                refreshScheduled = true;
+                uiHandler.postDelayed(refreshRunnable, Math.max(0, refreshAt - SystemClock.elapsedRealtime()));
+            }
+        }
+
+        // NOTE: only safe to call on the UI thread!
+        private void cancelBannerRefresh() {
+            if (refreshScheduled) {
+                uiHandler.removeCallbacks(refreshRunnable);
+                refreshScheduled = false;
+            }
+        }
+
+        // a refresh requested by the refresh policy failed. the banner keeps its current ad, on screen or not, and
+        // the next refresh backs off with the retry policy, or waits for the interval without one.
+        // returns true when the failure should be reported to Lua
+        // NOTE: only safe to call on the UI thread!
+        boolean retryRefreshAfterError(int errorCode) {
+            if (refreshPolicy == null) {
+                return true;    // refreshed by the SDK
+            }
+
+            RetryPolicy policy = retryPolicy;
+            long delayMs = (policy != null) ? policy.nextDelay(retryAttempt, errorCode, placementHistory.retryHeadStart(historyRecord)) : -1;
+            retryAttempt = (delayMs >= 0) ? (retryAttempt + 1) : 0;
+
+            refreshFailedAt = SystemClock.elapsedRealtime();
+            refreshRetryDelayMs = delayMs;
+            scheduleBannerRefresh();
+
+            return (delayMs < 0);
+        }
+
+        // a load succeeded, start over with the shortest retry delay next time
+        void resetRetries() {
+            retryAttempt = 0;
+        }
+
+        // decide what to do after a failed load. returns true when the failure should be reported to Lua
+        // NOTE: only safe to call on the UI thread!
+        boolean retryAfterError(int errorCode) {
+            RetryPolicy policy = retryPolicy;
+
+            if (policy == null) {
+                // without a retry policy interstitial/rewarded slots still refill in the background, see
+                // POOL_REFILL_POLICY, but every failure is reported. banners wait for the next load()
+                if (!adType.equals(TYPE_BANNER) && !refillScheduled) {
+                    scheduleRetry(POOL_REFILL_POLICY, errorCode);
+                }
+                setFailed();
+                return true;
+            }
+
+            // several pooled ads failed at once, a single retry covers all of them
+            if (refillScheduled) {
+                return false;
+            }
+
+            if (!scheduleRetry(policy, errorCode)) {
+                setFailed();
+                return true;
+            }
+
+            restingState = STATE_LOADING;
+            changed();
+            return false;
+        }
+
+        // schedule the next attempt of 'policy'. returns false when it gives up, until the next load() or show()
+        // NOTE: only safe to call on the UI thread!
+        private boolean scheduleRetry(RetryPolicy policy, int errorCode) {
+            // placements which rarely filled in earlier sessions back off faster
+            long delayMs = policy.nextDelay(retryAttempt, errorCode, placementHistory.retryHeadStart(historyRecord));
+            if (delayMs < 0) {
+                retryAttempt = 0;
+                return false;
+            }
+
+            retryAttempt++;
+            scheduleRefill(delayMs);
+            return true;
+        }
+
+        // the failure is about to be reported to Lua
+        // NOTE: only safe to call on the UI thread!
+        private void setFailed() {
+            restingState = STATE_FAILED;
+            changed();
+            publish();
+        }
+
+        // hand the banner container back to the pool once the slot is gone
+        // NOTE: only safe to call on the UI thread!
+        void releaseBannerContainer() {
+            if (bannerContainer != null) {
+                bannerContainer.setVisibility(View.GONE);
+                bannerContainerPool.add(bannerContainer);
+                bannerContainer = null;
+            }
+        }
+
+        // NOTE: only safe to call on the UI thread!
+        void dealloc() {
+            if (refillScheduled) {
+                uiHandler.removeCallbacks(refillRunnable);
+                refillScheduled = false;
+            }
+            retryAttempt = 0;
+            refreshFailedAt = 0;
+            refreshRetryDelayMs = -1;
+            restingState = STATE_IDLE;
+            showingAd = null;
+            changed();
+
+            if (expiryCheckScheduled) {
+                uiHandler.removeCallbacks(expiryCheckRunnable);
+                expiryCheckScheduled = false;
+            }
+
+            cancelBannerRefresh();
+
+            CoronaAdInstance[] snapshot = ads;
+            ads = new CoronaAdInstance[0];
+
+            for (CoronaAdInstance adInstance : snapshot) {
+                adInstance.adStatus.reset();
+                adInstance.dealloc();
+            }
+        }
+    }
+
+    // -------------------------------------------------------
+    // plugin implementation
+    // -------------------------------------------------------
+
+    // [Lua] fbAudienceNetwork.init(listener [, options)
+    @SuppressWarnings("SpellCheckingInspection")
+    private class init implements NamedJavaFunction {
+        // Gets the name of the Lua function as it would appear in the Lua script
+        @Override
+        public String getName() {
+            return "init";
+        }
+
+        // This method is executed when the Lua function is called
+        @Override
+        public int invoke(LuaState L) {
+            functionSignature = "fbAudienceNetwork.init(listener [, options)";
+
+            // prevent init from being called twice
+            if (coronaListener != CoronaLua.REFNIL) {
+                logMsg(WARNING_MSG, "init() should only be called once");
+                return 0;
+            }
+
+            initTimings.start(System.nanoTime());
+
+            // check number of arguments
+            int nargs = L.getTop();
+            if ((nargs < 1) || (nargs > 2)) {
+                logMsg(ERROR_MSG, "Expected 1 or 2 arguments, got " + nargs);
+                return 0;
+            }
+
+            String hashedId = null;
+            Collection<String> hashedIds = new ArrayList<>();
+            SimulatorConfig simulatorConfig = null;
+            int maxConcurrentLoads = 0;
+            boolean deferInit = false;
+            long deferInitDelayMs = 0;
+            int phases = EventRouter.ALL_PHASES;
+
+            // Get listener key (required)
+            if (CoronaLua.isListener(L, 1, PROVIDER_NAME)) {
+                coronaListener = CoronaLua.newRef(L, 1);
+            } else {
+                logMsg(ERROR_MSG, "listener expected, got: " + L.typeName(1));
+                return 0;
+            }
+
+            // check second parameter
+            if (!L.isNoneOrNil(2)) {
+                if (L.type(2) == LuaType.STRING) {
+                    // Single device hashed id
+                    hashedId = L.toString(2);
+                } else if (L.type(2) == LuaType.TABLE) {
+                    boolean legacyAPI = false;
+
+                    for (L.pushNil(); L.next(2); L.pop(1)) {
+                        if (L.type(-2) != LuaType.STRING) {
+                            legacyAPI = true;
+                            L.pop(2);
+                            break;
+                        }
+
+                        String key = L.toString(-2);
+
+                        if (key.equals("testDevices")) {
+                            if (L.type(-1) == LuaType.STRING) {
+                                hashedId = L.toString(-1);
+                            } else if (L.type(-1) == LuaType.TABLE) {
+                                int ntypes = L.length(-1);
+
+                                if (ntypes > 0) {
+                                    for (int i = 1; i <= ntypes; i++) {
+                                        L.rawGet(-1, i);
+
+                                        if (L.type(-1) == LuaType.STRING) {
+                                            hashedIds.add(L.toString(-1));
+                                        } else {
+                                            logMsg(ERROR_MSG, "hashedId[" + i + "] (string) expected, got: " + L.typeName(-1));
+                                            return 0;
+                                        }
+                                        L.pop(1);
+                                    }
+                                } else {
+                                    logMsg(ERROR_MSG, "hashedId table cannot be empty");
+                                    return 0;
+                                }
+                            } else {
+                                logMsg(ERROR_MSG, "options.hashedId (string or table) expected, got: " + L.typeName(-1));
+                                return 0;
+                            }
+                        } else if (key.equals("batchEvents")) {
+                            if (L.type(-1) == LuaType.BOOLEAN) {
+                                batchEvents = L.toBoolean(-1);
+                            } else {
+                                logMsg(ERROR_MSG, "options.batchEvents (boolean) expected, got: " + L.typeName(-1));
+                                return 0;
+                            }
+                        } else if (key.equals("simulator")) {
+                            SimulatorConfig config = new SimulatorConfig();
+                            String error = config.parse(luaStack(L));
+                            if (error != null) {
+                                logMsg(ERROR_MSG, error);
+                                return 0;
+                            }
+                            if ((L.type(-1) == LuaType.TABLE) || L.toBoolean(-1)) {
+                                simulatorConfig = config;
+                            }
+                        } else if (key.equals("maxConcurrentLoads")) {
+                            if ((L.type(-1) == LuaType.NUMBER) && (L.toNumber(-1) >= 0)) {
+                                maxConcurrentLoads = (int) L.toNumber(-1);
+                            } else {
+                                logMsg(ERROR_MSG, "options.maxConcurrentLoads (number >= 0) expected, got: " + L.typeName(-1));
+                                return 0;
+                            }
+                        } else if (key.equals("phases")) {
+                            phases = EventRouter.parsePhases(luaStack(L), L.getTop());
+                            if (phases < 0) {
+                                logMsg(ERROR_MSG, "options.phases must be an array of phase names: " + EventRouter.phaseNames());
+                                return 0;
+                            }
+                        } else if (key.equals("deferInit")) {
+                            if (L.type(-1) == LuaType.BOOLEAN) {
+                                deferInit = L.toBoolean(-1);
+                            } else if ((L.type(-1) == LuaType.NUMBER) && (L.toNumber(-1) >= 0)) {
+                                deferInit = true;
+                                deferInitDelayMs = (long) L.toNumber(-1);
+                            } else {
+                                logMsg(ERROR_MSG, "options.deferInit (boolean or number >= 0) expected, got: " + L.typeName(-1));
+                                return 0;
+                            }
+                        } else if (key.equals("memoryBudget")) {
+                            if ((L.type(-1) == LuaType.NUMBER) && (L.toNumber(-1) > 0)) {
+                                memoryBudgetBytes = (long) (L.toNumber(-1) * 1024 * 1024);
+                            } else {
+                                logMsg(ERROR_MSG, "options.memoryBudget (number > 0) expected, got: " + L.typeName(-1));
+                                return 0;
+                            }
+                        } else if (key.equals("uiFrameBudget")) {
+                            if ((L.type(-1) == LuaType.NUMBER) && (L.toNumber(-1) > 0)) {
+                                uiFrameBudgetNs = (long) (L.toNumber(-1) * 1000000);
+                            } else {
+                                logMsg(ERROR_MSG, "options.uiFrameBudget (number > 0) expected, got: " + L.typeName(-1));
+                                return 0;
+                            }
+                        } else if (key.equals("loadPriorities")) {
+                            if (L.type(-1) != LuaType.TABLE) {
+                                logMsg(ERROR_MSG, "options.loadPriorities (table) expected, got: " + L.typeName(-1));
+                                return 0;
+                            }
+
+                            for (L.pushNil(); L.next(-2); L.pop(1)) {
+                                String adType = (L.type(-2) == LuaType.STRING) ? L.toString(-2) : null;
+
+                                if (!validAdTypes.contains(adType) || (L.type(-1) != LuaType.NUMBER)) {
+                                    logMsg(ERROR_MSG, "options.loadPriorities must map ad types to numbers");
+                                    return 0;
+                                }
+
+                                int priority = (int) L.toNumber(-1);
+                                if (adType.equals(TYPE_REWARDED)) {
+                                    priorityRewarded = priority;
+                                } else if (adType.equals(TYPE_INTERSTITIAL)) {
+                                    priorityInterstitial = priority;
+                                } else {
+                                    priorityBanner = priority;
+                                }
+                            }
+                        } else if (key.equals("parallelLoad")) {
+                            if (L.type(-1) == LuaType.BOOLEAN) {
+                                parallelLoad = L.toBoolean(-1);
+                            } else {
+                                logMsg(ERROR_MSG, "options.parallelLoad (boolean) expected, got: " + L.typeName(-1));
+                                return 0;
+                            }
+                        } else {
+                            logMsg(ERROR_MSG, "Invalid option '" + key + "'");
+                            return 0;
+                        }
+                    }
+
+                    if (legacyAPI) {
+                        // Multiple device hashed id's
+                        int ntypes = L.length(2);
+
+                        if (ntypes > 0) {
+                            for (int i = 1; i <= ntypes; i++) {
+                                L.rawGet(2, i);
+
+                                if (L.type(-1) == LuaType.STRING) {
+                                    hashedIds.add(L.toString(-1));
+                                } else {
+                                    logMsg(ERROR_MSG, "hashedId[" + i + "] (string) expected, got: " + L.typeName(-1));
+                                    return 0;
+                                }
+                                L.pop(1);
+                            }
+                        } else {
+                            logMsg(ERROR_MSG, "hashedId table cannot be empty");
+                            return 0;
+                        }
+                    }
+                } else {
+                    logMsg(ERROR_MSG, "hashedId (string or table) expected, got " + L.typeName(2));
+                    return 0;
+                }
+            }
+
+            // set test devices
+            if (hashedId != null) {
+                AdSettings.addTestDevice(hashedId);
+            }
+
+            if (hashedIds.size() > 0) {
+                AdSettings.addTestDevices(hashedIds);
+            }
+
+            // log the plugin version to device console
+            Log.i(CORONA_TAG, PLUGIN_NAME + ": " + PLUGIN_VERSION + " (SDK: " + PLUGIN_SDK_VERSION + ")");
+
+            if (simulatorConfig != null) {
+                adBackend = new SimulatedBackend(simulatorConfig, uiHandler);
+                logMsg(WARNING_MSG, "Using simulated ads (seed " + simulatorConfig.seed + "), no requests will reach Audience Network");
+            }
+
+            final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
+            final int fMaxConcurrentLoads = maxConcurrentLoads;
+            final boolean fDeferInit = deferInit;
+            final long fDeferInitDelayMs = deferInitDelayMs;
+
+            // the 'init' event is always delivered
+            eventRouter.setGlobal(coronaListener, phases | EventRouter.phaseBit(PHASE_INIT));
+
+            // the UI thread may start on its part right away
+            long callEndedAt = System.nanoTime();
+            initTimings.end(InitTimings.STAGE_CALL, callEndedAt);
+            initTimings.begin(InitTimings.STAGE_DISPATCH, callEndedAt);
+
+            if (coronaActivity != null) {
+                // the heavy part, run straight away or once deferred
+                final Runnable sdkInit = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (fDeferInit) {
+                            if (deferredSdkInit != this) {
+                                return; // already started, or the runtime has exited
+                            }
+                            deferredSdkInit = null;
+                            initTimings.end(InitTimings.STAGE_DEFERRED, System.nanoTime());
+                        }
+
+                        // the SDK may report it is ready before initialize() returns, so both stages begin here
+                        long sdkInitAt = System.nanoTime();
+                        initTimings.begin(InitTimings.STAGE_SDK_INIT, sdkInitAt);
+                        initTimings.begin(InitTimings.STAGE_SDK_READY, sdkInitAt);
+
+                        adBackend.initialize(coronaActivity, new Runnable() {
+                            @Override
+                            public void run() {
+                                long readyAt = System.nanoTime();
+                                initTimings.end(InitTimings.STAGE_SDK_READY, readyAt);
+                                initTimings.begin(InitTimings.STAGE_PENDING_LOADS, readyAt);
+                                List<Runnable> queuedLoads;
+
+                                synchronized (pendingLoads) {
+                                    sdkReady = true;
+                                    queuedLoads = new ArrayList<>(pendingLoads);
+                                    pendingLoads.clear();
+                                }
+
+                                // send the requests made while we were initializing
+                                for (Runnable loadRequest : queuedLoads) {
+                                    uiTasks.post(loadRequest);
+                                }
+
+                                initTimings.end(InitTimings.STAGE_PENDING_LOADS, System.nanoTime());
+                                Log.i(CORONA_TAG, PLUGIN_NAME + ": init timings: " + initTimings);
+
+                                // send Corona Lua event
+                                dispatchLuaEvent(PHASE_INIT, null, null);
+                            }
+                        });
+                        initTimings.end(InitTimings.STAGE_SDK_INIT, System.nanoTime());
+                    }
+                };
+
+                if (fDeferInit) {
+                    deferredSdkInit = sdkInit;
+                }
+
+                coronaActivity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        long dispatchedAt = System.nanoTime();
+                        initTimings.end(InitTimings.STAGE_DISPATCH, dispatchedAt);
+                        initTimings.begin(InitTimings.STAGE_SETUP, dispatchedAt);
+
+                        loadScheduler.setMaxInFlight(fMaxConcurrentLoads, SystemClock.elapsedRealtime());
+
+                        // pick up where the last session left off, once the file is mapped
+                        openPlacementHistory(coronaActivity.getApplicationContext());
+
+                        if (memoryBudgetBytes == 0) {
+                            ActivityManager activityManager = (ActivityManager) coronaActivity.getSystemService(Context.ACTIVITY_SERVICE);
+                            memoryBudgetBytes = (long) activityManager.getMemoryClass() * 1024 * 1024 / DEFAULT_MEMORY_BUDGET_SHARE;
+                        }
+                        memoryBudget.setBudget(memoryBudgetBytes);
+
+                        // start from fresh metrics for this activity, then only recompute after configuration changes
+                        displayMetrics.invalidate();
+                        coronaActivity.getApplicationContext().registerComponentCallbacks(componentCallbacks);
+
+                        long setupEndedAt = System.nanoTime();
+                        initTimings.end(InitTimings.STAGE_SETUP, setupEndedAt);
+                        if (fDeferInit) {
+                            initTimings.begin(InitTimings.STAGE_DEFERRED, setupEndedAt);
+                        }
+
+                        if (!fDeferInit) {
+                            sdkInit.run();
+                            return;
+                        }
+
+                        // wait for the first load(), or for the UI thread to have nothing else to do
+                        uiHandler.postDelayed(new Runnable() {
+                            @Override
+                            public void run() {
+                                Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                                    @Override
+                                    public boolean queueIdle() {
+                                        sdkInit.run();
+                                        return false;
+                                    }
+                                });
+                            }
+                        }, fDeferInitDelayMs);
+                    }
+                });
+            }
+
+            return 0;
+        }
+    }
+
+    // [Lua] fbAudienceNetwork.load(adUnitType, options])
     private class load implements NamedJavaFunction {
+        private final LoadOptions loadOptions = new LoadOptions();
+
+        @Override
+        public String getName() {
+            return "load";
+        }
+
+        @Override
+        public int invoke(final LuaState L) {
+            functionSignature = "fbAudienceNetwork.load(adUnitType, options])";
+
+            // requests made before the SDK is ready are queued
+            if (!isInitCalled()) {
+                return 0;
+            }
+
+            // a registered placement, validated by registerPlacement()
+            if (L.type(1) == LuaType.NUMBER) {
+                LoadOptions profile = profileFor(L);
+                if (profile != null) {
+                    queueLoad(profile, null);
+                }
+                return 0;
+            }
+
+            // parse and validate the arguments
+            String error = loadOptions.parse(luaStack(L), BANNER_HEIGHT_50);
+            if (error != null) {
+                logMsg(ERROR_MSG, error);
+                return 0;
+            }
+
+            queueLoad(loadOptions, null);
+
+            return 0;
+        }
+    }
+
+    // validates a load() request and queues its UI work, into 'batch' when given. returns false if it's invalid
+    private boolean queueLoad(LoadOptions options, List<Runnable> batch) {
+        String adUnitType = options.adUnitType;
+        String placementId = options.placementId;
+        String requestedBannerSize = options.bannerSize;
+        int preloadDepth = options.preloadDepth;
+        RetryPolicy retryPolicy = options.retryPolicy;
+        long ttl = options.ttlMs;
+
+        // validation
+        if (!validAdTypes.contains(adUnitType)) {
+            logMsg(ERROR_MSG, "adUnitType '" + adUnitType + "' invalid");
+            return false;
+        }
+
+        if (adUnitType.equals(TYPE_BANNER) && (preloadDepth != LoadOptions.DEFAULT_PRELOAD_DEPTH)) {
+            logMsg(WARNING_MSG, "options.preloadDepth is ignored for banners");
+        }
+
+        if (adUnitType.equals(TYPE_BANNER) && (ttl != AdExpiry.DEFAULT_TTL_MS)) {
+            logMsg(WARNING_MSG, "options.ttl is ignored for banners");
+        }
+
+        if (!adUnitType.equals(TYPE_BANNER) && (options.refreshPolicy != null)) {
+            logMsg(WARNING_MSG, "options.refresh is ignored for " + adUnitType + " ads");
+        }
+
+        if (adUnitType.equals(TYPE_BANNER) && (options.placementIds != null)) {
+            logMsg(ERROR_MSG, "options.placementIds is not supported for banners");
+            return false;
+        }
+
+        // nothing to do while the placement is still loading or already holds every ad it should.
+        // returning here keeps repeated load() calls from tearing down requests in flight
+        PlacementSnapshot current = placementSnapshots.get(placementId);
+        if ((current != null) && current.adType.equals(adUnitType)) {
+            if (adUnitType.equals(TYPE_BANNER)) {
+                if (current.loading) {
+                    return true;
+                }
+            } else if ((current.depth == preloadDepth) && (current.ttlMs == ttl) && current.full
+                    && Arrays.equals(current.sources, options.placementIds) && (current.waterfallPolicy == options.waterfallPolicy)) {
+                updateRetryPolicy(placementId, adUnitType, retryPolicy);
+                return true;
+            }
+        }
+
+        final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
+        final String fAdUnitType = adUnitType;
+        final String fPlacementId = placementId;
+        final String fRequestedBannerSize = requestedBannerSize;
+        final int fPreloadDepth = preloadDepth;
+        final RetryPolicy fRetryPolicy = retryPolicy;
+        final long fTtl = ttl;
+        final String[] fPlacementIds = options.placementIds;
+        final RefreshPolicy fRefreshPolicy = options.refreshPolicy;
+        final int fWaterfallPolicy = options.waterfallPolicy;
+
+        // bail if no valid activity
+        if (coronaActivity == null) {
+            return false;
+        }
+
+        switch (adUnitType) {
+            case TYPE_BANNER: {
+                Runnable runnableActivity = new Runnable() {
+                    public void run() {
+                        // deallocate the old banner
+                        AdSlot adSlot = adSlots.get(fPlacementId);
+                        if (adSlot != null) {
+                            if (!adSlot.adType.equals(TYPE_BANNER)) {
+                                logMsg(ERROR_MSG, "placementId '" + fPlacementId + "' is not a banner");
+                                return;
+                            }
+
+                            // an earlier load() for this banner is still in flight
+                            CoronaAdInstance currentAd = adSlot.first();
+                            if ((currentAd != null) && (currentAd.adStatus.get() == STATE_LOADING)) {
+                                return;
+                            }
+
+                            adSlot.dealloc();
+                        } else {
+                            adSlot = new AdSlot(fPlacementId, fAdUnitType, 1);
+                            adSlots.put(fPlacementId, adSlot);
+                        }
+
+                        adSlot.retryPolicy = fRetryPolicy;
+                        adSlot.refreshPolicy = fRefreshPolicy;
+                        adSlot.refreshCount = 0;
+                        adSlot.resetRetries();
+
+                        // getSize() needs the Corona->device coordinate ratio
+                        displayMetrics.update(coronaActivity);
+
+                        String bannerSize = fRequestedBannerSize;
+
+                        switch (bannerSize) {
+                            case BANNER_320_50:
+                            case BANNER_HEIGHT_50:
+                            case BANNER_HEIGHT_90:
+                            case RECTANGLE_HEIGHT_250:
+                                break;
+                            default:
+                                logMsg(WARNING_MSG, "bannerSize '" + fRequestedBannerSize + "' not valid. Using default size '" + BANNER_HEIGHT_50 + "'");
+                                bannerSize = BANNER_HEIGHT_50;
+                                break;
+                        }
+
+                        // reloads keep the container, hidden until the new banner is shown
+                        if (adSlot.bannerContainer == null) {
+                            adSlot.bannerContainer = acquireBannerContainer(coronaActivity);
+                        } else {
+                            adSlot.bannerContainer.setVisibility(View.INVISIBLE);
+                        }
+
+                        // Create the banner Ad
+                        AdBackend.BackendAd bannerAd = adBackend.createBanner(coronaActivity, fPlacementId, bannerSize, bannerAdListener);
+                        adOwners.put(bannerAd, adSlot);
+                        View bannerView = bannerAd.getView();
+                        adSlot.bannerContainer.addView(bannerView, new FrameLayout.LayoutParams(
+                                FrameLayout.LayoutParams.WRAP_CONTENT,
+                                FrameLayout.LayoutParams.WRAP_CONTENT
+                        ));
+
+                        // save ad object for future use
+                        CoronaAdInstance adInstance = new CoronaAdInstance(bannerAd, fAdUnitType);
+                        adSlot.width = bannerView.getWidth();
+                        adSlot.height = bannerView.getHeight();
+                        adSlot.add(adInstance);
+                        adSlot.countRequest(adInstance);
+
+                        adSlot.sendRequest(bannerAd);
+                        adSlot.changed();
+                    }
+                };
+
+                queueLoad(fPlacementId, runnableActivity, batch);
+                break;
+            }
+            case TYPE_INTERSTITIAL:
+            case TYPE_REWARDED: {
+                Runnable runnableActivity = new Runnable() {
+                    public void run() {
+                        // top up the existing slot instead of throwing away ads which are already loaded
+                        AdSlot adSlot = adSlots.get(fPlacementId);
+
+                        if (adSlot != null) {
+                            if (!adSlot.adType.equals(fAdUnitType)) {
+                                logMsg(ERROR_MSG, "placementId '" + fPlacementId + "' is not " + (fAdUnitType.equals(TYPE_INTERSTITIAL) ? "an interstitial" : "a rewarded video"));
+                                return;
+                            }
+
+                            adSlot.depth = fPreloadDepth;
+                            adSlot.ttlMs = fTtl;
+                        } else {
+                            // save ad slot for future use
+                            adSlot = new AdSlot(fPlacementId, fAdUnitType, fPreloadDepth);
+                            adSlot.ttlMs = fTtl;
+                            adSlots.put(fPlacementId, adSlot);
+                        }
+
+                        adSlot.retryPolicy = fRetryPolicy;
+                        adSlot.resetRetries();
+
+                        // ads requested from other sources stay until they're used or expire
+                        adSlot.setSources(fPlacementIds, fWaterfallPolicy);
+
+                        adSlot.fill();
+                        adSlot.scheduleExpiryCheck();
+                        adSlot.changed();
+                    }
+                };
+
+                queueLoad(fPlacementId, runnableActivity, batch);
+                break;
+            }
+        }
+
+        return true;
+    }
+
+    private void queueLoad(String placementId, Runnable loadRequest, List<Runnable> batch) {
+        if (batch != null) {
+            batch.add(loadRequest);
+        } else {
+            runLoadRequest(placementId, loadRequest);
+        }
+    }
+
+    // [Lua] fbAudienceNetwork.show(adUnitType [, options])
+    private class show implements NamedJavaFunction {
+        @Override
+        public String getName() {
+            return "show";
+        }
+
+        @Override
+        public int invoke(final LuaState L) {
+            functionSignature = "fbAudienceNetwork.show(adUnitType [, options])";
+
+            if (!isSDKInitialized()) {
+                return 0;
+            }
+
+            // a registered placement, validated by registerPlacement()
+            if (L.type(1) == LuaType.NUMBER) {
+                LoadOptions profile = profileFor(L);
+                if (profile != null) {
+                    queueShow(profile.adUnitType, profile.placementId, profile.yAlign, profile.yOffset, null);
+                }
+                return 0;
+            }
+
+            // check number of arguments
+            int nargs = L.getTop();
+            if ((nargs < 2) || (nargs > 3)) { // 3 for legacy support
+                logMsg(ERROR_MSG, "Expected 2 arguments, got " + nargs);
+                return 0;
+            }
+
+            String adUnitType;
+            String placementId = null;
+            String yAlign = null;
+            double yOffset = 0;
+            boolean legacyAPI = false;
+
+            if (L.type(1) == LuaType.STRING) {
+                adUnitType = L.toString(1);
+            } else {
+                logMsg(ERROR_MSG, "adUnitType (string) expected, got " + L.typeName(1));
+                return 0;
+            }
+
+            if (L.type(2) == LuaType.STRING) {
+                placementId = L.toString(2);
+                legacyAPI = true;
+            } else if (L.type(2) == LuaType.TABLE) {
+                // traverse all options
+                for (L.pushNil(); L.next(2); L.pop(1)) {
+                    if (L.type(-2) != LuaType.STRING) {
+                        logMsg(ERROR_MSG, "options must be a key/value table");
+                        return 0;
+                    }
+
+                    String key = L.toString(-2);
+
+                    if (key.equals("placementId")) {
+                        if (L.type(-1) == LuaType.STRING) {
+                            placementId = L.toString(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.placementId (string) expected, got: " + L.typeName(-1));
+                            return 0;
+                        }
+                    } else if (key.equals("y")) {
+                        if (L.type(-1) == LuaType.STRING) {
+                            yAlign = L.toString(-1);
+                        } else if (L.type(-1) == LuaType.NUMBER) {
+                            yOffset = L.toNumber(-1);
+                        } else {
+                            logMsg(ERROR_MSG, "options.y (string or number) expected, got: " + L.typeName(-1));
+                            return 0;
+                        }
+                    } else {
+                        logMsg(ERROR_MSG, "Invalid option '" + key + "'");
+                        return 0;
+                    }
+                }
+            } else {
+                logMsg(ERROR_MSG, "placementId (string) expected, got " + L.typeName(2));
+                return 0;
+            }
+
+            if (legacyAPI) {
+                if (!L.isNoneOrNil(3)) {
+                    if (L.type(3) == LuaType.TABLE) {
+                        // traverse and verify all options
+                        for (L.pushNil(); L.next(3); L.pop(1)) {
+                            String key = L.toString(-2);
+
+                            if (key.equals("y")) {
+                                if (L.type(-1) == LuaType.NUMBER) {
+                                    yOffset = L.toNumber(-1);
+                                } else {
+                                    logMsg(ERROR_MSG, "options.y (number) expected, got: " + L.typeName(-1));
+                                    return 0;
+                                }
+                            } else if (key.equals("yAlign")) {
+                                if (L.type(-1) == LuaType.STRING) {
+                                    yAlign = L.toString(-1);
+                                } else {
+                                    logMsg(ERROR_MSG, "options.yAlign (string) expected, got: " + L.typeName(-1));
+                                    return 0;
+                                }
+                            } else {
+                                logMsg(ERROR_MSG, "Invalid option '" + key + "'");
+                                return 0;
+                            }
+                        }
+                    } else {
+                        logMsg(ERROR_MSG, "options (table) expected, got " + L.typeName(3));
+                        return 0;
+                    }
+                }
+            }
+
+            queueShow(adUnitType, placementId, yAlign, yOffset, null);
+
+            return 0;
+        }
+    }
+
+    // validates a show() request and queues its UI work, into 'batch' when given. returns false if it's invalid
+    private boolean queueShow(String adUnitType, String placementId, String yAlign, double yOffset, List<Runnable> batch) {
+        // validation
+        if (!validAdTypes.contains(adUnitType)) {
+            logMsg(ERROR_MSG, "adUnitType '" + adUnitType + "' invalid");
+            return false;
+        }
+
+        if (yAlign != null) {
+            if (!validBannerPositions.contains(yAlign)) {
+                logMsg(ERROR_MSG, "yAlign '" + yAlign + "' invalid");
+                return false;
+            }
+        }
+
+        // get ad info
+        PlacementSnapshot snapshot = placementSnapshots.get(placementId);
+        if (snapshot == null) {
+            logMsg(ERROR_MSG, "placementId '" + placementId + "' not loaded");
+            return false;
+        }
+
+        final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
+        final String fPlacementId = placementId;
+        final String fYAlign = yAlign;
+        final double fYOffset = yOffset;
+        final long fShowCalledAt = SystemClock.elapsedRealtime();
+
+        // bail if no valid activity
+        if (coronaActivity == null) {
+            return false;
+        }
+
+        switch (adUnitType) {
+            case TYPE_BANNER: {
+                if (!snapshot.adType.equals(TYPE_BANNER)) {
+                    logMsg(ERROR_MSG, "placementId '" + placementId + "' is not a banner");
+                    return false;
+                }
+
+                Runnable runnableActivity = new Runnable() {
+                    public void run() {
+                        // the banner may have been hidden since
+                        AdSlot adSlot = adSlots.get(fPlacementId);
+                        CoronaAdInstance adInstance = ((adSlot != null) && adSlot.adType.equals(TYPE_BANNER)) ? adSlot.first() : null;
+                        boolean wasShowing = (adInstance != null) && (adInstance.adStatus.get() == STATE_SHOWING);
+
+                        // loaded -> showing, or showing -> showing when moving a banner which is already on screen
+                        if ((adInstance == null) || !adInstance.adStatus.moveTo(STATE_SHOWING)) {
+                            logMsg(ERROR_MSG, "banner placementId '" + fPlacementId + "' not loaded");
+                            return;
+                        }
+
+                        if (!wasShowing) {
+                            adSlot.countShow(fShowCalledAt);
+                            adSlot.changed();
+                        }
+
+                        View bannerView = adInstance.adInstance.getView();
+                        FrameLayout bannerContainer = adSlot.bannerContainer;
+
+                        // move the container in place instead of re-adding the banner to the overlay
+                        FrameLayout.LayoutParams params = (FrameLayout.LayoutParams) bannerContainer.getLayoutParams();
+                        params.topMargin = 0;
+                        params.bottomMargin = 0;
+
+                        // set the banner position
+                        if (fYAlign == null) {
+                            displayMetrics.update(coronaActivity);
+                            int orientedHeight = displayMetrics.orientedHeight;
+
+                            double newBannerY = ceil(fYOffset * displayMetrics.yRatio);
+
+                            // make sure the banner frame is visible.
+                            // adjust it if the user has specified 'y' which will render it partially off-screen
+                            if (newBannerY >= 0) { // offset from top
+                                if (newBannerY + bannerView.getHeight() > orientedHeight) {
+                                    logMsg(WARNING_MSG, "Banner y position off screen. Adjusting position.");
+                                    params.gravity = Gravity.BOTTOM | Gravity.CENTER;
+                                } else {
+                                    params.gravity = Gravity.TOP | Gravity.CENTER;
+                                    params.topMargin = (int) newBannerY;
+                                }
+                            } else { // offset from bottom
+                                if (orientedHeight - bannerView.getHeight() + newBannerY < 0) {
+                                    logMsg(WARNING_MSG, "Banner y position off screen. Adjusting position.");
+                                    params.gravity = Gravity.TOP | Gravity.CENTER;
+                                } else {
+                                    params.gravity = Gravity.BOTTOM | Gravity.CENTER;
+                                    params.bottomMargin = Math.abs((int) newBannerY);
+                                }
+                            }
+                        } else {
+                            switch (fYAlign) {
+                                case BANNER_ALIGN_TOP:
+                                    params.gravity = Gravity.TOP | Gravity.CENTER;
+                                    break;
+                                case BANNER_ALIGN_CENTER:
+                                    params.gravity = Gravity.CENTER;
+                                    break;
+                                case BANNER_ALIGN_BOTTOM:
+                                    params.gravity = Gravity.BOTTOM | Gravity.CENTER;
+                                    break;
+                            }
+                        }
+
+                        // display the banner
+                        bannerContainer.setLayoutParams(params);
+                        bannerContainer.setVisibility(View.VISIBLE);
+                        bannerContainer.bringToFront();
+
+                        adSlot.scheduleBannerRefresh();
+                    }
+                };
+
+                queueShow(fPlacementId, snapshot, runnableActivity, batch);
+                break;
+            }
+            case TYPE_INTERSTITIAL:
+            case TYPE_REWARDED: {
+                if (!snapshot.adType.equals(adUnitType)) {
+                    logMsg(ERROR_MSG, "placementId '" + placementId + "' is not " + (adUnitType.equals(TYPE_INTERSTITIAL) ? "an interstitial" : "a rewarded video"));
+                    return false;
+                }
+
+                // an ad from this placement is already on screen
+                if (snapshot.showing) {
+                    return true;
+                }
+
+                final String fAdUnitType = adUnitType;
+
+                Runnable runnableActivity = new Runnable() {
+                    public void run() {
+                        AdSlot adSlot = adSlots.get(fPlacementId);
+                        if ((adSlot == null) || !adSlot.adType.equals(fAdUnitType)) {
+                            logMsg(ERROR_MSG, fAdUnitType + " placementId '" + fPlacementId + "' not loaded");
+                            return;
+                        }
+
+                        if (adSlot.showingAd != null) {
+                            return; // lost the race against another show()
+                        }
+
+                        // show the oldest ad which is still valid
+                        CoronaAdInstance adInstance = adSlot.peekReady();
+
+                        if ((adInstance == null) || !adInstance.adStatus.moveTo(STATE_SHOWING)) {
+                            logMsg(ERROR_MSG, fAdUnitType + " placementId '" + fPlacementId + "' not loaded");
+                            return;
+                        }
+
+                        // the slot starts loading a replacement while this one is on screen
+                        adSlot.showingAd = adInstance;
+                        adSlot.changed();
+                        adSlot.countShow(fShowCalledAt);
+                        adSlot.consume(adInstance);
+                        updateBannerRefresh();
+
+                        adInstance.adInstance.show();
+                    }
+                };
+
+                queueShow(fPlacementId, snapshot, runnableActivity, batch);
+                break;
+            }
+        }
+
+        return true;
+    }
+
+    private void queueShow(String placementId, PlacementSnapshot snapshot, Runnable showRequest, List<Runnable> batch) {
+        if (batch != null) {
+            batch.add(showRequest);
+        } else {
+            uiTasks.post(snapshot.showTaskKey, placementId, showRequest);
+        }
+    }
+
+    // [Lua] fbAudienceNetwork.hide(placementId) - For banner Ads only
+    private class hide implements NamedJavaFunction {
+        @Override
+        public String getName() {
+            return "hide";
+        }
+
+        @Override
+        public int invoke(LuaState L) {
+            functionSignature = "fbAudienceNetwork.hide(placementId)";
+
+            if (!isSDKInitialized()) {
+                return 0;
+            }
+
+            // check number of arguments
+            int nargs = L.getTop();
+            if (nargs != 1) {
+                logMsg(ERROR_MSG, "Expected 1 argument, got " + nargs);
+                return 0;
+            }
+
+            String placementId;
+
+            if (L.type(1) == LuaType.STRING) {
+                placementId = L.toString(1);
+            } else {
+                logMsg(ERROR_MSG, "placementId (string) expected, got " + L.typeName(1));
+                return 0;
+            }
+
+            queueHide(placementId, null);
+
+            return 0;
+        }
+    }
+
+    // validates a hide() request and queues its UI work, into 'batch' when given. returns false if it's invalid
+    private boolean queueHide(String placementId, List<Runnable> batch) {
+        // get ad info
+        PlacementSnapshot snapshot = placementSnapshots.get(placementId);
+        if (snapshot == null) {
+            logMsg(ERROR_MSG, "placementId '" + placementId + "' not loaded");
+            return false;
+        }
+
+        // only banners can be hidden
+        if (!snapshot.adType.equals(TYPE_BANNER)) {
+            logMsg(ERROR_MSG, "placementId '" + placementId + "' is not a banner");
+            return false;
+        }
+
+        final String fPlacementId = placementId;
+
+        // bail if no valid activity
+        if (CoronaEnvironment.getCoronaActivity() == null) {
+            return false;
+        }
+
+        Runnable runnableActivity = new Runnable() {
+            public void run() {
+                AdSlot adSlot = adSlots.get(fPlacementId);
+                if ((adSlot == null) || !adSlot.adType.equals(TYPE_BANNER)) {
+                    return; // already hidden
+                }
+
+                adSlot.dealloc();
+                adSlot.releaseBannerContainer();
+                adSlots.remove(fPlacementId);
+                placementSnapshots.remove(fPlacementId);
+            }
+        };
+
+        if (batch != null) {
+            batch.add(runnableActivity);
+        } else {
+            uiTasks.post(null, fPlacementId, runnableActivity);
+        }
+
+        return true;
+    }
+
+    // checks the single argument of a batch call is an array. returns its length, or -1 on error
+    private int batchLength(LuaState L, String argName) {
+        // check number of arguments
+        int nargs = L.getTop();
+        if (nargs != 1) {
+            logMsg(ERROR_MSG, "Expected 1 argument, got " + nargs);
+            return -1;
+        }
+
+        if (L.type(1) != LuaType.TABLE) {
+            logMsg(ERROR_MSG, argName + " (table) expected, got " + L.typeName(1));
+            return -1;
+        }
+
+        return L.length(1);
+    }
+
+    // [Lua] fbAudienceNetwork.loadMany(requests)
+    private class loadMany implements NamedJavaFunction {
+        private final LoadOptions loadOptions = new LoadOptions();
+        private final ArrayList<Runnable> batch = new ArrayList<>();
+
         @Override
         public String getName() {
-            return "load";
+            return "loadMany";
         }
 
         @Override
-        public int invoke(final LuaState L) {
-            functionSignature = "fbAudienceNetwork.load(adUnitType, options])";
-
-            if (!isSDKInitialized()) {
-                return 0;
-            }
+        public int invoke(LuaState L) {
+            functionSignature = "fbAudienceNetwork.loadMany(requests)";
 
-            // check number of arguments
-            int nargs = L.getTop();
-            if ((nargs < 2) || (nargs > 3)) { // 3 for legacy support
-                logMsg(ERROR_MSG, "Expected 2 arguments, got " + nargs);
+            // requests made before the SDK is ready are queued
+            if (!isInitCalled()) {
                 return 0;
             }
 
-            String adUnitType;
-            String placementId = null;
-            String requestedBannerSize = BANNER_HEIGHT_50;
-            boolean legacyAPI = false;
-
-            if (L.type(1) == LuaType.STRING) {
-                adUnitType = L.toString(1);
-            } else {
-                logMsg(ERROR_MSG, "adUnitType (string) expected, got " + L.typeName(1));
+            int count = batchLength(L, "requests");
+            if (count < 0) {
                 return 0;
             }
 
-            if (L.type(2) == LuaType.STRING) {
-                placementId = L.toString(2);
-                legacyAPI = true;
-            } else if (L.type(2) == LuaType.TABLE) {
-                // traverse all options
-                for (L.pushNil(); L.next(2); L.pop(1)) {
-                    if (L.type(-2) != LuaType.STRING) {
-                        logMsg(ERROR_MSG, "options must be a key/value table");
-                        return 0;
-                    }
+            // results, at index 2
+            L.newTable(count, 0);
 
-                    String key = L.toString(-2);
+            for (int i = 1; i <= count; i++) {
+                L.rawGet(1, i);
 
-                    if (key.equals("placementId")) {
-                        if (L.type(-1) == LuaType.STRING) {
-                            placementId = L.toString(-1);
-                        } else {
-                            logMsg(ERROR_MSG, "options.placementId (string) expected, got: " + L.typeName(-1));
-                            return 0;
-                        }
-                    } else if (key.equals("bannerSize")) {
-                        if (L.type(-1) == LuaType.STRING) {
-                            requestedBannerSize = L.toString(-1);
-                        } else {
-                            logMsg(ERROR_MSG, "options.bannerSize (string) expected, got: " + L.typeName(-1));
-                            return 0;
-                        }
-                    } else {
-                        logMsg(ERROR_MSG, "Invalid option '" + key + "'");
-                        return 0;
-                    }
+                boolean queued = false;
+                String error = loadOptions.parseRequest(luaStack(L), L.getTop(), BANNER_HEIGHT_50);
+                if (error != null) {
+                    logMsg(ERROR_MSG, "requests[" + i + "]: " + error);
+                } else {
+                    queued = queueLoad(loadOptions, batch);
                 }
-            } else {
-                logMsg(ERROR_MSG, "options (table) expected, got " + L.typeName(2));
-                return 0;
+                L.pop(1);
+
+                L.pushBoolean(queued);
+                L.rawSet(2, i);
             }
 
-            if (legacyAPI) {
-                // check banner size
-                if (!L.isNoneOrNil(3)) {
-                    if (L.type(3) == LuaType.STRING) {
-                        requestedBannerSize = L.toString(3);
-                    } else {
-                        logMsg(ERROR_MSG, "bannerSize (string) expected, got " + L.typeName(3));
-                        return 0;
-                    }
-                }
+            if (!batch.isEmpty()) {
+                runLoadRequest(null, new BatchRequest(batch));
+                batch.clear();
             }
 
-            // validation
-            if (!validAdTypes.contains(adUnitType)) {
-                logMsg(ERROR_MSG, "adUnitType '" + adUnitType + "' invalid");
+            return 1;
+        }
+    }
+
+    // [Lua] fbAudienceNetwork.showMany(requests)
+    private class showMany implements NamedJavaFunction {
+        private final ArrayList<Runnable> batch = new ArrayList<>();
+
+        // the request being parsed
+        private String adUnitType;
+        private String placementId;
+        private String yAlign;
+        private double yOffset;
+
+        @Override
+        public String getName() {
+            return "showMany";
+        }
+
+        @Override
+        public int invoke(LuaState L) {
+            functionSignature = "fbAudienceNetwork.showMany(requests)";
+
+            if (!isSDKInitialized()) {
                 return 0;
             }
 
-            final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
-            final String fAdUnitType = adUnitType;
-            final String fPlacementId = placementId;
-            final String fRequestedBannerSize = requestedBannerSize;
-
-            // bail if no valid activity
-            if (coronaActivity == null) {
+            int count = batchLength(L, "requests");
+            if (count < 0) {
                 return 0;
             }
 
-            switch (adUnitType) {
-                case TYPE_BANNER: {
-                    Runnable runnableActivity = new Runnable() {
-                        public void run() {
-                            // deallocate the old banner
-                            CoronaAdInstance oldAdInstance = (CoronaAdInstance) fbObjects.get(fPlacementId);
-                            if (oldAdInstance != null) {
-                                if (!oldAdInstance.adType.equals(TYPE_BANNER)) {
-                                    logMsg(ERROR_MSG, "placementId '" + fPlacementId + "' is not a banner");
-                                    return;
-                                }
+            // results, at index 2
+            L.newTable(count, 0);
 
-                                oldAdInstance.dealloc();
-                            }
+            for (int i = 1; i <= count; i++) {
+                L.rawGet(1, i);
 
-                            // calculate the Corona->device coordinate ratio.
-                            // we don't use display.contentScaleY here as there are cases where it's difficult to get the proper values to use
-                            // especially on Android. uses the same formula for iOS and Android for the sake of consistency.
-                            // re-calculate this value on every load as the ratio can change between orientation changes
-                            Point point1 = coronaActivity.convertCoronaPointToAndroidPoint(0, 0);
-                            Point point2 = coronaActivity.convertCoronaPointToAndroidPoint(1000, 1000);
-                            double yRatio = (double) (point2.y - point1.y) / 1000.0;
-                            fbObjects.put(Y_RATIO_KEY, yRatio);
-
-                            AdSize bannerAdSize = AdSize.BANNER_HEIGHT_50;
-
-                            switch (fRequestedBannerSize) {
-                                case BANNER_320_50:
-                                    //noinspection deprecation
-                                    bannerAdSize = AdSize.BANNER_320_50;
-                                    break;
-                                case BANNER_HEIGHT_50:
-                                    bannerAdSize = AdSize.BANNER_HEIGHT_50;
-                                    break;
-                                case BANNER_HEIGHT_90:
-                                    bannerAdSize = AdSize.BANNER_HEIGHT_90;
-                                    break;
-                                case RECTANGLE_HEIGHT_250:
-                                    bannerAdSize = AdSize.RECTANGLE_HEIGHT_250;
-                                    break;
-                                default:
-                                    logMsg(WARNING_MSG, "bannerSize '" + fRequestedBannerSize + "' not valid. Using default size '" + BANNER_HEIGHT_50 + "'");
-                                    break;
-                            }
+                boolean queued = false;
+                String error = parseRequest(L, L.getTop());
+                if (error != null) {
+                    logMsg(ERROR_MSG, "requests[" + i + "]: " + error);
+                } else {
+                    queued = queueShow(adUnitType, placementId, yAlign, yOffset, batch);
+                }
+                L.pop(1);
 
-                            // Create the banner Ad
-                            AdView bannerAd = new AdView(coronaActivity, fPlacementId, bannerAdSize);
-                            bannerAd.setVisibility(View.INVISIBLE);
+                L.pushBoolean(queued);
+                L.rawSet(2, i);
+            }
 
-                            // set layout params
-                            FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
-                                    FrameLayout.LayoutParams.WRAP_CONTENT,
-                                    FrameLayout.LayoutParams.WRAP_CONTENT
-                            );
+            if (!batch.isEmpty()) {
+                uiTasks.post(null, FrameTaskQueue.ALL_GROUPS, new BatchRequest(batch));
+                batch.clear();
+            }
 
-                            // we need to add the banner to the hierarchy temporarily in order for it to get the proper size when loading
-                            // we'll remove this later in show() to set the final position
-                            params.gravity = Gravity.BOTTOM | Gravity.CENTER;
-                            coronaActivity.getOverlayView().addView(bannerAd, params);
+            return 1;
+        }
 
-                            // save ad object for future use
-                            CoronaAdInstance adInstance = new CoronaAdInstance(bannerAd, fAdUnitType, bannerAd.getWidth(), bannerAd.getHeight());
-                            fbObjects.put(fPlacementId, adInstance);
+        // parses the request table at the absolute stack 'index'. returns null on success, otherwise the error message
+        private String parseRequest(LuaState L, int index) {
+            adUnitType = null;
+            placementId = null;
+            yAlign = null;
+            yOffset = 0;
 
-                            // save extra ad status information not available in ad object
-                            CoronaAdStatus adStatus = new CoronaAdStatus();
-                            String statusKey = fPlacementId + STATUS_SUFFIX;
-                            fbObjects.put(statusKey, adStatus);
+            if (L.type(index) != LuaType.TABLE) {
+                return "request (table) expected, got " + L.typeName(index);
+            }
 
-                            bannerAd.loadAd(bannerAd.buildLoadAdConfig().withAdListener(new CoronaFBANBannerAdListener()).build());
-                        }
-                    };
+            // traverse all options
+            for (L.pushNil(); L.next(index); L.pop(1)) {
+                String error = null;
+                String key = (L.type(-2) == LuaType.STRING) ? L.toString(-2) : null;
 
-                    coronaActivity.runOnUiThread(runnableActivity);
-                    break;
+                if (key == null) {
+                    error = "request must be a key/value table";
+                } else if (key.equals("adUnitType")) {
+                    if (L.type(-1) == LuaType.STRING) {
+                        adUnitType = L.toString(-1);
+                    } else {
+                        error = "request.adUnitType (string) expected, got: " + L.typeName(-1);
+                    }
+                } else if (key.equals("placementId")) {
+                    if (L.type(-1) == LuaType.STRING) {
+                        placementId = L.toString(-1);
+                    } else {
+                        error = "request.placementId (string) expected, got: " + L.typeName(-1);
+                    }
+                } else if (key.equals("y")) {
+                    if (L.type(-1) == LuaType.STRING) {
+                        yAlign = L.toString(-1);
+                    } else if (L.type(-1) == LuaType.NUMBER) {
+                        yOffset = L.toNumber(-1);
+                    } else {
+                        error = "request.y (string or number) expected, got: " + L.typeName(-1);
+                    }
+                } else {
+                    error = "Invalid option '" + key + "'";
                 }
-                case TYPE_INTERSTITIAL: {
-                    Runnable runnableActivity = new Runnable() {
-                        public void run() {
-                            // deallocate the old interstitial
-                            CoronaAdInstance oldAdInstance = (CoronaAdInstance) fbObjects.get(fPlacementId);
-                            if (oldAdInstance != null) {
-                                if (!oldAdInstance.adType.equals(TYPE_INTERSTITIAL)) {
-                                    logMsg(ERROR_MSG, "placementId '" + fPlacementId + "' is not an interstitial");
-                                    return;
-                                }
 
-                                oldAdInstance.dealloc();
-                            }
+                if (error != null) {
+                    L.pop(2);
+                    return error;
+                }
+            }
 
-                            // create the interstitial ad
-                            InterstitialAd interstitialAd = new InterstitialAd(coronaActivity, fPlacementId);
-                            // save ad object for future use
-                            CoronaAdInstance adInstance = new CoronaAdInstance(interstitialAd, fAdUnitType);
-                            fbObjects.put(fPlacementId, adInstance);
-
-                            // save extra ad status information not available in ad object
-                            CoronaAdStatus adStatus = new CoronaAdStatus();
-                            String statusKey = fPlacementId + STATUS_SUFFIX;
-                            fbObjects.put(statusKey, adStatus);
-
-                            try {
-                                interstitialAd.loadAd(interstitialAd.buildLoadAdConfig().withAdListener(new CoronaFBANInterstitialAdListener()).build());
-                            } catch (Exception e) {
-                                Log.e("Corona", "error loading interstitial ad", e);
-                            }
-                        }
-                    };
+            if (adUnitType == null) {
+                return "request.adUnitType (string) expected";
+            }
 
-                    coronaActivity.runOnUiThread(runnableActivity);
-                    break;
-                }
-                case TYPE_REWARDED: {
-                    Runnable runnableActivity = new Runnable() {
-                        public void run() {
-                            // deallocate the old interstitial
-                            CoronaAdInstance oldAdInstance = (CoronaAdInstance) fbObjects.get(fPlacementId);
-                            if (oldAdInstance != null) {
-                                if (!oldAdInstance.adType.equals(TYPE_REWARDED)) {
-                                    logMsg(ERROR_MSG, "placementId '" + fPlacementId + "' is not an interstitial");
-                                    return;
-                                }
+            if (placementId == null) {
+                return "request.placementId (string) expected";
+            }
 
-                                oldAdInstance.dealloc();
-                            }
+            return null;
+        }
+    }
+
+    // [Lua] fbAudienceNetwork.hideMany(placementIds) - For banner Ads only
+    private class hideMany implements NamedJavaFunction {
+        private final ArrayList<Runnable> batch = new ArrayList<>();
 
-                            // create the interstitial ad
-                            RewardedVideoAd rewardedAd = new RewardedVideoAd(coronaActivity, fPlacementId);
-                            // save ad object for future use
-                            CoronaAdInstance adInstance = new CoronaAdInstance(rewardedAd, fAdUnitType);
-                            fbObjects.put(fPlacementId, adInstance);
+        @Override
+        public String getName() {
+            return "hideMany";
+        }
 
-                            // save extra ad status information not available in ad object
-                            CoronaAdStatus adStatus = new CoronaAdStatus();
-                            String statusKey = fPlacementId + STATUS_SUFFIX;
-                            fbObjects.put(statusKey, adStatus);
+        @Override
+        public int invoke(LuaState L) {
+            functionSignature = "fbAudienceNetwork.hideMany(placementIds)";
 
-                            rewardedAd.loadAd(rewardedAd.buildLoadAdConfig().withAdListener(new CoronaFBANRewardedAdListener(fPlacementId)).build());
-                        }
-                    };
+            if (!isSDKInitialized()) {
+                return 0;
+            }
+
+            int count = batchLength(L, "placementIds");
+            if (count < 0) {
+                return 0;
+            }
+
+            // results, at index 2
+            L.newTable(count, 0);
+
+            for (int i = 1; i <= count; i++) {
+                L.rawGet(1, i);
 
-                    coronaActivity.runOnUiThread(runnableActivity);
-                    break;
+                boolean queued = false;
+                if (L.type(-1) == LuaType.STRING) {
+                    queued = queueHide(L.toString(-1), batch);
+                } else {
+                    logMsg(ERROR_MSG, "placementIds[" + i + "] (string) expected, got " + L.typeName(-1));
                 }
+                L.pop(1);
+
+                L.pushBoolean(queued);
+                L.rawSet(2, i);
             }
 
-            return 0;
+            if (!batch.isEmpty()) {
+                uiTasks.post(null, FrameTaskQueue.ALL_GROUPS, new BatchRequest(batch));
+                batch.clear();
+            }
+
+            return 1;
         }
     }
 
-    // [Lua] fbAudienceNetwork.show(adUnitType [, options])
-    private class show implements NamedJavaFunction {
+    // the profile of the placement handle passed as the only argument, null if it isn't registered
+    private LoadOptions profileFor(LuaState L) {
+        // check number of arguments
+        int nargs = L.getTop();
+        if (nargs != 1) {
+            logMsg(ERROR_MSG, "Expected 1 argument with a placement handle, got " + nargs);
+            return null;
+        }
+
+        double handle = L.toNumber(1);
+        if ((handle < 1) || (handle > placementProfiles.size()) || (handle != Math.floor(handle))) {
+            logMsg(ERROR_MSG, "placement handle " + L.toString(1) + " not registered");
+            return null;
+        }
+
+        return placementProfiles.get((int) handle - 1);
+    }
+
+    // [Lua] fbAudienceNetwork.registerPlacement(profile)
+    private class registerPlacement implements NamedJavaFunction {
+        private final LoadOptions loadOptions = new LoadOptions();
+
         @Override
         public String getName() {
-            return "show";
+            return "registerPlacement";
         }
 
         @Override
-        public int invoke(final LuaState L) {
-            functionSignature = "fbAudienceNetwork.show(adUnitType [, options])";
+        public int invoke(LuaState L) {
+            functionSignature = "fbAudienceNetwork.registerPlacement(profile)";
 
-            if (!isSDKInitialized()) {
+            if (!isInitCalled()) {
                 return 0;
             }
 
             // check number of arguments
             int nargs = L.getTop();
-            if ((nargs < 2) || (nargs > 3)) { // 3 for legacy support
-                logMsg(ERROR_MSG, "Expected 2 arguments, got " + nargs);
+            if (nargs != 1) {
+                logMsg(ERROR_MSG, "Expected 1 argument, got " + nargs);
                 return 0;
             }
 
-            String adUnitType;
-            String placementId = null;
-            String yAlign = null;
-            double yOffset = 0;
-            boolean legacyAPI = false;
-
-            if (L.type(1) == LuaType.STRING) {
-                adUnitType = L.toString(1);
-            } else {
-                logMsg(ERROR_MSG, "adUnitType (string) expected, got " + L.typeName(1));
+            // parse and validate the profile
+            String error = loadOptions.parseProfile(luaStack(L), 1, BANNER_HEIGHT_50);
+            if (error != null) {
+                logMsg(ERROR_MSG, error);
                 return 0;
             }
 
-            if (L.type(2) == LuaType.STRING) {
-                placementId = L.toString(2);
-                legacyAPI = true;
-            } else if (L.type(2) == LuaType.TABLE) {
-                // traverse all options
-                for (L.pushNil(); L.next(2); L.pop(1)) {
-                    if (L.type(-2) != LuaType.STRING) {
-                        logMsg(ERROR_MSG, "options must be a key/value table");
-                        return 0;
-                    }
+            String adUnitType = loadOptions.adUnitType;
 
-                    String key = L.toString(-2);
+            if (!validAdTypes.contains(adUnitType)) {
+                logMsg(ERROR_MSG, "adUnitType '" + adUnitType + "' invalid");
+                return 0;
+            }
 
-                    if (key.equals("placementId")) {
-                        if (L.type(-1) == LuaType.STRING) {
-                            placementId = L.toString(-1);
-                        } else {
-                            logMsg(ERROR_MSG, "options.placementId (string) expected, got: " + L.typeName(-1));
-                            return 0;
-                        }
-                    } else if (key.equals("y")) {
-                        if (L.type(-1) == LuaType.STRING) {
-                            yAlign = L.toString(-1);
-                        } else if (L.type(-1) == LuaType.NUMBER) {
-                            yOffset = L.toNumber(-1);
-                        } else {
-                            logMsg(ERROR_MSG, "options.y (string or number) expected, got: " + L.typeName(-1));
-                            return 0;
-                        }
-                    } else {
-                        logMsg(ERROR_MSG, "Invalid option '" + key + "'");
+            // options which don't apply are reported here and reset, so load() and show() don't warn on every call
+            if (adUnitType.equals(TYPE_BANNER)) {
+                switch (loadOptions.bannerSize) {
+                    case BANNER_320_50:
+                    case BANNER_HEIGHT_50:
+                    case BANNER_HEIGHT_90:
+                    case RECTANGLE_HEIGHT_250:
+                        break;
+                    default:
+                        logMsg(ERROR_MSG, "bannerSize '" + loadOptions.bannerSize + "' invalid");
                         return 0;
-                    }
                 }
-            } else {
-                logMsg(ERROR_MSG, "placementId (string) expected, got " + L.typeName(2));
-                return 0;
-            }
 
-            if (legacyAPI) {
-                if (!L.isNoneOrNil(3)) {
-                    if (L.type(3) == LuaType.TABLE) {
-                        // traverse and verify all options
-                        for (L.pushNil(); L.next(3); L.pop(1)) {
-                            String key = L.toString(-2);
+                if (loadOptions.placementIds != null) {
+                    logMsg(ERROR_MSG, "profile.placementIds is not supported for banners");
+                    return 0;
+                }
 
-                            if (key.equals("y")) {
-                                if (L.type(-1) == LuaType.NUMBER) {
-                                    yOffset = L.toNumber(-1);
-                                } else {
-                                    logMsg(ERROR_MSG, "options.y (number) expected, got: " + L.typeName(-1));
-                                    return 0;
-                                }
-                            } else if (key.equals("yAlign")) {
-                                if (L.type(-1) == LuaType.STRING) {
-                                    yAlign = L.toString(-1);
-                                } else {
-                                    logMsg(ERROR_MSG, "options.yAlign (string) expected, got: " + L.typeName(-1));
-                                    return 0;
-                                }
-                            } else {
-                                logMsg(ERROR_MSG, "Invalid option '" + key + "'");
-                                return 0;
-                            }
-                        }
-                    } else {
-                        logMsg(ERROR_MSG, "options (table) expected, got " + L.typeName(3));
-                        return 0;
-                    }
+                if ((loadOptions.yAlign != null) && !validBannerPositions.contains(loadOptions.yAlign)) {
+                    logMsg(ERROR_MSG, "yAlign '" + loadOptions.yAlign + "' invalid");
+                    return 0;
                 }
-            }
 
-            // validation
-            if (!validAdTypes.contains(adUnitType)) {
-                logMsg(ERROR_MSG, "adUnitType '" + adUnitType + "' invalid");
-                return 0;
-            }
+                if (loadOptions.preloadDepth != LoadOptions.DEFAULT_PRELOAD_DEPTH) {
+                    logMsg(WARNING_MSG, "profile.preloadDepth is ignored for banners");
+                    loadOptions.preloadDepth = LoadOptions.DEFAULT_PRELOAD_DEPTH;
+                }
+
+                if (loadOptions.ttlMs != AdExpiry.DEFAULT_TTL_MS) {
+                    logMsg(WARNING_MSG, "profile.ttl is ignored for banners");
+                    loadOptions.ttlMs = AdExpiry.DEFAULT_TTL_MS;
+                }
+            } else {
+                if ((loadOptions.yAlign != null) || (loadOptions.yOffset != 0)) {
+                    logMsg(WARNING_MSG, "profile.y is ignored for " + adUnitType + " ads");
+                    loadOptions.yAlign = null;
+                    loadOptions.yOffset = 0;
+                }
 
-            if (yAlign != null) {
-                if (!validBannerPositions.contains(yAlign)) {
-                    logMsg(ERROR_MSG, "yAlign '" + yAlign + "' invalid");
-                    return 0;
+                if (loadOptions.refreshPolicy != null) {
+                    logMsg(WARNING_MSG, "profile.refresh is ignored for " + adUnitType + " ads");
+                    loadOptions.refreshPolicy = null;
                 }
             }
 
-            // get ad info
-            final CoronaAdInstance adInstance = (CoronaAdInstance) fbObjects.get(placementId);
-            if (adInstance == null) {
-                logMsg(ERROR_MSG, "placementId '" + placementId + "' not loaded");
-                return 0;
+            // registering a placement again replaces its profile and keeps its handle
+            Integer handle = profileHandles.get(loadOptions.placementId);
+            if (handle == null) {
+                placementProfiles.add(loadOptions.copy());
+                handle = placementProfiles.size();
+                profileHandles.put(loadOptions.placementId, handle);
+            } else {
+                placementProfiles.set(handle - 1, loadOptions.copy());
             }
 
-            final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
-            final String fPlacementId = placementId;
-            final String fYAlign = yAlign;
-            final double fYOffset = yOffset;
+            L.pushInteger(handle);
 
-            // bail if no valid activity
-            if (coronaActivity == null) {
+            return 1;
+        }
+    }
+
+    // [Lua] fbAudienceNetwork.setListener(placementId, listener [, phases])
+    private class setListener implements NamedJavaFunction {
+        @Override
+        public String getName() {
+            return "setListener";
+        }
+
+        @Override
+        public int invoke(LuaState L) {
+            functionSignature = "fbAudienceNetwork.setListener(placementId, listener [, phases])";
+
+            if (!isInitCalled()) {
                 return 0;
             }
 
-            switch (adUnitType) {
-                case TYPE_BANNER: {
-                    if (!adInstance.adType.equals(TYPE_BANNER)) {
-                        logMsg(ERROR_MSG, "placementId '" + placementId + "' is not a banner");
-                        return 0;
-                    }
-
-                    Runnable runnableActivity = new Runnable() {
-                        public void run() {
-                            AdView bannerAd = (AdView) adInstance.adInstance;
-                            String statusKey = bannerAd.getPlacementId() + STATUS_SUFFIX;
-                            CoronaAdStatus adStatus = (CoronaAdStatus) fbObjects.get(statusKey);
+            // check number of arguments
+            int nargs = L.getTop();
+            if ((nargs < 2) || (nargs > 3)) {
+                logMsg(ERROR_MSG, "Expected 2 or 3 arguments, got " + nargs);
+                return 0;
+            }
 
-                            if (adStatus == null || !adStatus.isLoaded) {
-                                logMsg(ERROR_MSG, "banner placementId '" + fPlacementId + "' not loaded");
-                                return;
-                            }
+            String placementId;
 
-                            // remove old layout
-                            if (bannerAd.getParent() != null) {
-                                coronaActivity.getOverlayView().removeView(bannerAd);
-                            }
+            if (L.type(1) == LuaType.STRING) {
+                placementId = L.toString(1);
+            } else {
+                logMsg(ERROR_MSG, "placementId (string) expected, got " + L.typeName(1));
+                return 0;
+            }
 
-                            // set final layout params
-                            FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
-                                    FrameLayout.LayoutParams.WRAP_CONTENT,
-                                    FrameLayout.LayoutParams.WRAP_CONTENT
-                            );
+            int phases = EventRouter.ALL_PHASES;
 
-                            // set the banner position
-                            if (fYAlign == null) {
-                                Display display = coronaActivity.getWindowManager().getDefaultDisplay();
-                                int orientation = coronaActivity.getResources().getConfiguration().orientation;
-                                int orientedHeight;
+            if (!L.isNoneOrNil(3)) {
+                phases = EventRouter.parsePhases(luaStack(L), 3);
+                if (phases < 0) {
+                    logMsg(ERROR_MSG, "phases must be an array of phase names: " + EventRouter.phaseNames());
+                    return 0;
+                }
+            }
 
-                                Point size = new Point();
-                                display.getSize(size);
+            int previous;
 
-                                if (orientation == ORIENTATION_PORTRAIT) {
-                                    orientedHeight = size.y;
-                                } else {
-                                    //noinspection SuspiciousNameCombination
-                                    orientedHeight = size.x;
-                                }
+            if (L.type(2) == LuaType.NIL) {
+                // the placement's events go back to the init() listener
+                previous = eventRouter.removePlacement(placementId);
+            } else if (CoronaLua.isListener(L, 2, PROVIDER_NAME)) {
+                previous = eventRouter.setPlacement(placementId, CoronaLua.newRef(L, 2), phases);
+            } else {
+                logMsg(ERROR_MSG, "listener expected, got: " + L.typeName(2));
+                return 0;
+            }
 
-                                double newBannerY = ceil(fYOffset * (double) fbObjects.get(Y_RATIO_KEY));
-
-                                // make sure the banner frame is visible.
-                                // adjust it if the user has specified 'y' which will render it partially off-screen
-                                if (newBannerY >= 0) { // offset from top
-                                    if (newBannerY + bannerAd.getHeight() > orientedHeight) {
-                                        logMsg(WARNING_MSG, "Banner y position off screen. Adjusting position.");
-                                        params.gravity = Gravity.BOTTOM | Gravity.CENTER;
-                                    } else {
-                                        params.gravity = Gravity.TOP | Gravity.CENTER;
-                                        params.topMargin = (int) newBannerY;
-                                    }
-                                } else { // offset from bottom
-                                    if (orientedHeight - bannerAd.getHeight() + newBannerY < 0) {
-                                        logMsg(WARNING_MSG, "Banner y position off screen. Adjusting position.");
-                                        params.gravity = Gravity.TOP | Gravity.CENTER;
-                                    } else {
-                                        params.gravity = Gravity.BOTTOM | Gravity.CENTER;
-                                        params.bottomMargin = Math.abs((int) newBannerY);
-                                    }
-                                }
-                            } else {
-                                switch (fYAlign) {
-                                    case BANNER_ALIGN_TOP:
-                                        params.gravity = Gravity.TOP | Gravity.CENTER;
-                                        break;
-                                    case BANNER_ALIGN_CENTER:
-                                        params.gravity = Gravity.CENTER;
-                                        break;
-                                    case BANNER_ALIGN_BOTTOM:
-                                        params.gravity = Gravity.BOTTOM | Gravity.CENTER;
-                                        break;
-                                }
-                            }
+            // events already queued for the old listener are routed again when they're delivered
+            if (previous != EventRouter.NO_LISTENER) {
+                CoronaLua.deleteRef(L, previous);
+            }
 
-                            // display the banner
-                            coronaActivity.getOverlayView().addView(bannerAd, params);
-                            bannerAd.setVisibility(View.VISIBLE);
-                            bannerAd.bringToFront();
-                        }
-                    };
+            return 0;
+        }
+    }
 
-                    coronaActivity.runOnUiThread(runnableActivity);
-                    break;
-                }
-                case TYPE_INTERSTITIAL: {
-                    if (!adInstance.adType.equals(TYPE_INTERSTITIAL)) {
-                        logMsg(ERROR_MSG, "placementId '" + placementId + "' is not an interstitial");
-                        return 0;
-                    }
+    // [Lua] fbAudienceNetwork.isLoaded(placementId)
+    private class isLoaded implements NamedJavaFunction {
+        @Override
+        public String getName() {
+            return "isLoaded";
+        }
 
-                    Runnable runnableActivity = new Runnable() {
-                        public void run() {
-                            InterstitialAd interstitialAd = (InterstitialAd) adInstance.adInstance;
+        @Override
+        public int invoke(LuaState L) {
+            functionSignature = "fbAudienceNetwork.isLoaded(placementId)";
 
-                            String statusKey = interstitialAd.getPlacementId() + STATUS_SUFFIX;
-                            CoronaAdStatus adStatus = (CoronaAdStatus) fbObjects.get(statusKey);
+            if (!isSDKInitialized()) {
+                return 0;
+            }
 
-                            // we're using our own adStatus.isLoaded also since the built-in one doesn't always reflect the truth
-                            if ((!adStatus.isLoaded) || (!interstitialAd.isAdLoaded())) {
-                                logMsg(ERROR_MSG, "interstitial placementId '" + fPlacementId + "' not loaded");
-                                return;
-                            }
+            // check number of arguments
+            int nargs = L.getTop();
+            if (nargs != 1) {
+                logMsg(ERROR_MSG, "Expected 1 argument, got " + nargs);
+                return 0;
+            }
 
-                            interstitialAd.show();
-                        }
-                    };
+            String placementId;
+            boolean isAdLoaded = false;
 
-                    coronaActivity.runOnUiThread(runnableActivity);
-                    break;
+            if (L.type(1) == LuaType.STRING) {
+                placementId = L.toString(1);
+            } else if (L.type(1) == LuaType.NUMBER) {
+                LoadOptions profile = profileFor(L);
+                if (profile == null) {
+                    return 0;
                 }
-                case TYPE_REWARDED: {
-                    if (!adInstance.adType.equals(TYPE_REWARDED)) {
-                        logMsg(ERROR_MSG, "placementId '" + placementId + "' is not an interstitial");
-                        return 0;
-                    }
-
-                    Runnable runnableActivity = new Runnable() {
-                        public void run() {
-                            RewardedVideoAd rewardedAd = (RewardedVideoAd) adInstance.adInstance;
+                placementId = profile.placementId;
+            } else {
+                logMsg(ERROR_MSG, "placementId (string) expected, got " + L.typeName(1));
+                return 0;
+            }
 
-                            String statusKey = rewardedAd.getPlacementId() + STATUS_SUFFIX;
-                            CoronaAdStatus adStatus = (CoronaAdStatus) fbObjects.get(statusKey);
+            // get ad info
+            PlacementSnapshot snapshot = placementSnapshots.get(placementId);
+            double age = (snapshot != null) ? snapshot.readyAge(SystemClock.elapsedRealtime()) : -1;
 
-                            // we're using our own adStatus.isLoaded also since the built-in one doesn't always reflect the truth
-                            if (adStatus == null || !adStatus.isLoaded || !rewardedAd.isAdLoaded()) {
-                                logMsg(ERROR_MSG, "interstitial placementId '" + fPlacementId + "' not loaded");
-                                return;
-                            }
+            if (age >= 0) {
+                isAdLoaded = true;
+            }
 
-                            rewardedAd.show();
-                        }
-                    };
+            L.pushBoolean(isAdLoaded);
 
-                    coronaActivity.runOnUiThread(runnableActivity);
-                    break;
-                }
+            // also return the age (in seconds) of the ad show() would display
+            if (isAdLoaded) {
+                L.pushNumber(age);
+                return 2;
             }
 
-            return 0;
+            return 1;
         }
     }
 
-    // [Lua] fbAudienceNetwork.hide(placementId) - For banner Ads only
-    private class hide implements NamedJavaFunction {
+    // [Lua] fbAudienceNetwork.getState(placementId)
+    private class getState implements NamedJavaFunction {
         @Override
         public String getName() {
-            return "hide";
+            return "getState";
         }
 
         @Override
         public int invoke(LuaState L) {
-            functionSignature = "fbAudienceNetwork.hide(placementId)";
+            functionSignature = "fbAudienceNetwork.getState(placementId)";
 
             if (!isSDKInitialized()) {
                 return 0;
@@ -1129,48 +3356,72 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
                 return 0;
             }
 
-            // get ad info
-            CoronaAdInstance adInstance = (CoronaAdInstance) fbObjects.get(placementId);
-            if (adInstance == null) {
-                logMsg(ERROR_MSG, "placementId '" + placementId + "' not loaded");
+            // placements which were never loaded are idle
+            PlacementSnapshot snapshot = placementSnapshots.get(placementId);
+            int state = (snapshot != null) ? snapshot.getState(SystemClock.elapsedRealtime()) : STATE_IDLE;
+
+            L.pushString(STATE_NAMES[state]);
+
+            return 1;
+        }
+    }
+
+    // [Lua] fbAudienceNetwork.getStats([placementId])
+    private class getStats implements NamedJavaFunction {
+        @Override
+        public String getName() {
+            return "getStats";
+        }
+
+        @Override
+        public int invoke(LuaState L) {
+            functionSignature = "fbAudienceNetwork.getStats([placementId])";
+
+            if (!isSDKInitialized()) {
                 return 0;
             }
 
-            // only banners can be hidden
-            if (!adInstance.adType.equals(TYPE_BANNER)) {
-                logMsg(ERROR_MSG, "placementId '" + placementId + "' is not a banner");
+            // check number of arguments
+            int nargs = L.getTop();
+            if (nargs > 1) {
+                logMsg(ERROR_MSG, "Expected 0 or 1 argument, got " + nargs);
                 return 0;
             }
 
-            final CoronaActivity coronaActivity = CoronaEnvironment.getCoronaActivity();
-            final CoronaAdInstance fAdInstance = adInstance;
-            final String fPlacementId = placementId;
+            // stats of a single placement
+            if (!L.isNoneOrNil(1)) {
+                if (L.type(1) != LuaType.STRING) {
+                    logMsg(ERROR_MSG, "placementId (string) expected, got " + L.typeName(1));
+                    return 0;
+                }
 
-            if (coronaActivity != null) {
-                Runnable runnableActivity = new Runnable() {
-                    public void run() {
-                        fAdInstance.dealloc();
-                        fbObjects.remove(fPlacementId);
-                    }
-                };
+                PlacementStats stats = statsRegistry.get(L.toString(1));
+                if (stats == null) {
+                    L.pushNil();
+                } else {
+                    stats.push(luaStack(L));
+                }
 
-                coronaActivity.runOnUiThread(runnableActivity);
+                return 1;
             }
 
-            return 0;
+            // stats of every placement, keyed by placement id
+            statsRegistry.push(luaStack(L));
+
+            return 1;
         }
     }
 
-    // [Lua] fbAudienceNetwork.isLoaded(placementId)
-    private class isLoaded implements NamedJavaFunction {
+    // [Lua] fbAudienceNetwork.resetStats([placementId])
+    private class resetStats implements NamedJavaFunction {
         @Override
         public String getName() {
-            return "isLoaded";
+            return "resetStats";
         }
 
         @Override
         public int invoke(LuaState L) {
-            functionSignature = "fbAudienceNetwork.isLoaded(placementId)";
+            functionSignature = "fbAudienceNetwork.resetStats([placementId])";
 
             if (!isSDKInitialized()) {
                 return 0;
@@ -1178,53 +3429,53 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
 
             // check number of arguments
             int nargs = L.getTop();
-            if (nargs != 1) {
-                logMsg(ERROR_MSG, "Expected 1 argument, got " + nargs);
+            if (nargs > 1) {
+                logMsg(ERROR_MSG, "Expected 0 or 1 argument, got " + nargs);
                 return 0;
             }
 
-            String placementId;
-            boolean isAdLoaded = false;
+            if (!L.isNoneOrNil(1)) {
+                if (L.type(1) != LuaType.STRING) {
+                    logMsg(ERROR_MSG, "placementId (string) expected, got " + L.typeName(1));
+                    return 0;
+                }
 
-            if (L.type(1) == LuaType.STRING) {
-                placementId = L.toString(1);
+                PlacementStats stats = statsRegistry.get(L.toString(1));
+                if (stats != null) {
+                    stats.reset();
+                }
             } else {
-                logMsg(ERROR_MSG, "placementId (string) expected, got " + L.typeName(1));
+                statsRegistry.resetAll();
+            }
+
+            return 0;
+        }
+    }
+
+    // [Lua] fbAudienceNetwork.getInitTimings()
+    private class getInitTimings implements NamedJavaFunction {
+        @Override
+        public String getName() {
+            return "getInitTimings";
+        }
+
+        @Override
+        public int invoke(LuaState L) {
+            functionSignature = "fbAudienceNetwork.getInitTimings()";
+
+            // the stages which ended so far are available before the 'init' event
+            if (!isInitCalled()) {
                 return 0;
             }
 
-            // get ad info
-            CoronaAdInstance adInstance = (CoronaAdInstance) fbObjects.get(placementId);
-
-            if (adInstance != null) {
-                switch (adInstance.adType) {
-                    case TYPE_BANNER: {
-                        AdView bannerAd = (AdView) adInstance.adInstance;
-                        String statusKey = bannerAd.getPlacementId() + STATUS_SUFFIX;
-                        CoronaAdStatus adStatus = (CoronaAdStatus) fbObjects.get(statusKey);
-                        isAdLoaded = adStatus.isLoaded;
-                        break;
-                    }
-                    case TYPE_INTERSTITIAL: {
-                        InterstitialAd interstitialAd = (InterstitialAd) adInstance.adInstance;
-                        String statusKey = interstitialAd.getPlacementId() + STATUS_SUFFIX;
-                        CoronaAdStatus adStatus = (CoronaAdStatus) fbObjects.get(statusKey);
-                        isAdLoaded = (adStatus.isLoaded && interstitialAd.isAdLoaded());
-                        break;
-                    }
-                    case TYPE_REWARDED: {
-                        RewardedVideoAd interstitialAd = (RewardedVideoAd) adInstance.adInstance;
-                        String statusKey = interstitialAd.getPlacementId() + STATUS_SUFFIX;
-                        CoronaAdStatus adStatus = (CoronaAdStatus) fbObjects.get(statusKey);
-                        if (adStatus != null) {
-                            isAdLoaded = (adStatus.isLoaded && interstitialAd.isAdLoaded());
-                        }
-                        break;
-                    }
-                }
+            // check number of arguments
+            int nargs = L.getTop();
+            if (nargs != 0) {
+                logMsg(ERROR_MSG, "Expected no arguments, got " + nargs);
+                return 0;
             }
 
-            L.pushBoolean(isAdLoaded);
+            initTimings.push(luaStack(L));
 
             return 1;
         }
@@ -1264,20 +3515,21 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
             }
 
             // get ad info
-            CoronaAdInstance adInstance = (CoronaAdInstance) fbObjects.get(placementId);
-            if (adInstance == null) {
+            PlacementSnapshot snapshot = placementSnapshots.get(placementId);
+            if (snapshot == null) {
                 logMsg(ERROR_MSG, "placementId '" + placementId + "' not loaded");
                 return 0;
             }
 
             // getSize only works with banners
-            if (!adInstance.adType.equals(TYPE_BANNER)) {
+            if (!snapshot.adType.equals(TYPE_BANNER)) {
                 logMsg(ERROR_MSG, "placementId '" + placementId + "' is not a banner");
                 return 0;
             }
 
-            width = Math.floor(adInstance.width / (double) fbObjects.get(Y_RATIO_KEY));
-            height = Math.floor(adInstance.height / (double) fbObjects.get(Y_RATIO_KEY));
+            double yRatio = displayMetrics.yRatio;
+            width = Math.floor(snapshot.width / yRatio);
+            height = Math.floor(snapshot.height / yRatio);
 
             // Push the width/height of the Ad
             L.pushNumber(Math.round(width));
@@ -1291,231 +3543,217 @@ public class LuaLoader implements JavaFunction, CoronaRuntimeListener {
     // delegate implementation
     // ----------------------------------------------------------------------------
 
-    // Banner delegates
-
-    private class CoronaFBANBannerAdListener implements AdListener {
-        @Override
-        public void onError(Ad ad, AdError error) {
-            String statusKey = ad.getPlacementId() + STATUS_SUFFIX;
-            CoronaAdStatus adStatus = (CoronaAdStatus) fbObjects.get(statusKey);
-            if (adStatus != null) {
-                adStatus.isLoaded = false;
-            }
-
-            String errorMsg = "Error Code: " + error.getErrorCode() + ". Reason: " + error.getErrorMessage();
+    // returns the slot an ad was requested for, null once it's gone. waterfall sources belong to their waterfall's slot
+    // NOTE: only safe to call on the UI thread!
+    private static AdSlot slotFor(AdBackend.BackendAd ad) {
+        return adOwners.get(ad);
+    }
 
-            // send Corona Lua event
-            Map<String, Object> coronaEvent = new HashMap<>();
-            coronaEvent.put(EVENT_PHASE_KEY, PHASE_FAILED);
-            coronaEvent.put(EVENT_TYPE_KEY, TYPE_BANNER);
-            coronaEvent.put(EVENT_PLACEMENTID_KEY, ad.getPlacementId());
-            coronaEvent.put(CoronaLuaEvent.ISERROR_KEY, true);
-            coronaEvent.put(CoronaLuaEvent.RESPONSE_KEY, errorMsg);
-            dispatchLuaEvent(coronaEvent);
+    // bump a stat counter for the ad's placement
+    private static void countStat(AdBackend.BackendAd ad, int stat) {
+        AdSlot adSlot = slotFor(ad);
+        if (adSlot != null) {
+            adSlot.stats.count(stat);
         }
+    }
 
-        @Override
-        public void onAdLoaded(Ad ad) {
-            String statusKey = ad.getPlacementId() + STATUS_SUFFIX;
-            CoronaAdStatus adStatus = (CoronaAdStatus) fbObjects.get(statusKey);
-            final CoronaAdInstance adInstance = (CoronaAdInstance) fbObjects.get(ad.getPlacementId());
-            if (adStatus != null) {
-                adStatus.isLoaded = true;
-            }
-
-            final AdView bannerAd = (AdView) ad;
-            String phase = (bannerAd.getVisibility() == View.INVISIBLE) ? PHASE_LOADED : PHASE_REFRESHED;
-
-            // send Corona Lua event
-            Map<String, Object> coronaEvent = new HashMap<>();
-            coronaEvent.put(EVENT_PHASE_KEY, phase);
-            coronaEvent.put(EVENT_TYPE_KEY, TYPE_BANNER);
-            coronaEvent.put(EVENT_PLACEMENTID_KEY, ad.getPlacementId());
-            dispatchLuaEvent(coronaEvent);
+    // a single listener is shared by all ads of a type. the slot is looked up from the ad's placement id
+    private final CoronaAdListener bannerAdListener = new CoronaAdListener(TYPE_BANNER);
+    private final CoronaAdListener interstitialAdListener = new CoronaAdListener(TYPE_INTERSTITIAL);
+    private final CoronaAdListener rewardedAdListener = new CoronaAdListener(TYPE_REWARDED);
 
-            // save loaded ad size
-            bannerAd.post(new Runnable() {
-                @Override
-                public void run() {
-                    adInstance.width = bannerAd.getWidth();
-                    adInstance.height = bannerAd.getHeight();
-                }
-            });
-        }
+    private class CoronaAdListener implements AdBackend.Listener {
+        final String adType;
 
-        @Override
-        public void onAdClicked(Ad ad) {
-            // send Corona Lua event
-            Map<String, Object> coronaEvent = new HashMap<>();
-            coronaEvent.put(EVENT_PHASE_KEY, PHASE_CLICKED);
-            coronaEvent.put(EVENT_TYPE_KEY, TYPE_BANNER);
-            coronaEvent.put(EVENT_PLACEMENTID_KEY, ad.getPlacementId());
-            dispatchLuaEvent(coronaEvent);
+        CoronaAdListener(String adType) {
+            this.adType = adType;
         }
 
         @Override
-        public void onLoggingImpression(Ad ad) {
-            // NOP
-        }
-    }
+        public void onError(AdBackend.BackendAd ad, int errorCode, String errorMessage) {
+            loadScheduler.finished(ad, SystemClock.elapsedRealtime());
 
+            if (isRetired(ad)) {
+                return; // destroyed, its destroy() call is still waiting in the UI task queue
+            }
 
-    private class CoronaFBANRewardedAdListener implements RewardedVideoAdListener {
-        String userPlacement;
+            AdSlot adSlot = slotFor(ad);
+            if (adSlot == null) {
+                return; // no longer owned by a slot, e.g. an error posted after destroy(). its placement may be unloaded
+            }
 
-        CoronaFBANRewardedAdListener(String userPlacement) {
-            this.userPlacement = userPlacement;
-        }
+            CoronaAdInstance adInstance = adSlot.find(ad);
+
+            // a waterfall source failed, the others may still provide the ad
+            if ((adInstance != null) && (adInstance.race != null)) {
+                int index = adInstance.candidateIndex(ad);
+                adInstance.candidates[index] = null;
+                destroyAd(ad);
+
+                int winner = adInstance.race.failed(index);
+                if (winner >= 0) {
+                    adInstance.settle(winner);
+                    onLoaded(adInstance.adInstance);
+                    return;
+                } else if (winner == Waterfall.PENDING) {
+                    return;
+                }
 
-        void FinishAd() {
-            CoronaAdStatus adStatus = (CoronaAdStatus) fbObjects.get(userPlacement + STATUS_SUFFIX);
-            if (adStatus != null) {
-                adStatus.isLoaded = false;
+                // every source failed, report the last error
+                adInstance.settle(-1);
             }
-        }
 
-        @Override
-        public void onError(Ad ignore, AdError error) {
-            FinishAd();
+            adSlot.stats.countError(errorCode);
+            placementHistory.countError(adSlot.historyRecord, errorCode);
 
-            String errorMsg = "Error Code: " + error.getErrorCode() + ". Reason: " + error.getErrorMessage();
+            if (adType.equals(TYPE_BANNER)) {
+                if (adInstance != null) {
+                    adInstance.requestedAt = 0;
+                }
 
-            // send Corona Lua event
-            Map<String, Object> coronaEvent = new HashMap<>();
-            coronaEvent.put(EVENT_PHASE_KEY, PHASE_FAILED);
-            coronaEvent.put(EVENT_TYPE_KEY, TYPE_REWARDED);
-            coronaEvent.put(EVENT_PLACEMENTID_KEY, userPlacement);
-            coronaEvent.put(CoronaLuaEvent.ISERROR_KEY, true);
-            coronaEvent.put(CoronaLuaEvent.RESPONSE_KEY, errorMsg);
-            dispatchLuaEvent(coronaEvent);
-        }
+                if ((adInstance != null) && adInstance.adStatus.isLoaded()) {
+                    // a refresh failed. the banner keeps its last ad, whether it is on screen or hidden
+                    if (!adSlot.retryRefreshAfterError(errorCode)) {
+                        return; // retry scheduled
+                    }
+                } else if ((adInstance != null) && adInstance.adStatus.moveTo(STATE_FAILED)) {
+                    adSlot.changed();
+                    if (!adSlot.retryAfterError(errorCode)) {
+                        return; // retry scheduled
+                    }
+                }
+            } else if (adInstance != null) {
+                adSlot.discard(adInstance);
 
-        @Override
-        public void onAdLoaded(Ad ignore) {
-            CoronaAdStatus adInstance = (CoronaAdStatus) fbObjects.get(userPlacement + STATUS_SUFFIX);
-            if (adInstance == null) return;
-            adInstance.isLoaded = true;
+                if (!adSlot.retryAfterError(errorCode)) {
+                    return; // retry scheduled
+                }
+            } else {
+                finishShowing(adSlot, ad);  // failed to display
+                destroyAd(ad);
+            }
 
             // send Corona Lua event
-            Map<String, Object> coronaEvent = new HashMap<>();
-            coronaEvent.put(EVENT_PHASE_KEY, PHASE_LOADED);
-            coronaEvent.put(EVENT_TYPE_KEY, TYPE_REWARDED);
-            coronaEvent.put(EVENT_PLACEMENTID_KEY, userPlacement);
-            dispatchLuaEvent(coronaEvent);
+            dispatchLuaError(adType, adSlot.placementId, errorCode, errorMessage);
         }
 
         @Override
-        public void onAdClicked(Ad ignore) {
-            // send Corona Lua event
-            Map<String, Object> coronaEvent = new HashMap<>();
-            coronaEvent.put(EVENT_PHASE_KEY, PHASE_CLICKED);
-            coronaEvent.put(EVENT_TYPE_KEY, TYPE_REWARDED);
-            coronaEvent.put(EVENT_PLACEMENTID_KEY, userPlacement);
-            dispatchLuaEvent(coronaEvent);
-        }
+        public void onLoaded(AdBackend.BackendAd ad) {
+            loadScheduler.finished(ad, SystemClock.elapsedRealtime());
 
-        @Override
-        public void onRewardedVideoCompleted() {
-            // send Corona Lua event
-            Map<String, Object> coronaEvent = new HashMap<>();
-            coronaEvent.put(EVENT_PHASE_KEY, PHASE_REWARD);
-            coronaEvent.put(EVENT_TYPE_KEY, TYPE_REWARDED);
-            coronaEvent.put(EVENT_PLACEMENTID_KEY, userPlacement);
-            dispatchLuaEvent(coronaEvent);
-        }
+            if (isRetired(ad)) {
+                return; // destroyed, its destroy() call is still waiting in the UI task queue
+            }
 
-        @Override
-        public void onLoggingImpression(Ad ad) {
+            AdSlot adSlot = slotFor(ad);
+            CoronaAdInstance adInstance = (adSlot != null) ? adSlot.find(ad) : null;
+            if (adInstance == null) {
+                return; // ad was hidden, replaced or discarded while loading
+            }
 
-        }
+            // a waterfall source filled. depending on the policy it may have to wait for better sources
+            if (adInstance.race != null) {
+                int winner = adInstance.race.loaded(adInstance.candidateIndex(ad));
+                if (winner < 0) {
+                    return;
+                }
+                adInstance.settle(winner);
+            }
 
-        @Override
-        public void onRewardedVideoClosed() {
-            FinishAd();
+            boolean wasShowing = (adInstance.adStatus.get() == STATE_SHOWING);
+            if (!adSlot.markLoaded(adInstance)) {
+                return;
+            }
 
             // send Corona Lua event
-            Map<String, Object> coronaEvent = new HashMap<>();
-            coronaEvent.put(EVENT_PHASE_KEY, PHASE_CLOSED);
-            coronaEvent.put(EVENT_TYPE_KEY, TYPE_INTERSTITIAL);
-            coronaEvent.put(EVENT_PLACEMENTID_KEY, userPlacement);
-            dispatchLuaEvent(coronaEvent);
-        }
-    }
+            dispatchLuaEvent(wasShowing ? PHASE_REFRESHED : PHASE_LOADED, adType, adSlot.placementId);
 
-    // ----------------------------------------------------------------------------
-    // Interstitial delegates
+            // save loaded ad size
+            View bannerView = ad.getView();
+            if (bannerView != null) {
+                bannerView.post(adSlot.saveBannerSizeRunnable);
+            }
+        }
 
-    private class CoronaFBANInterstitialAdListener implements InterstitialAdListener {
         @Override
-        public void onError(Ad ad, AdError error) {
-            String statusKey = ad.getPlacementId() + STATUS_SUFFIX;
-            CoronaAdStatus adStatus = (CoronaAdStatus) fbObjects.get(statusKey);
-            if (adStatus != null)
-                adStatus.isLoaded = false;
+        public void onClicked(AdBackend.BackendAd ad) {
+            if (isRetired(ad)) {
+                return; // destroyed, its destroy() call is still waiting in the UI task queue
+            }
 
-            String errorMsg = "Error Code: " + error.getErrorCode() + ". Reason: " + error.getErrorMessage();
+            countStat(ad, STAT_CLICKS);
 
             // send Corona Lua event
-            Map<String, Object> coronaEvent = new HashMap<>();
-            coronaEvent.put(EVENT_PHASE_KEY, PHASE_FAILED);
-            coronaEvent.put(EVENT_TYPE_KEY, TYPE_INTERSTITIAL);
-            coronaEvent.put(EVENT_PLACEMENTID_KEY, ad.getPlacementId());
-            coronaEvent.put(CoronaLuaEvent.ISERROR_KEY, true);
-            coronaEvent.put(CoronaLuaEvent.RESPONSE_KEY, errorMsg);
-            dispatchLuaEvent(coronaEvent);
+            dispatchLuaEvent(PHASE_CLICKED, adType, placementIdOf(slotFor(ad), ad));
         }
 
         @Override
-        public void onAdLoaded(Ad ad) {
-            String statusKey = ad.getPlacementId() + STATUS_SUFFIX;
-            CoronaAdStatus adStatus = (CoronaAdStatus) fbObjects.get(statusKey);
-            CoronaAdInstance adInstance = (CoronaAdInstance) fbObjects.get(ad.getPlacementId());
-            if (adStatus != null)
-                adStatus.isLoaded = true;
+        public void onImpression(AdBackend.BackendAd ad) {
+            if (isRetired(ad)) {
+                return; // destroyed, its destroy() call is still waiting in the UI task queue
+            }
 
-            // send Corona Lua event
-            Map<String, Object> coronaEvent = new HashMap<>();
-            coronaEvent.put(EVENT_PHASE_KEY, PHASE_LOADED);
-            coronaEvent.put(EVENT_TYPE_KEY, TYPE_INTERSTITIAL);
-            coronaEvent.put(EVENT_PLACEMENTID_KEY, ad.getPlacementId());
-            dispatchLuaEvent(coronaEvent);
+            AdSlot adSlot = slotFor(ad);
+            if (adSlot != null) {
+                adSlot.stats.count(STAT_IMPRESSIONS);
 
+                // there's no 'displayed' callback for banners and rewarded ads, the impression is the closest match
+                if (!adType.equals(TYPE_INTERSTITIAL)) {
+                    adSlot.countDisplayed();
+                }
+            }
         }
 
         @Override
-        public void onAdClicked(Ad ad) {
-            // send Corona Lua event
-            Map<String, Object> coronaEvent = new HashMap<>();
-            coronaEvent.put(EVENT_PHASE_KEY, PHASE_CLICKED);
-            coronaEvent.put(EVENT_TYPE_KEY, TYPE_INTERSTITIAL);
-            coronaEvent.put(EVENT_PLACEMENTID_KEY, ad.getPlacementId());
-            dispatchLuaEvent(coronaEvent);
+        public void onDisplayed(AdBackend.BackendAd ad) {
+            if (isRetired(ad)) {
+                return; // destroyed, its destroy() call is still waiting in the UI task queue
+            }
+
+            // Not available on iOS, only used for stats
+            AdSlot adSlot = slotFor(ad);
+            if (adSlot != null) {
+                adSlot.countDisplayed();
+            }
         }
 
         @Override
-        public void onInterstitialDisplayed(Ad ad) {
-            // NOP
-            // Not available on iOS
+        public void onClosed(AdBackend.BackendAd ad) {
+            if (isRetired(ad)) {
+                return; // destroyed, its destroy() call is still waiting in the UI task queue
+            }
+
+            // the ad was taken out of its slot by show(), so it's destroyed directly
+            AdSlot adSlot = slotFor(ad);
+            if (adSlot != null) {
+                finishShowing(adSlot, ad);
+            }
+            destroyAd(ad);
+
+            // send Corona Lua event. 'closed' has always been reported as an interstitial event
+            dispatchLuaEvent(PHASE_CLOSED, TYPE_INTERSTITIAL, placementIdOf(adSlot, ad));
         }
 
         @Override
-        public void onInterstitialDismissed(Ad ad) {
-            String statusKey = ad.getPlacementId() + STATUS_SUFFIX;
-            CoronaAdStatus adStatus = (CoronaAdStatus) fbObjects.get(statusKey);
-            if (adStatus != null)
-                adStatus.isLoaded = false;
+        public void onRewarded(AdBackend.BackendAd ad) {
+            if (isRetired(ad)) {
+                return; // destroyed, its destroy() call is still waiting in the UI task queue
+            }
 
             // send Corona Lua event
-            Map<String, Object> coronaEvent = new HashMap<>();
-            coronaEvent.put(EVENT_PHASE_KEY, PHASE_CLOSED);
-            coronaEvent.put(EVENT_TYPE_KEY, TYPE_INTERSTITIAL);
-            coronaEvent.put(EVENT_PLACEMENTID_KEY, ad.getPlacementId());
-            dispatchLuaEvent(coronaEvent);
+            dispatchLuaEvent(PHASE_REWARD, TYPE_REWARDED, placementIdOf(slotFor(ad), ad));
         }
 
-        @Override
-        public void onLoggingImpression(Ad ad) {
-            // NOP
+        private void finishShowing(AdSlot adSlot, AdBackend.BackendAd ad) {
+            CoronaAdInstance showingAd = adSlot.showingAd;
+            if ((showingAd != null) && (showingAd.adInstance == ad)) {
+                adSlot.finishShowing(showingAd);
+            }
+        }
+
+        // events of waterfall sources are reported under the waterfall's placement id
+        private String placementIdOf(AdSlot adSlot, AdBackend.BackendAd ad) {
+            return (adSlot != null) ? adSlot.placementId : ad.getPlacementId();
         }
     }
 }
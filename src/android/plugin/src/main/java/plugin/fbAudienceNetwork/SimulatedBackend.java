@@ -0,0 +1,228 @@
+//
+//  SimulatedBackend.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.View;
+
+import com.ansca.corona.CoronaActivity;
+
+import java.util.Random;
+
+import plugin.fbAudienceNetwork.core.AdErrorCodes;
+import plugin.fbAudienceNetwork.core.SimulatorConfig;
+
+/**
+ * In-process stand-in for the Audience Network SDK, enabled with init()'s 'simulator' option.
+ * <p>
+ * Requests complete after a random latency and are filled or fail according to the configuration.
+ * Nothing goes over the network, so thousands of requests can be run offline, and runs with the same
+ * seed make the same decisions. Full-screen ads are not drawn, they're "displayed" and closed again after
+ * the configured show duration. Banners are grey boxes of the requested size.
+ */
+final class SimulatedBackend implements AdBackend {
+    private static final String ERROR_MESSAGE = "Simulated error";
+
+    private final SimulatorConfig config;
+    private final Random random;
+    private final Handler handler;
+
+    SimulatedBackend(SimulatorConfig config, Handler handler) {
+        this.config = config;
+        this.random = config.newRandom();
+        this.handler = handler;
+    }
+
+    @Override
+    public void initialize(CoronaActivity coronaActivity, Runnable onReady) {
+        handler.post(onReady);
+    }
+
+    @Override
+    public BackendAd createBanner(CoronaActivity coronaActivity, String placementId, String bannerSize, Listener listener) {
+        float density = coronaActivity.getResources().getDisplayMetrics().density;
+        int width;
+        int height;
+
+        // same dimensions (dp) as the SDK. 0 stretches across the screen
+        switch (bannerSize) {
+            case BANNER_320_50:
+                width = 320;
+                height = 50;
+                break;
+            case BANNER_HEIGHT_90:
+                width = 0;
+                height = 90;
+                break;
+            case RECTANGLE_HEIGHT_250:
+                width = 300;
+                height = 250;
+                break;
+            default:
+                width = 0;
+                height = 50;
+                break;
+        }
+
+        SimulatedAd ad = new SimulatedAd(placementId, listener, false, false);
+        ad.view = new BannerView(coronaActivity, ad, (int) (width * density), (int) (height * density));
+        return ad;
+    }
+
+    @Override
+    public BackendAd createInterstitial(CoronaActivity coronaActivity, String placementId, Listener listener) {
+        return new SimulatedAd(placementId, listener, true, false);
+    }
+
+    @Override
+    public BackendAd createRewarded(CoronaActivity coronaActivity, String placementId, Listener listener) {
+        return new SimulatedAd(placementId, listener, true, true);
+    }
+
+    // NOTE: like SDK ads, only touched on the UI thread
+    private final class SimulatedAd implements BackendAd {
+        private final String placementId;
+        private final Listener listener;
+        private final boolean fullScreen;
+        private final boolean rewarded;
+        View view;
+
+        private boolean loading;
+        private boolean loaded;
+        private long loadedAt;
+        private boolean destroyed;
+
+        private final Runnable completeLoad = new Runnable() {
+            @Override
+            public void run() {
+                loading = false;
+
+                if (config.nextFill(random)) {
+                    loaded = true;
+                    loadedAt = SystemClock.elapsedRealtime();
+                    listener.onLoaded(SimulatedAd.this);
+                } else {
+                    listener.onError(SimulatedAd.this, config.nextErrorCode(random), ERROR_MESSAGE);
+                }
+            }
+        };
+
+        private final Runnable finishShow = new Runnable() {
+            @Override
+            public void run() {
+                if (rewarded) {
+                    listener.onRewarded(SimulatedAd.this);
+                }
+                listener.onClosed(SimulatedAd.this);
+            }
+        };
+
+        SimulatedAd(String placementId, Listener listener, boolean fullScreen, boolean rewarded) {
+            this.placementId = placementId;
+            this.listener = listener;
+            this.fullScreen = fullScreen;
+            this.rewarded = rewarded;
+        }
+
+        @Override
+        public String getPlacementId() {
+            return placementId;
+        }
+
+        @Override
+        public void load() {
+            if (destroyed || loading) {
+                return;
+            }
+
+            // a banner keeps its current ad until the new one arrives
+            loading = true;
+            handler.postDelayed(completeLoad, config.nextLatency(random));
+        }
+
+        @Override
+        public boolean isLoaded() {
+            if (!loaded || destroyed) {
+                return false;
+            }
+
+            // like the SDK, only full-screen ads are invalidated
+            return !fullScreen || (SystemClock.elapsedRealtime() - loadedAt < config.ttlMs);
+        }
+
+        @Override
+        public void show() {
+            if (!fullScreen) {
+                return;
+            }
+
+            if (!isLoaded()) {
+                listener.onError(this, AdErrorCodes.INTERNAL_ERROR, "Ad was not loaded or has expired");
+                return;
+            }
+
+            loaded = false;  // an ad can only be shown once
+
+            if (!rewarded) {
+                listener.onDisplayed(this);
+            }
+            listener.onImpression(this);
+            handler.postDelayed(finishShow, config.showDurationMs);
+        }
+
+        @Override
+        public View getView() {
+            return view;
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+            loaded = false;
+            handler.removeCallbacks(completeLoad);
+            handler.removeCallbacks(finishShow);
+        }
+    }
+
+    // grey placeholder reporting its impression the first time it's drawn, i.e. visible
+    private static final class BannerView extends View {
+        private final SimulatedAd ad;
+        private final int bannerWidth;
+        private final int bannerHeight;
+        private boolean impressionLogged;
+
+        BannerView(CoronaActivity coronaActivity, SimulatedAd ad, int bannerWidth, int bannerHeight) {
+            super(coronaActivity);
+            this.ad = ad;
+            this.bannerWidth = bannerWidth;
+            this.bannerHeight = bannerHeight;
+            setBackgroundColor(Color.GRAY);
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            int width = (bannerWidth > 0) ? bannerWidth : getContext().getResources().getDisplayMetrics().widthPixels;
+            setMeasuredDimension(resolveSize(width, widthMeasureSpec), resolveSize(bannerHeight, heightMeasureSpec));
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas) {
+            super.onDraw(canvas);
+
+            if (!impressionLogged && ad.isLoaded()) {
+                impressionLogged = true;
+                ad.listener.onImpression(ad);
+            }
+        }
+    }
+}
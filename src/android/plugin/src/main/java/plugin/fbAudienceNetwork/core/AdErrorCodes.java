@@ -0,0 +1,25 @@
+//
+//  AdErrorCodes.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+/**
+ * Audience Network error codes, same values as the com.facebook.ads.AdError constants.
+ */
+public final class AdErrorCodes {
+    public static final int NETWORK_ERROR = 1000;
+    public static final int NO_FILL = 1001;
+    public static final int LOAD_TOO_FREQUENTLY = 1002;
+    public static final int SERVER_ERROR = 2000;
+    public static final int INTERNAL_ERROR = 2001;
+    public static final int CACHE_ERROR = 2002;
+
+    private AdErrorCodes() {
+    }
+}
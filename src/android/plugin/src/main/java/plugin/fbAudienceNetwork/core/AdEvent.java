@@ -0,0 +1,83 @@
+//
+//  AdEvent.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+/**
+ * Typed adsRequest event record. Fields map 1:1 to the event properties.
+ * <p>
+ * Records are owned and recycled by {@link EventQueue}.
+ */
+public final class AdEvent {
+    // event keys
+    public static final String PHASE_KEY = "phase";
+    public static final String TYPE_KEY = "type";
+    public static final String PLACEMENTID_KEY = "placementId";
+    public static final String EVENTS_KEY = "events";
+    public static final String AGE_KEY = "age";
+    public static final String ISERROR_KEY = "isError";     // CoronaLuaEvent.ISERROR_KEY
+    public static final String RESPONSE_KEY = "response";   // CoronaLuaEvent.RESPONSE_KEY
+    public static final String PROVIDER_KEY = "provider";   // CoronaLuaEvent.PROVIDER_KEY
+
+    public static final String PHASE_BATCH = "batch";
+
+    String phase;
+    String type;
+    String placementId;
+    boolean isError;
+    int errorCode;
+    String errorMessage;
+    double age;      // seconds since the ad was loaded, < 0 when not applicable
+    int listener;    // receiver picked by EventRouter while flushing
+    AdEvent next;    // link used by the pending queue and the free list
+
+    void clear() {
+        phase = null;
+        type = null;
+        placementId = null;
+        isError = false;
+        errorCode = 0;
+        errorMessage = null;
+        age = -1;
+        listener = EventRouter.NO_LISTENER;
+    }
+
+    // set the fields of the event table on top of the stack
+    void push(LuaStack L, String provider) {
+        L.pushString(phase);
+        L.setField(-2, PHASE_KEY);
+
+        if (type != null) {
+            L.pushString(type);
+            L.setField(-2, TYPE_KEY);
+        }
+
+        if (placementId != null) {
+            L.pushString(placementId);
+            L.setField(-2, PLACEMENTID_KEY);
+        }
+
+        L.pushBoolean(isError);
+        L.setField(-2, ISERROR_KEY);
+
+        if (isError) {
+            L.pushString("Error Code: " + errorCode + ". Reason: " + errorMessage);
+            L.setField(-2, RESPONSE_KEY);
+        }
+
+        if (age >= 0) {
+            L.pushNumber(age);
+            L.setField(-2, AGE_KEY);
+        }
+
+        // add provider
+        L.pushString(provider);
+        L.setField(-2, PROVIDER_KEY);
+    }
+}
@@ -0,0 +1,33 @@
+//
+//  AdExpiry.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+/**
+ * Expiry timing of loaded interstitial and rewarded ads
+ */
+public final class AdExpiry {
+    public static final long DEFAULT_TTL_MS = 60 * 60 * 1000;    // Audience Network ads expire after an hour
+    public static final long MIN_TTL_MS = 60 * 1000;
+    private static final long REFRESH_LEAD_MS = 5 * 60 * 1000;   // request a replacement this long before expiry
+
+    private AdExpiry() {
+    }
+
+    // age at which a replacement should be requested for an ad living 'ttlMs'
+    public static long refreshAge(long ttlMs) {
+        return ttlMs - Math.min(REFRESH_LEAD_MS, ttlMs / 4);
+    }
+
+    // time at which an ad loaded at 'loadedAt' next needs attention: its refresh age, or its expiry
+    // once a replacement has been requested
+    public static long nextDeadline(long loadedAt, long ttlMs, boolean expiring) {
+        return loadedAt + (expiring ? ttlMs : refreshAge(ttlMs));
+    }
+}
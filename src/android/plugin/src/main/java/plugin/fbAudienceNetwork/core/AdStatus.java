@@ -0,0 +1,70 @@
+//
+//  AdStatus.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lifecycle of a single ad. Listeners, show() and the slot housekeeping can race for the same ad,
+ * so every change is a validated compare-and-set: of two racing calls only the first one wins.
+ * On device only the UI thread changes it, the Lua thread reads the slot's PlacementSnapshot.
+ */
+public final class AdStatus {
+    // ad lifecycle states
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_LOADING = 1;
+    public static final int STATE_LOADED = 2;
+    public static final int STATE_SHOWING = 3;
+    public static final int STATE_EXPIRED = 4;
+    public static final int STATE_FAILED = 5;
+
+    // state names returned by getState(), indexed by state
+    public static final String[] STATE_NAMES = {"idle", "loading", "loaded", "showing", "expired", "failed"};
+
+    // allowed transitions, indexed by the current state. bit n is set when moving to state n is valid
+    private static final int[] STATE_TRANSITIONS = {
+            (1 << STATE_LOADING),                                                                       // idle
+            (1 << STATE_LOADED) | (1 << STATE_FAILED),                                                  // loading
+            (1 << STATE_LOADED) | (1 << STATE_SHOWING) | (1 << STATE_EXPIRED) | (1 << STATE_FAILED),   // loaded (banners refresh in place)
+            (1 << STATE_SHOWING) | (1 << STATE_IDLE),                                                   // showing (banners refresh on screen)
+            0,                                                                                          // expired
+            (1 << STATE_LOADING),                                                                       // failed (retry)
+    };
+
+    private final AtomicInteger state = new AtomicInteger(STATE_LOADING);  // ads are requested as soon as they're created
+
+    public int get() {
+        return state.get();
+    }
+
+    // loaded and not yet consumed. banners stay loaded while on screen
+    public boolean isLoaded() {
+        int current = state.get();
+        return (current == STATE_LOADED) || (current == STATE_SHOWING);
+    }
+
+    // move to 'to' if the transition is valid. returns false and leaves the state alone otherwise
+    public boolean moveTo(int to) {
+        while (true) {
+            int from = state.get();
+            if ((STATE_TRANSITIONS[from] & (1 << to)) == 0) {
+                return false;
+            }
+            if (state.compareAndSet(from, to)) {
+                return true;
+            }
+        }
+    }
+
+    // the ad has been destroyed
+    public void reset() {
+        state.set(STATE_IDLE);
+    }
+}
@@ -0,0 +1,198 @@
+//
+//  EventQueue.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+/**
+ * Events waiting to be delivered to Lua.
+ * <p>
+ * Events can be posted from any thread. The first event after a flush asks the scheduler for another one,
+ * so every event posted during a Corona frame is delivered, in order, by a single flush() on the Lua thread.
+ * Event records are recycled through a free list so posting an event does not allocate.
+ * Each event is delivered to the listener its {@link EventRouter} picks when the queue is flushed.
+ */
+public final class EventQueue {
+    // requests a flush() on the Lua thread, on device by sending a task to the runtime dispatcher
+    public interface Scheduler {
+        void requestFlush();
+    }
+
+    // creates and delivers event tables, on device through CoronaLua.newEvent() and CoronaLua.dispatchEvent()
+    public interface EventSink {
+        // push a new event table onto the stack
+        void newEvent();
+
+        // deliver the event table on top of the stack to 'listener' and pop it
+        void dispatchEvent(int listener);
+    }
+
+    private final String provider;
+    private final Scheduler scheduler;
+
+    private final Object lock = new Object();
+    private AdEvent freeList = null;       // guarded by lock
+    private int freeCount = 0;             // guarded by lock
+    private AdEvent pendingHead = null;    // guarded by lock
+    private AdEvent pendingTail = null;    // guarded by lock
+    private boolean flushScheduled = false; // guarded by lock
+
+    public EventQueue(String provider, Scheduler scheduler) {
+        this.provider = provider;
+        this.scheduler = scheduler;
+    }
+
+    // make sure at least 'count' event records are ready to be used
+    public void preallocate(int count) {
+        synchronized (lock) {
+            while (freeCount < count) {
+                AdEvent event = new AdEvent();
+                event.clear();
+                event.next = freeList;
+                freeList = event;
+                freeCount++;
+            }
+        }
+    }
+
+    // queue an event. 'age' < 0 leaves it out
+    public void post(String phase, String type, String placementId, boolean isError, int errorCode, String errorMessage, double age) {
+        boolean requestFlush;
+
+        synchronized (lock) {
+            AdEvent event = freeList;
+            if (event != null) {
+                freeList = event.next;
+                freeCount--;
+            } else {
+                event = new AdEvent();  // pool exhausted, it will grow by one
+                event.clear();
+            }
+
+            event.phase = phase;
+            event.type = type;
+            event.placementId = placementId;
+            event.isError = isError;
+            event.errorCode = errorCode;
+            event.errorMessage = errorMessage;
+            event.age = age;
+            event.next = null;
+
+            if (pendingTail == null) {
+                pendingHead = event;
+            } else {
+                pendingTail.next = event;
+            }
+            pendingTail = event;
+
+            requestFlush = !flushScheduled;
+            flushScheduled = true;
+        }
+
+        if (requestFlush) {
+            scheduler.requestFlush();
+        }
+    }
+
+    // deliver every queued event. when 'batch' is set each listener gets a single 'batch' event
+    // carrying an array of its events
+    // NOTE: only safe to call on the Lua thread!
+    public void flush(LuaStack L, EventSink sink, EventRouter router, boolean batch) {
+        AdEvent chain;
+
+        // take the whole queue. events queued while we're delivering schedule another flush
+        synchronized (lock) {
+            chain = pendingHead;
+            pendingHead = null;
+            pendingTail = null;
+            flushScheduled = false;
+        }
+
+        try {
+            if (batch) {
+                // pick every receiver first, so a listener changed while delivering doesn't split a batch
+                for (AdEvent event = chain; event != null; event = event.next) {
+                    event.listener = router.listenerFor(event.phase, event.placementId);
+                }
+
+                // one batch per listener, in the order of their first event
+                for (AdEvent first = chain; first != null; first = first.next) {
+                    int listener = first.listener;
+                    if (listener == EventRouter.NO_LISTENER) {
+                        continue;
+                    }
+
+                    sink.newEvent();
+                    L.pushString(AdEvent.PHASE_BATCH);
+                    L.setField(-2, AdEvent.PHASE_KEY);
+                    L.pushBoolean(false);
+                    L.setField(-2, AdEvent.ISERROR_KEY);
+                    L.pushString(provider);
+                    L.setField(-2, AdEvent.PROVIDER_KEY);
+
+                    L.newTable();
+                    int count = 0;
+                    for (AdEvent event = first; event != null; event = event.next) {
+                        if (event.listener == listener) {
+                            sink.newEvent();
+                            event.push(L, provider);
+                            L.rawSet(-2, ++count);
+                            event.listener = EventRouter.NO_LISTENER;
+                        }
+                    }
+                    L.setField(-2, AdEvent.EVENTS_KEY);
+
+                    sink.dispatchEvent(listener);
+                }
+            } else {
+                for (AdEvent event = chain; event != null; event = event.next) {
+                    // subscriptions may have changed since the event was posted
+                    int listener = router.listenerFor(event.phase, event.placementId);
+                    if (listener == EventRouter.NO_LISTENER) {
+                        continue;
+                    }
+
+                    sink.newEvent();
+                    event.push(L, provider);
+                    sink.dispatchEvent(listener);
+                }
+            }
+        } finally {
+            recycle(chain);
+        }
+    }
+
+    // drop every queued event, e.g. when the runtime goes away
+    public void clear() {
+        synchronized (lock) {
+            AdEvent chain = pendingHead;
+            pendingHead = null;
+            pendingTail = null;
+            flushScheduled = false;
+            recycleLocked(chain);
+        }
+    }
+
+    private void recycle(AdEvent chain) {
+        synchronized (lock) {
+            recycleLocked(chain);
+        }
+    }
+
+    // NOTE: caller must hold lock
+    private void recycleLocked(AdEvent chain) {
+        while (chain != null) {
+            AdEvent next = chain.next;
+            chain.clear();
+            chain.next = freeList;
+            freeList = chain;
+            freeCount++;
+            chain = next;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+//
+//  EventRouter.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks the Lua listener which receives an ad event.
+ * <p>
+ * An event goes to the listener of its placement when that listener subscribed to the event's phase, otherwise
+ * to the init() listener when it subscribed to it. Events nobody subscribed to are dropped before they are
+ * queued, so they cost neither an event record nor a runtime task. Listeners are Lua registry references.
+ * <p>
+ * Subscriptions are changed on the Lua thread and read from any thread.
+ */
+public final class EventRouter {
+    public static final int NO_LISTENER = -1;   // same as CoronaLua.REFNIL
+
+    // phases which can be subscribed to, a bit each
+    private static final String[] PHASES = {"init", "loaded", "refreshed", "failed", "closed", "clicked", "reward", "expired", "evicted"};
+    public static final int ALL_PHASES = (1 << PHASES.length) - 1;
+
+    private static final HashMap<String, Integer> PHASE_BITS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < PHASES.length; i++) {
+            PHASE_BITS.put(PHASES[i], 1 << i);
+        }
+    }
+
+    private static final class Route {
+        final int listener;
+        final int phases;
+
+        Route(int listener, int phases) {
+            this.listener = listener;
+            this.phases = phases;
+        }
+    }
+
+    private volatile Route global = new Route(NO_LISTENER, ALL_PHASES);
+    private final ConcurrentHashMap<String, Route> placements = new ConcurrentHashMap<>();
+
+    // bit of a phase, 0 for phases which can't be subscribed to and always go through
+    public static int phaseBit(String phase) {
+        Integer bit = PHASE_BITS.get(phase);
+        return (bit == null) ? 0 : bit;
+    }
+
+    // parses the array of phase names at the absolute stack 'index'. returns the phase mask, or -1 when invalid
+    public static int parsePhases(LuaStack L, int index) {
+        if (L.type(index) != LuaStack.TYPE_TABLE) {
+            return -1;
+        }
+
+        int phases = 0;
+
+        for (L.pushNil(); L.next(index); L.pop(1)) {
+            int bit = (L.type(-1) == LuaStack.TYPE_STRING) ? phaseBit(L.toString(-1)) : 0;
+            if ((L.type(-2) != LuaStack.TYPE_NUMBER) || (bit == 0)) {
+                L.pop(2);
+                return -1;
+            }
+            phases |= bit;
+        }
+
+        return phases;
+    }
+
+    // names of the phases which can be subscribed to, for error messages
+    public static String phaseNames() {
+        StringBuilder builder = new StringBuilder();
+        for (String phase : PHASES) {
+            builder.append((builder.length() == 0) ? "" : ", ").append('\'').append(phase).append('\'');
+        }
+        return builder.toString();
+    }
+
+    // the init() listener and the phases it receives
+    public void setGlobal(int listener, int phases) {
+        global = new Route(listener, phases);
+    }
+
+    // a listener for the events of one placement. returns the listener it replaces, or NO_LISTENER
+    public int setPlacement(String placementId, int listener, int phases) {
+        Route previous = placements.put(placementId, new Route(listener, phases));
+        return (previous == null) ? NO_LISTENER : previous.listener;
+    }
+
+    // the placement's events go back to the init() listener. returns the listener removed, or NO_LISTENER
+    public int removePlacement(String placementId) {
+        Route previous = placements.remove(placementId);
+        return (previous == null) ? NO_LISTENER : previous.listener;
+    }
+
+    // true when somebody listens to the event
+    public boolean wants(String phase, String placementId) {
+        return listenerFor(phase, placementId) != NO_LISTENER;
+    }
+
+    // the listener which receives the event, NO_LISTENER when nobody does
+    public int listenerFor(String phase, String placementId) {
+        int bit = phaseBit(phase);
+
+        if (placementId != null) {
+            Route route = placements.get(placementId);
+            if ((route != null) && ((bit == 0) || ((route.phases & bit) != 0))) {
+                return route.listener;
+            }
+        }
+
+        Route route = global;
+        return ((bit == 0) || ((route.phases & bit) != 0)) ? route.listener : NO_LISTENER;
+    }
+
+    // drop every subscription. returns the placement listeners so their references can be released
+    public int[] clear() {
+        Route[] routes = placements.values().toArray(new Route[0]);
+        placements.clear();
+        global = new Route(NO_LISTENER, ALL_PHASES);
+
+        int[] listeners = new int[routes.length];
+        for (int i = 0; i < routes.length; i++) {
+            listeners[i] = routes[i].listener;
+        }
+        return listeners;
+    }
+}
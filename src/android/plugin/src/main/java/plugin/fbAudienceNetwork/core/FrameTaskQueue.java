@@ -0,0 +1,208 @@
+//
+//  FrameTaskQueue.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+/**
+ * UI work waiting to be run, a little every frame.
+ * <p>
+ * Tasks can be posted from any thread. The first task posted while the queue is idle asks the scheduler for a
+ * frame, and each runFrame() runs tasks in order until the time budget is used up, asking for another frame
+ * if some are left. At least one task runs per frame so the queue always makes progress.
+ * <p>
+ * Tasks posted with a key replace the pending task with the same key in its place in the queue, so repeated calls
+ * made in the same frame only do the work once. Tasks may also name a group, e.g. the placement they work on:
+ * a task is only replaced while no other task of its group was posted after it, so the tasks of a group always
+ * run in the order they were posted. Tasks in ALL_GROUPS, e.g. batches working on several placements, keep their
+ * order with every group.
+ */
+public final class FrameTaskQueue {
+    public static final Object ALL_GROUPS = new Object();
+
+    // requests a runFrame() on the UI thread, on device from the next Choreographer frame
+    public interface Scheduler {
+        void requestFrame();
+    }
+
+    private static final class Node {
+        Object key;
+        Object group;
+        Runnable task;
+        Node next;
+    }
+
+    private final Scheduler scheduler;
+
+    private final Object lock = new Object();
+    private Node freeList = null;           // guarded by lock
+    private Node head = null;               // guarded by lock
+    private Node tail = null;               // guarded by lock
+    private int size = 0;                   // guarded by lock
+    private boolean frameScheduled = false; // guarded by lock
+
+    public FrameTaskQueue(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void post(Runnable task) {
+        post(null, task);
+    }
+
+    // queue a task. a null key never coalesces
+    public void post(Object key, Runnable task) {
+        post(key, null, task);
+    }
+
+    // queue a task which keeps its order with the other tasks of 'group'. a null group orders nothing
+    public void post(Object key, Object group, Runnable task) {
+        boolean requestFrame;
+
+        synchronized (lock) {
+            if (key != null) {
+                Node pending = findKey(key);
+                if ((pending != null) && !hasLaterTask(pending, group)) {
+                    // the pending task already asked for a frame
+                    pending.task = task;
+                    return;
+                }
+            }
+
+            Node node = freeList;
+            if (node != null) {
+                freeList = node.next;
+            } else {
+                node = new Node();
+            }
+
+            node.key = key;
+            node.group = group;
+            node.task = task;
+            node.next = null;
+
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+
+            requestFrame = !frameScheduled;
+            frameScheduled = true;
+        }
+
+        if (requestFrame) {
+            scheduler.requestFrame();
+        }
+    }
+
+    // run tasks until 'budgetNanos' has elapsed. returns the number of tasks run
+    // NOTE: only safe to call on the UI thread!
+    public int runFrame(long budgetNanos) {
+        long start = System.nanoTime();
+        int count = 0;
+
+        try {
+            do {
+                Runnable task;
+
+                synchronized (lock) {
+                    Node node = head;
+                    if (node == null) {
+                        break;
+                    }
+
+                    head = node.next;
+                    if (head == null) {
+                        tail = null;
+                    }
+                    size--;
+
+                    task = node.task;
+                    recycle(node);
+                }
+
+                count++;
+                task.run();
+            } while (System.nanoTime() - start < budgetNanos);
+        } finally {
+            // leftovers, including tasks posted while running, wait for the next frame
+            boolean requestFrame;
+
+            synchronized (lock) {
+                frameScheduled = (head != null);
+                requestFrame = frameScheduled;
+            }
+
+            if (requestFrame) {
+                scheduler.requestFrame();
+            }
+        }
+
+        return count;
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    // drop every pending task
+    public void clear() {
+        synchronized (lock) {
+            while (head != null) {
+                Node node = head;
+                head = node.next;
+                recycle(node);
+            }
+            tail = null;
+            size = 0;
+            frameScheduled = false;
+        }
+    }
+
+    // the last pending task posted with 'key', or null
+    // NOTE: lock must be held
+    private Node findKey(Object key) {
+        Node found = null;
+        for (Node node = head; node != null; node = node.next) {
+            if (key.equals(node.key)) {
+                found = node;
+            }
+        }
+        return found;
+    }
+
+    // true when a task of 'group' was posted after 'pending'
+    // NOTE: lock must be held
+    private boolean hasLaterTask(Node pending, Object group) {
+        if (group == null) {
+            return false;
+        }
+        if (group == ALL_GROUPS) {
+            return pending.next != null;
+        }
+        for (Node node = pending.next; node != null; node = node.next) {
+            if ((node.group == ALL_GROUPS) || group.equals(node.group)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // NOTE: lock must be held
+    private void recycle(Node node) {
+        node.key = null;
+        node.group = null;
+        node.task = null;
+        node.next = freeList;
+        freeList = node;
+    }
+}
@@ -0,0 +1,100 @@
+//
+//  InitTimings.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time spent in each stage of init(), from the Lua call to the 'init' event.
+ * <p>
+ * Each stage is timed between its own begin() and end() System.nanoTime() marks, so a callback which runs inline
+ * can't make a later stage look like it ended before an earlier one. Stages may overlap: sdkReady starts with
+ * sdkInit, since the SDK may report it is ready before initialize() returns.
+ * Marks are set on the Lua and UI threads and read from the Lua thread.
+ */
+public final class InitTimings {
+    // stages, in the order they begin
+    public static final int STAGE_CALL = 0;           // init() itself, on the Lua thread
+    public static final int STAGE_DISPATCH = 1;       // waiting for the UI thread
+    public static final int STAGE_SETUP = 2;          // the plugin's own setup on the UI thread
+    public static final int STAGE_DEFERRED = 3;       // waiting for the first load() or an idle UI thread (deferInit)
+    public static final int STAGE_SDK_INIT = 4;       // the SDK's initialize() call, blocking the UI thread
+    public static final int STAGE_SDK_READY = 5;      // from the SDK's initialize() call until it reports it is ready
+    public static final int STAGE_PENDING_LOADS = 6;  // sending the load() requests made in the meantime
+    private static final String[] STAGE_NAMES = {"call", "dispatch", "setup", "deferred", "sdkInit", "sdkReady", "pendingLoads"};
+
+    // 0 until set
+    private final AtomicLongArray begins = new AtomicLongArray(STAGE_NAMES.length);
+    private final AtomicLongArray ends = new AtomicLongArray(STAGE_NAMES.length);
+
+    // init() was called, the call stage begins
+    public void start(long nanos) {
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            begins.set(i, 0);
+            ends.set(i, 0);
+        }
+        begins.set(STAGE_CALL, nanos);
+    }
+
+    public void begin(int stage, long nanos) {
+        begins.set(stage, nanos);
+    }
+
+    public void end(int stage, long nanos) {
+        ends.set(stage, nanos);
+    }
+
+    public boolean isComplete() {
+        return (begins.get(STAGE_CALL) != 0) && (ends.get(STAGE_PENDING_LOADS) != 0);
+    }
+
+    // duration of a stage in milliseconds, -1 while it hasn't both begun and ended
+    public double get(int stage) {
+        long begin = begins.get(stage);
+        long end = ends.get(stage);
+        if ((begin == 0) || (end == 0)) {
+            return -1;
+        }
+
+        // a stage can't end before it began. guards against a begin() of a new init() racing an old end()
+        return Math.max(0, end - begin) / 1000000.0;
+    }
+
+    // push a table with the duration of each stage that ended and the total, in milliseconds
+    public void push(LuaStack L) {
+        L.newTable();
+
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            double ms = get(i);
+            if (ms >= 0) {
+                L.pushNumber(ms);
+                L.setField(-2, STAGE_NAMES[i]);
+            }
+        }
+
+        if (isComplete()) {
+            L.pushNumber(Math.max(0, ends.get(STAGE_PENDING_LOADS) - begins.get(STAGE_CALL)) / 1000000.0);
+            L.setField(-2, "total");
+        }
+    }
+
+    // one line summary for the device console
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            double ms = get(i);
+            if (ms >= 0) {
+                builder.append((builder.length() == 0) ? "" : ", ").append(STAGE_NAMES[i]).append(' ').append(Math.round(ms * 10) / 10.0).append("ms");
+            }
+        }
+        return builder.toString();
+    }
+}
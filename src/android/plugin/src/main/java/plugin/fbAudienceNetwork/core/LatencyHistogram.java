@@ -0,0 +1,80 @@
+//
+//  LatencyHistogram.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket latency histogram. Written from the UI thread only, read and reset from the Lua thread
+ */
+public final class LatencyHistogram {
+    // upper bounds of the buckets in milliseconds. the last bucket holds everything slower
+    public static final long[] BUCKETS_MS = {100, 250, 500, 1000, 2000, 5000, 10000, 30000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS_MS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMs = new AtomicLong();
+    private final AtomicLong maxMs = new AtomicLong();
+
+    public void record(long ms) {
+        int bucket = 0;
+        while ((bucket < BUCKETS_MS.length) && (ms > BUCKETS_MS[bucket])) {
+            bucket++;
+        }
+
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalMs.addAndGet(ms);
+
+        if (ms > maxMs.get()) {
+            maxMs.set(ms);  // single writer
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalMs.set(0);
+        maxMs.set(0);
+    }
+
+    // push a table with the histogram onto the Lua stack
+    public void push(LuaStack L) {
+        L.newTable();
+
+        long samples = count.get();
+        L.pushNumber(samples);
+        L.setField(-2, "count");
+
+        L.pushNumber((samples > 0) ? (double) totalMs.get() / samples : 0);
+        L.setField(-2, "mean");
+
+        L.pushNumber(maxMs.get());
+        L.setField(-2, "max");
+
+        // bounds[i] is the upper bound of buckets[i] in milliseconds, the extra last bucket is unbounded
+        L.newTable();
+        for (int i = 0; i < BUCKETS_MS.length; i++) {
+            L.pushNumber(BUCKETS_MS[i]);
+            L.rawSet(-2, i + 1);
+        }
+        L.setField(-2, "bounds");
+
+        L.newTable();
+        for (int i = 0; i < buckets.length(); i++) {
+            L.pushNumber(buckets.get(i));
+            L.rawSet(-2, i + 1);
+        }
+        L.setField(-2, "buckets");
+    }
+}
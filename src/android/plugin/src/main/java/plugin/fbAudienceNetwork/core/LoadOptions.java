@@ -0,0 +1,424 @@
+//
+//  LoadOptions.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+/**
+ * Arguments of fbAudienceNetwork.load(), of one request of fbAudienceNetwork.loadMany() or of a
+ * fbAudienceNetwork.registerPlacement() profile. A single instance is reused for every call on the Lua thread,
+ * registered profiles keep a copy.
+ */
+public final class LoadOptions {
+    // preload pool (interstitial and rewarded only)
+    public static final int DEFAULT_PRELOAD_DEPTH = 1;
+    public static final int MAX_PRELOAD_DEPTH = 5;
+
+    // waterfall (interstitial and rewarded only)
+    public static final int MAX_WATERFALL_SOURCES = 5;
+
+    public String adUnitType;
+    public String placementId;
+    public String[] placementIds;      // waterfall sources by priority, null for a single placement
+    public int waterfallPolicy;
+    public String bannerSize;
+    public int preloadDepth;
+    public RetryPolicy retryPolicy;    // null when retries are disabled
+    public RefreshPolicy refreshPolicy; // null to leave banner refresh to the SDK
+    public long ttlMs;
+
+    // banner position, only in profiles
+    public String yAlign;              // null when positioned by yOffset
+    public double yOffset;
+
+    // parses (adUnitType, options) or the legacy (adUnitType, placementId [, bannerSize]) form.
+    // returns null on success, otherwise the error message. options which aren't given get their defaults
+    public String parse(LuaStack L, String defaultBannerSize) {
+        reset(defaultBannerSize);
+
+        boolean legacyAPI = false;
+
+        // check number of arguments
+        int nargs = L.getTop();
+        if ((nargs < 2) || (nargs > 3)) { // 3 for legacy support
+            return "Expected 2 arguments, got " + nargs;
+        }
+
+        if (L.type(1) == LuaStack.TYPE_STRING) {
+            adUnitType = L.toString(1);
+        } else {
+            return "adUnitType (string) expected, got " + L.typeName(1);
+        }
+
+        if (L.type(2) == LuaStack.TYPE_STRING) {
+            placementId = L.toString(2);
+            legacyAPI = true;
+        } else if (L.type(2) == LuaStack.TYPE_TABLE) {
+            String error = parseOptions(L, 2, false, false);
+            if (error != null) {
+                return error;
+            }
+        } else {
+            return "options (table) expected, got " + L.typeName(2);
+        }
+
+        if (legacyAPI) {
+            // check banner size
+            if ((L.type(3) != LuaStack.TYPE_NONE) && (L.type(3) != LuaStack.TYPE_NIL)) {
+                if (L.type(3) == LuaStack.TYPE_STRING) {
+                    bannerSize = L.toString(3);
+                } else {
+                    return "bannerSize (string) expected, got " + L.typeName(3);
+                }
+            }
+        }
+
+        return finish();
+    }
+
+    // parses one loadMany() request, the options table at the absolute stack 'index' with an adUnitType key.
+    // returns null on success, otherwise the error message
+    public String parseRequest(LuaStack L, int index, String defaultBannerSize) {
+        reset(defaultBannerSize);
+
+        if (L.type(index) != LuaStack.TYPE_TABLE) {
+            return "request (table) expected, got " + L.typeName(index);
+        }
+
+        String error = parseOptions(L, index, true, false);
+        if (error != null) {
+            return error;
+        }
+
+        if (adUnitType == null) {
+            return "request.adUnitType (string) expected";
+        }
+
+        return finish();
+    }
+
+    // parses a registerPlacement() profile, a loadMany() request which may also hold the banner position 'y'.
+    // returns null on success, otherwise the error message
+    public String parseProfile(LuaStack L, int index, String defaultBannerSize) {
+        reset(defaultBannerSize);
+
+        if (L.type(index) != LuaStack.TYPE_TABLE) {
+            return "profile (table) expected, got " + L.typeName(index);
+        }
+
+        String error = parseOptions(L, index, true, true);
+        if (error != null) {
+            return error;
+        }
+
+        if (adUnitType == null) {
+            return "profile.adUnitType (string) expected";
+        }
+
+        if ((placementId == null) && (placementIds == null)) {
+            return "profile.placementId (string) expected";
+        }
+
+        return finish();
+    }
+
+    // a copy which keeps the parsed values once this instance is reused
+    public LoadOptions copy() {
+        LoadOptions copy = new LoadOptions();
+        copy.adUnitType = adUnitType;
+        copy.placementId = placementId;
+        copy.placementIds = placementIds;
+        copy.waterfallPolicy = waterfallPolicy;
+        copy.bannerSize = bannerSize;
+        copy.preloadDepth = preloadDepth;
+        copy.retryPolicy = retryPolicy;
+        copy.refreshPolicy = refreshPolicy;
+        copy.ttlMs = ttlMs;
+        copy.yAlign = yAlign;
+        copy.yOffset = yOffset;
+        return copy;
+    }
+
+    private void reset(String defaultBannerSize) {
+        adUnitType = null;
+        placementId = null;
+        placementIds = null;
+        waterfallPolicy = Waterfall.POLICY_PRIORITY;
+        bannerSize = defaultBannerSize;
+        preloadDepth = DEFAULT_PRELOAD_DEPTH;
+        retryPolicy = null;
+        refreshPolicy = null;
+        ttlMs = AdExpiry.DEFAULT_TTL_MS;
+        yAlign = null;
+        yOffset = 0;
+    }
+
+    // parses the options table at the absolute stack 'index'. returns null on success, otherwise the error message
+    private String parseOptions(LuaStack L, int index, boolean withAdUnitType, boolean withPosition) {
+        // traverse all options
+        for (L.pushNil(); L.next(index); L.pop(1)) {
+            if (L.type(-2) != LuaStack.TYPE_STRING) {
+                L.pop(2);
+                return "options must be a key/value table";
+            }
+
+            String key = L.toString(-2);
+            String error;
+
+            if (withAdUnitType && key.equals("adUnitType")) {
+                if (L.type(-1) == LuaStack.TYPE_STRING) {
+                    adUnitType = L.toString(-1);
+                    continue;
+                }
+                error = "request.adUnitType (string) expected, got: " + L.typeName(-1);
+            } else if (withPosition && key.equals("y")) {
+                if (L.type(-1) == LuaStack.TYPE_STRING) {
+                    yAlign = L.toString(-1);
+                    continue;
+                } else if (L.type(-1) == LuaStack.TYPE_NUMBER) {
+                    yOffset = L.toNumber(-1);
+                    continue;
+                }
+                error = "profile.y (string or number) expected, got: " + L.typeName(-1);
+            } else if (key.equals("placementId")) {
+                if (L.type(-1) == LuaStack.TYPE_STRING) {
+                    placementId = L.toString(-1);
+                    continue;
+                }
+                error = "options.placementId (string) expected, got: " + L.typeName(-1);
+            } else if (key.equals("placementIds")) {
+                error = parsePlacementIds(L);
+            } else if (key.equals("waterfall")) {
+                if (L.type(-1) == LuaStack.TYPE_STRING) {
+                    waterfallPolicy = Waterfall.policyFromName(L.toString(-1));
+                    if (waterfallPolicy >= 0) {
+                        continue;
+                    }
+                    error = "options.waterfall must be 'priority' or 'first'";
+                } else {
+                    error = "options.waterfall (string) expected, got: " + L.typeName(-1);
+                }
+            } else if (key.equals("bannerSize")) {
+                if (L.type(-1) == LuaStack.TYPE_STRING) {
+                    bannerSize = L.toString(-1);
+                    continue;
+                }
+                error = "options.bannerSize (string) expected, got: " + L.typeName(-1);
+            } else if (key.equals("preloadDepth")) {
+                if (L.type(-1) == LuaStack.TYPE_NUMBER) {
+                    preloadDepth = (int) L.toNumber(-1);
+                    continue;
+                }
+                error = "options.preloadDepth (number) expected, got: " + L.typeName(-1);
+            } else if (key.equals("retry")) {
+                error = parseRetry(L);
+            } else if (key.equals("refresh")) {
+                error = parseRefresh(L);
+            } else if (key.equals("ttl")) {
+                if (L.type(-1) == LuaStack.TYPE_NUMBER) {
+                    ttlMs = (long) L.toNumber(-1);
+                    continue;
+                }
+                error = "options.ttl (number) expected, got: " + L.typeName(-1);
+            } else {
+                error = "Invalid option '" + key + "'";
+            }
+
+            if (error != null) {
+                L.pop(2);
+                return error;
+            }
+        }
+
+        return null;
+    }
+
+    // checks the options parsed, returns null on success, otherwise the error message
+    private String finish() {
+        // the waterfall is known by its first placement id
+        if (placementIds != null) {
+            if (placementId != null) {
+                return "options.placementId and options.placementIds cannot be used together";
+            }
+            placementId = placementIds[0];
+            if (placementIds.length == 1) {
+                placementIds = null;
+            }
+        }
+
+        // validation
+        if ((preloadDepth < 1) || (preloadDepth > MAX_PRELOAD_DEPTH)) {
+            return "options.preloadDepth must be between 1 and " + MAX_PRELOAD_DEPTH;
+        }
+
+        if (ttlMs < AdExpiry.MIN_TTL_MS) {
+            return "options.ttl must be at least " + AdExpiry.MIN_TTL_MS + " milliseconds";
+        }
+
+        return null;
+    }
+
+    // parses options.placementIds, on top of the stack. returns null on success, otherwise the error message
+    private String parsePlacementIds(LuaStack L) {
+        if (L.type(-1) != LuaStack.TYPE_TABLE) {
+            return "options.placementIds (table) expected, got: " + L.typeName(-1);
+        }
+
+        String[] ids = new String[MAX_WATERFALL_SOURCES];
+        int count = 0;
+
+        // traverse the array. keys may come in any order
+        for (L.pushNil(); L.next(-2); L.pop(1)) {
+            int index = (L.type(-2) == LuaStack.TYPE_NUMBER) ? (int) L.toNumber(-2) : 0;
+
+            if ((index < 1) || (index > MAX_WATERFALL_SOURCES) || (L.type(-1) != LuaStack.TYPE_STRING)) {
+                L.pop(2);
+                return "options.placementIds must be an array of up to " + MAX_WATERFALL_SOURCES + " strings";
+            }
+
+            ids[index - 1] = L.toString(-1);
+            count = Math.max(count, index);
+        }
+
+        if (count == 0) {
+            return "options.placementIds cannot be empty";
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == null) {
+                return "options.placementIds[" + (i + 1) + "] is missing";
+            }
+            for (int j = 0; j < i; j++) {
+                if (ids[j].equals(ids[i])) {
+                    return "options.placementIds contains '" + ids[i] + "' more than once";
+                }
+            }
+        }
+
+        placementIds = new String[count];
+        System.arraycopy(ids, 0, placementIds, 0, count);
+        return null;
+    }
+
+    // parses options.retry, on top of the stack. returns null on success, otherwise the error message
+    private String parseRetry(LuaStack L) {
+        if (L.type(-1) == LuaStack.TYPE_BOOLEAN) {
+            if (L.toBoolean(-1)) {
+                retryPolicy = new RetryPolicy(RetryPolicy.DEFAULT_MAX_RETRIES, RetryPolicy.DEFAULT_BASE_DELAY_MS, RetryPolicy.DEFAULT_MAX_DELAY_MS);
+            }
+            return null;
+        }
+
+        if (L.type(-1) != LuaStack.TYPE_TABLE) {
+            return "options.retry (boolean or table) expected, got: " + L.typeName(-1);
+        }
+
+        int maxRetries = RetryPolicy.DEFAULT_MAX_RETRIES;
+        long baseDelay = RetryPolicy.DEFAULT_BASE_DELAY_MS;
+        long maxDelay = RetryPolicy.DEFAULT_MAX_DELAY_MS;
+
+        // traverse retry options
+        for (L.pushNil(); L.next(-2); L.pop(1)) {
+            if (L.type(-2) != LuaStack.TYPE_STRING) {
+                L.pop(2);
+                return "options.retry must be a key/value table";
+            }
+
+            String retryKey = L.toString(-2);
+
+            if (L.type(-1) != LuaStack.TYPE_NUMBER) {
+                String error = "options.retry." + retryKey + " (number) expected, got: " + L.typeName(-1);
+                L.pop(2);
+                return error;
+            }
+
+            if (retryKey.equals("maxRetries")) {
+                maxRetries = (int) L.toNumber(-1);
+            } else if (retryKey.equals("baseDelay")) {
+                baseDelay = (long) L.toNumber(-1);
+            } else if (retryKey.equals("maxDelay")) {
+                maxDelay = (long) L.toNumber(-1);
+            } else {
+                L.pop(2);
+                return "Invalid option 'retry." + retryKey + "'";
+            }
+        }
+
+        if ((maxRetries < 0) || (maxRetries > RetryPolicy.MAX_RETRIES)) {
+            return "options.retry.maxRetries must be between 0 and " + RetryPolicy.MAX_RETRIES;
+        }
+
+        if ((baseDelay <= 0) || (maxDelay < baseDelay)) {
+            return "options.retry.baseDelay must be positive and not greater than options.retry.maxDelay";
+        }
+
+        retryPolicy = new RetryPolicy(maxRetries, baseDelay, maxDelay);
+        return null;
+    }
+
+    // parses options.refresh, on top of the stack. returns null on success, otherwise the error message
+    private String parseRefresh(LuaStack L) {
+        if (L.type(-1) == LuaStack.TYPE_BOOLEAN) {
+            if (L.toBoolean(-1)) {
+                refreshPolicy = new RefreshPolicy(RefreshPolicy.DEFAULT_INTERVAL_MS, RefreshPolicy.UNLIMITED_REFRESHES, true);
+            }
+            return null;
+        }
+
+        if (L.type(-1) != LuaStack.TYPE_TABLE) {
+            return "options.refresh (boolean or table) expected, got: " + L.typeName(-1);
+        }
+
+        long interval = RefreshPolicy.DEFAULT_INTERVAL_MS;
+        int maxRefreshes = RefreshPolicy.UNLIMITED_REFRESHES;
+        boolean pauseWhenHidden = true;
+
+        // traverse refresh options
+        for (L.pushNil(); L.next(-2); L.pop(1)) {
+            if (L.type(-2) != LuaStack.TYPE_STRING) {
+                L.pop(2);
+                return "options.refresh must be a key/value table";
+            }
+
+            String refreshKey = L.toString(-2);
+            String error = null;
+
+            if (refreshKey.equals("pauseWhenHidden")) {
+                if (L.type(-1) == LuaStack.TYPE_BOOLEAN) {
+                    pauseWhenHidden = L.toBoolean(-1);
+                } else {
+                    error = "options.refresh.pauseWhenHidden (boolean) expected, got: " + L.typeName(-1);
+                }
+            } else if (L.type(-1) != LuaStack.TYPE_NUMBER) {
+                error = "options.refresh." + refreshKey + " (number) expected, got: " + L.typeName(-1);
+            } else if (refreshKey.equals("interval")) {
+                interval = (long) L.toNumber(-1);
+            } else if (refreshKey.equals("maxRefreshes")) {
+                // leaving it out is the only way to refresh without a limit, 0 doesn't mean unlimited
+                maxRefreshes = (int) L.toNumber(-1);
+                if (maxRefreshes < 1) {
+                    error = "options.refresh.maxRefreshes must be at least 1";
+                }
+            } else {
+                error = "Invalid option 'refresh." + refreshKey + "'";
+            }
+
+            if (error != null) {
+                L.pop(2);
+                return error;
+            }
+        }
+
+        if (interval < RefreshPolicy.MIN_INTERVAL_MS) {
+            return "options.refresh.interval must be at least " + RefreshPolicy.MIN_INTERVAL_MS + " milliseconds";
+        }
+
+        refreshPolicy = new RefreshPolicy(interval, maxRefreshes, pauseWhenHidden);
+        return null;
+    }
+}
@@ -0,0 +1,217 @@
+//
+//  LoadScheduler.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+/**
+ * Limits the number of ad requests in flight.
+ * <p>
+ * Requests over the limit wait in a queue ordered by priority (higher first), then by rank (higher first,
+ * e.g. placements likelier to fill), then by submission order, and are started as requests in flight finish.
+ * Requests which never report back are given up on after their timeout so they can't hold a slot forever: while
+ * requests are waiting, the timer is armed for the earliest deadline in flight. While paused nothing new is started,
+ * requests already in flight still report back.
+ * <p>
+ * NOTE: not thread safe, on device it is only used on the UI thread
+ */
+public final class LoadScheduler<T> {
+    public static final long STALE_TIMEOUT_MS = 60 * 1000;
+    public static final int DEFAULT_RANK = 0;
+
+    // sends a request
+    public interface Starter<T> {
+        void start(T request);
+    }
+
+    // runs checkTimeouts() after 'delayMs', replacing the check scheduled before. a negative delay cancels it
+    public interface Timer {
+        void schedule(long delayMs);
+    }
+
+    private static final class Entry<T> implements Comparable<Entry<T>> {
+        final T request;
+        final int priority;
+        final int rank;
+        final long timeoutMs;
+        final long sequence;
+        long startedAt;
+
+        Entry(T request, int priority, int rank, long timeoutMs, long sequence) {
+            this.request = request;
+            this.priority = priority;
+            this.rank = rank;
+            this.timeoutMs = timeoutMs;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry<T> other) {
+            if (priority != other.priority) {
+                return (priority > other.priority) ? -1 : 1;
+            }
+            if (rank != other.rank) {
+                return (rank > other.rank) ? -1 : 1;
+            }
+            return (sequence < other.sequence) ? -1 : ((sequence == other.sequence) ? 0 : 1);
+        }
+    }
+
+    private final Starter<T> starter;
+    private final Timer timer;
+    private long armedAt = NOT_ARMED;
+    private final PriorityQueue<Entry<T>> queue = new PriorityQueue<>();
+    private final ArrayList<Entry<T>> inFlight = new ArrayList<>();
+    private int maxInFlight = 0;      // 0 for no limit
+    private long nextSequence = 0;
+    private boolean promoting = false;
+    private boolean paused = false;
+
+    private static final long NOT_ARMED = Long.MAX_VALUE;
+
+    public LoadScheduler(Starter<T> starter) {
+        this(starter, null);
+    }
+
+    // 'timer' lets requests waiting behind requests which never report back start once those time out
+    public LoadScheduler(Starter<T> starter, Timer timer) {
+        this.starter = starter;
+        this.timer = timer;
+    }
+
+    // 0 removes the limit
+    public void setMaxInFlight(int maxInFlight, long now) {
+        this.maxInFlight = maxInFlight;
+        promote(now);
+    }
+
+    // hold every new request in the queue, e.g. while the app is in the background
+    public void setPaused(boolean paused, long now) {
+        this.paused = paused;
+        promote(now);
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    public int queuedCount() {
+        return queue.size();
+    }
+
+    // start the request now if the limit allows it, otherwise queue it
+    public void submit(T request, int priority, long now) {
+        submit(request, priority, DEFAULT_RANK, STALE_TIMEOUT_MS, now);
+    }
+
+    // same, ordering requests of equal priority by 'rank' and giving up on them after 'timeoutMs' in flight
+    public void submit(T request, int priority, int rank, long timeoutMs, long now) {
+        queue.add(new Entry<>(request, priority, rank, timeoutMs, nextSequence++));
+        promote(now);
+    }
+
+    // the request reported back. does nothing for requests which aren't in flight, like banner refreshes
+    public void finished(T request, long now) {
+        if (removeInFlight(request)) {
+            promote(now);
+        }
+    }
+
+    // the request was abandoned, whether it was sent or not
+    public void cancel(T request, long now) {
+        if (removeInFlight(request)) {
+            promote(now);
+            return;
+        }
+
+        for (Entry<T> entry : queue) {
+            if (entry.request == request) {
+                queue.remove(entry);
+                return;
+            }
+        }
+    }
+
+    // give up on the requests whose timeout passed and start the ones waiting for their slot
+    public void checkTimeouts(long now) {
+        armedAt = NOT_ARMED;
+        promote(now);
+    }
+
+    public void clear() {
+        queue.clear();
+        inFlight.clear();
+        arm(NOT_ARMED, 0);
+    }
+
+    private boolean removeInFlight(T request) {
+        for (int i = 0; i < inFlight.size(); i++) {
+            if (inFlight.get(i).request == request) {
+                inFlight.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void promote(long now) {
+        // a request started below may report back straight away, the loop picks up the freed slot
+        if (promoting) {
+            return;
+        }
+        promoting = true;
+
+        try {
+            // give up on requests which never reported back
+            for (int i = inFlight.size() - 1; i >= 0; i--) {
+                Entry<T> entry = inFlight.get(i);
+                if (now - entry.startedAt >= entry.timeoutMs) {
+                    inFlight.remove(i);
+                }
+            }
+
+            while (!paused && !queue.isEmpty() && ((maxInFlight <= 0) || (inFlight.size() < maxInFlight))) {
+                Entry<T> entry = queue.poll();
+                entry.startedAt = now;
+                inFlight.add(entry);
+                starter.start(entry.request);
+            }
+
+            // only waiting requests need to know when a slot frees up
+            long next = NOT_ARMED;
+            if (!paused && !queue.isEmpty()) {
+                for (int i = 0; i < inFlight.size(); i++) {
+                    Entry<T> entry = inFlight.get(i);
+                    next = Math.min(next, entry.startedAt + entry.timeoutMs);
+                }
+            }
+            arm(next, now);
+        } finally {
+            promoting = false;
+        }
+    }
+
+    private void arm(long at, long now) {
+        if ((timer == null) || (at == armedAt)) {
+            return;
+        }
+        armedAt = at;
+        timer.schedule((at == NOT_ARMED) ? -1 : Math.max(0, at - now));
+    }
+}
@@ -0,0 +1,60 @@
+//
+//  LuaStack.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+/**
+ * The subset of the Lua stack API used by the platform independent plugin code.
+ * <p>
+ * On device this is backed by JNLua's LuaState, tests and benchmarks use an in-memory implementation.
+ * Indices follow the Lua conventions, negative values are relative to the top of the stack.
+ */
+public interface LuaStack {
+    // value types, same numbering as the Lua C API
+    int TYPE_NONE = -1;
+    int TYPE_NIL = 0;
+    int TYPE_BOOLEAN = 1;
+    int TYPE_NUMBER = 3;
+    int TYPE_STRING = 4;
+    int TYPE_TABLE = 5;
+    int TYPE_OTHER = 6;   // functions, userdata and threads
+
+    int getTop();
+
+    int type(int index);
+
+    String typeName(int index);
+
+    boolean toBoolean(int index);
+
+    double toNumber(int index);
+
+    String toString(int index);
+
+    // pops a key and pushes the next key/value pair of the table at 'index'. returns false at the end
+    boolean next(int index);
+
+    void pop(int count);
+
+    void pushNil();
+
+    void pushBoolean(boolean value);
+
+    void pushNumber(double value);
+
+    void pushString(String value);
+
+    void newTable();
+
+    // t[key] = top, where t is the table at 'index'. pops the value
+    void setField(int index, String key);
+
+    // t[key] = top without metamethods, where t is the table at 'index'. pops the value
+    void rawSet(int index, int key);
+}
@@ -0,0 +1,150 @@
+//
+//  MemoryBudget.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Picks the loaded ads to drop when the OS asks the app to trim its memory.
+ * <p>
+ * The SDK doesn't report how much memory an ad holds, so each ad type is given a rough estimate: a banner is a
+ * WebView, an interstitial adds its creative, a rewarded video buffers its video. On a trim event the loaded ads
+ * may only use part of the budget, the deeper the trim the smaller the part. Ads are evicted lowest priority
+ * first, then the longest loaded first, until the estimate fits. Ads on screen are counted but never evicted.
+ * <p>
+ * NOTE: not thread safe, on device it is only used on the UI thread
+ */
+public final class MemoryBudget<T> {
+    // estimated memory held by a loaded ad
+    public static final long BANNER_BYTES = 3L << 20;
+    public static final long INTERSTITIAL_BYTES = 8L << 20;
+    public static final long REWARDED_BYTES = 20L << 20;
+
+    // trim levels, same values as android.content.ComponentCallbacks2
+    public static final int TRIM_MEMORY_RUNNING_MODERATE = 5;
+    public static final int TRIM_MEMORY_RUNNING_LOW = 10;
+    public static final int TRIM_MEMORY_RUNNING_CRITICAL = 15;
+    public static final int TRIM_MEMORY_UI_HIDDEN = 20;
+    public static final int TRIM_MEMORY_BACKGROUND = 40;
+    public static final int TRIM_MEMORY_MODERATE = 60;
+    public static final int TRIM_MEMORY_COMPLETE = 80;
+    public static final int LOW_MEMORY = Integer.MAX_VALUE;   // onLowMemory()
+
+    private static final class Candidate<T> {
+        T ad;
+        long bytes;
+        int priority;
+        long loadedAt;
+    }
+
+    private static final Comparator<Candidate<?>> EVICTION_ORDER = new Comparator<Candidate<?>>() {
+        @Override
+        public int compare(Candidate<?> a, Candidate<?> b) {
+            if (a.priority != b.priority) {
+                return (a.priority < b.priority) ? -1 : 1;
+            }
+            return (a.loadedAt < b.loadedAt) ? -1 : ((a.loadedAt == b.loadedAt) ? 0 : 1);
+        }
+    };
+
+    private long budgetBytes;
+    private long pinnedBytes = 0;
+    private final ArrayList<Candidate<T>> candidates = new ArrayList<>();
+    private final ArrayList<Candidate<T>> freeList = new ArrayList<>();
+    private final ArrayList<T> evicted = new ArrayList<>();
+
+    public MemoryBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    public void setBudget(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    public long getBudget() {
+        return budgetBytes;
+    }
+
+    // memory the loaded ads may keep at trim 'level', or -1 when nothing has to be evicted
+    public long targetFor(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            return 0;                   // next in line to be killed
+        } else if (level >= TRIM_MEMORY_MODERATE) {
+            return budgetBytes / 4;
+        } else if (level >= TRIM_MEMORY_BACKGROUND) {
+            return budgetBytes / 2;
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            return -1;                  // only the UI went away
+        } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0;                   // the game is about to be killed while in the foreground
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            return budgetBytes / 2;
+        } else {
+            return budgetBytes;
+        }
+    }
+
+    // start counting ads for a new decision
+    public void clear() {
+        // recycled candidates must not keep the ads alive
+        for (int i = 0; i < candidates.size(); i++) {
+            candidates.get(i).ad = null;
+        }
+        freeList.addAll(candidates);
+        candidates.clear();
+        evicted.clear();
+        pinnedBytes = 0;
+    }
+
+    // an ad on screen. it uses memory but can't be evicted
+    public void addPinned(long bytes) {
+        pinnedBytes += bytes;
+    }
+
+    // a loaded ad which could be evicted. higher priorities are kept longer, then the most recently loaded
+    public void add(T ad, long bytes, int priority, long loadedAt) {
+        Candidate<T> candidate = freeList.isEmpty() ? new Candidate<T>() : freeList.remove(freeList.size() - 1);
+        candidate.ad = ad;
+        candidate.bytes = bytes;
+        candidate.priority = priority;
+        candidate.loadedAt = loadedAt;
+        candidates.add(candidate);
+    }
+
+    public long usedBytes() {
+        long used = pinnedBytes;
+        for (int i = 0; i < candidates.size(); i++) {
+            used += candidates.get(i).bytes;
+        }
+        return used;
+    }
+
+    // the ads to evict, in order, so the estimate fits in 'targetBytes'. valid until the next clear()
+    public List<T> evict(long targetBytes) {
+        evicted.clear();
+        if (targetBytes < 0) {
+            return evicted;
+        }
+
+        long used = usedBytes();
+        Collections.sort(candidates, EVICTION_ORDER);
+
+        for (int i = 0; (i < candidates.size()) && (used > targetBytes); i++) {
+            Candidate<T> candidate = candidates.get(i);
+            evicted.add(candidate.ad);
+            used -= candidate.bytes;
+        }
+
+        return evicted;
+    }
+}
@@ -0,0 +1,263 @@
+//
+//  PlacementHistory.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+/**
+ * Fill, error and load latency history of each placement, kept across sessions.
+ * <p>
+ * The history is a file of fixed-size records mapped into memory, so recording an outcome is a couple of
+ * writes into the mapping and the OS writes the pages back whenever it likes. Counts are halved once a
+ * placement has seen enough requests, so old sessions weigh less and the counters can't overflow.
+ * If the file can't be mapped the history lives in memory for this session only.
+ * <p>
+ * NOTE: not thread safe, on device it is only used on the UI thread
+ */
+public final class PlacementHistory {
+    public static final int MAX_RECORDS = 64;
+    public static final int NO_RECORD = -1;
+
+    private static final int MAGIC = 0x46414e48;   // "FANH"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;     // magic, version, record count, reserved
+
+    // record layout
+    private static final int RECORD_SIZE = 128;
+    private static final int MAX_ID_BYTES = 62;
+    private static final int ID_LENGTH = 0;        // short, followed by the UTF-8 placement id
+    private static final int REQUESTS = 64;
+    private static final int LOADED = 68;
+    private static final int NO_FILLS = 72;
+    private static final int OTHER_ERRORS = 76;
+    private static final int LATENCY_BUCKETS = 80;  // one int per LatencyHistogram bucket
+    private static final int BUCKET_COUNT = LatencyHistogram.BUCKETS_MS.length + 1;
+
+    public static final int FILE_SIZE = HEADER_SIZE + MAX_RECORDS * RECORD_SIZE;
+
+    private static final int AGING_REQUESTS = 10000;  // counts are halved past this many requests
+    private static final int MIN_SAMPLES = 20;        // fewer requests than this tell us nothing
+
+    // ranks are the fill rate per mille, placements without history sit in the middle
+    private static final int MAX_RANK = 1000;
+    private static final int UNKNOWN_RANK = MAX_RANK / 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final boolean persistent;
+    private final HashMap<String, Integer> records = new HashMap<>();
+    private int recordCount;
+
+    private PlacementHistory(ByteBuffer buffer, boolean persistent) {
+        this.buffer = buffer;
+        this.persistent = persistent;
+
+        if ((buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION) || (buffer.getInt(8) < 0) || (buffer.getInt(8) > MAX_RECORDS)) {
+            // new or unreadable, start over
+            for (int i = 0; i < FILE_SIZE; i += 4) {
+                buffer.putInt(i, 0);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+        }
+
+        recordCount = buffer.getInt(8);
+
+        byte[] idBytes = new byte[MAX_ID_BYTES];
+        for (int record = 0; record < recordCount; record++) {
+            int offset = offset(record);
+            int length = Math.min(buffer.getShort(offset + ID_LENGTH), MAX_ID_BYTES);
+            for (int i = 0; i < length; i++) {
+                idBytes[i] = buffer.get(offset + ID_LENGTH + 2 + i);
+            }
+            records.put(new String(idBytes, 0, length, UTF_8), record);
+        }
+    }
+
+    // maps 'file', creating it if needed. falls back to a history kept in memory when that fails
+    public static PlacementHistory open(File file) {
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                // the mapping stays valid once the file is closed
+                FileChannel channel = randomAccessFile.getChannel();
+                return new PlacementHistory(channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE), true);
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException | RuntimeException ex) {
+            return inMemory();
+        }
+    }
+
+    // history for this session only
+    public static PlacementHistory inMemory() {
+        return new PlacementHistory(ByteBuffer.allocate(FILE_SIZE), false);
+    }
+
+    // true when the history is kept in a file
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    // returns the record of a placement, creating it on first use. NO_RECORD when the file is full
+    public int recordFor(String placementId) {
+        Integer existing = records.get(placementId);
+        if (existing != null) {
+            return existing;
+        }
+
+        byte[] idBytes = placementId.getBytes(UTF_8);
+        if ((recordCount == MAX_RECORDS) || (idBytes.length > MAX_ID_BYTES)) {
+            return NO_RECORD;
+        }
+
+        int record = recordCount;
+        int offset = offset(record);
+        buffer.putShort(offset + ID_LENGTH, (short) idBytes.length);
+        for (int i = 0; i < idBytes.length; i++) {
+            buffer.put(offset + ID_LENGTH + 2 + i, idBytes[i]);
+        }
+
+        // the record is written before it's counted, so a crash in between can't leave a half written one
+        recordCount++;
+        buffer.putInt(8, recordCount);
+        records.put(placementId, record);
+        return record;
+    }
+
+    public void countRequest(int record) {
+        if (record == NO_RECORD) {
+            return;
+        }
+
+        int offset = offset(record);
+        int requests = buffer.getInt(offset + REQUESTS) + 1;
+        buffer.putInt(offset + REQUESTS, requests);
+
+        if (requests >= AGING_REQUESTS) {
+            for (int field = REQUESTS; field < LATENCY_BUCKETS + BUCKET_COUNT * 4; field += 4) {
+                buffer.putInt(offset + field, buffer.getInt(offset + field) / 2);
+            }
+        }
+    }
+
+    public void countLoaded(int record, long latencyMs) {
+        if (record == NO_RECORD) {
+            return;
+        }
+
+        int bucket = 0;
+        while ((bucket < LatencyHistogram.BUCKETS_MS.length) && (latencyMs > LatencyHistogram.BUCKETS_MS[bucket])) {
+            bucket++;
+        }
+
+        int offset = offset(record);
+        increment(offset + LOADED);
+        increment(offset + LATENCY_BUCKETS + bucket * 4);
+    }
+
+    public void countError(int record, int errorCode) {
+        if (record == NO_RECORD) {
+            return;
+        }
+
+        increment(offset(record) + ((errorCode == AdErrorCodes.NO_FILL) ? NO_FILLS : OTHER_ERRORS));
+    }
+
+    // requests recorded for the placement, aged
+    public int requests(int record) {
+        return (record == NO_RECORD) ? 0 : buffer.getInt(offset(record) + REQUESTS);
+    }
+
+    // share of requests which were filled, or -1 when there isn't enough history
+    public double fillRate(int record) {
+        int requests = requests(record);
+        if (requests < MIN_SAMPLES) {
+            return -1;
+        }
+        return Math.min(1.0, (double) buffer.getInt(offset(record) + LOADED) / requests);
+    }
+
+    // share of requests which failed with 'no fill', or -1 when there isn't enough history
+    public double noFillRate(int record) {
+        int requests = requests(record);
+        if (requests < MIN_SAMPLES) {
+            return -1;
+        }
+        return Math.min(1.0, (double) buffer.getInt(offset(record) + NO_FILLS) / requests);
+    }
+
+    // upper bound of the latency bucket holding the 'percentile' (0-1) load, or -1 when there isn't enough history.
+    // loads slower than the last bucket are reported as twice its bound
+    public long latencyPercentile(int record, double percentile) {
+        if (record == NO_RECORD) {
+            return -1;
+        }
+
+        int offset = offset(record);
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += buffer.getInt(offset + LATENCY_BUCKETS + i * 4);
+        }
+        if (total < MIN_SAMPLES) {
+            return -1;
+        }
+
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS_MS.length; i++) {
+            seen += buffer.getInt(offset + LATENCY_BUCKETS + i * 4);
+            if (seen >= rank) {
+                return LatencyHistogram.BUCKETS_MS[i];
+            }
+        }
+        return LatencyHistogram.BUCKETS_MS[LatencyHistogram.BUCKETS_MS.length - 1] * 2;
+    }
+
+    // retry step a placement starts its backoff from: placements which rarely fill wait longer from the first retry
+    public int retryHeadStart(int record) {
+        double noFillRate = noFillRate(record);
+        if (noFillRate >= 0.8) {
+            return 2;
+        } else if (noFillRate >= 0.5) {
+            return 1;
+        }
+        return 0;
+    }
+
+    // time after which a request still in flight is given up on: well past the slowest usual loads,
+    // 'defaultMs' without history
+    public long loadTimeout(int record, long minMs, long defaultMs) {
+        long p95 = latencyPercentile(record, 0.95);
+        return (p95 < 0) ? defaultMs : Math.max(minMs, Math.min(defaultMs, p95 * 3));
+    }
+
+    // queue rank of the placement's requests, higher for placements likelier to fill
+    public int loadRank(int record) {
+        double fillRate = fillRate(record);
+        return (fillRate < 0) ? UNKNOWN_RANK : (int) (fillRate * MAX_RANK);
+    }
+
+    private static int offset(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    private void increment(int position) {
+        buffer.putInt(position, buffer.getInt(position) + 1);
+    }
+}
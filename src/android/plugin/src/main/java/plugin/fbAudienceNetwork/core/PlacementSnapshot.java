@@ -0,0 +1,164 @@
+//
+//  PlacementSnapshot.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import java.util.Arrays;
+
+/**
+ * Read-only copy of a placement's slot, as the Lua thread sees it.
+ * <p>
+ * Slots belong to the UI thread: API calls are posted to it, and SDK callbacks and the slot housekeeping run on it.
+ * A slot which changes is marked dirty and publishes a new snapshot once the UI thread is done with it, or right
+ * away when the change is reported to Lua by an event. isLoaded(), getState() and the validation of load(), show()
+ * and hide() read snapshots only, so they never see a slot halfway through a change and never call into the SDK
+ * off the UI thread.
+ * <p>
+ * Whether an ad has expired depends on when it is asked, so the snapshot keeps the load time of each ready ad
+ * rather than a ready flag.
+ */
+public final class PlacementSnapshot {
+    public static final long NEVER_EXPIRES = Long.MAX_VALUE;
+    public static final long NOT_READY = -1;
+
+    public final String adType;
+    public final Object showTaskKey;    // the slot's key in the UI task queue, coalesces show() calls
+
+    // load() settings of the slot, to skip requests which wouldn't change anything
+    public final int depth;
+    public final long ttlMs;            // NEVER_EXPIRES for banners
+    public final String[] sources;      // waterfall placement ids, null for a single placement
+    public final int waterfallPolicy;
+    public final boolean full;          // holds or is loading every ad it should
+
+    public final boolean showing;       // a full-screen ad from the slot is on screen
+    public final boolean loading;       // an ad is being loaded
+
+    // banner geometry in device pixels
+    public final float width;
+    public final float height;
+
+    private final int restingState;     // state while no ad is ready or loading
+    private final int readyState;       // state of the first ready ad: loaded, or showing for banners
+    private final long[] readyLoadedAt; // SystemClock.elapsedRealtime() each ready ad was loaded at, oldest first
+
+    /**
+     * Collects the state of a slot. It is reused for every publish, so a slot which turns out unchanged costs
+     * no allocation.
+     * <p>
+     * NOTE: not thread safe, on device it is only used on the UI thread
+     */
+    public static final class Builder {
+        public String adType;
+        public Object showTaskKey;
+        public int depth;
+        public long ttlMs;
+        public String[] sources;
+        public int waterfallPolicy;
+        public boolean full;
+        public boolean showing;
+        public boolean loading;
+        public int restingState;
+        public float width;
+        public float height;
+
+        private int readyState;
+        private long[] readyLoadedAt = new long[4];
+        private int readyCount;
+
+        // start collecting a slot, the fields are expected to be set again
+        public void reset() {
+            readyState = AdStatus.STATE_LOADED;
+            readyCount = 0;
+        }
+
+        // a ready ad in state 'state', in slot order
+        public void addReady(int state, long loadedAt) {
+            if (readyCount == 0) {
+                readyState = state;
+            }
+            if (readyCount == readyLoadedAt.length) {
+                readyLoadedAt = Arrays.copyOf(readyLoadedAt, readyCount * 2);
+            }
+            readyLoadedAt[readyCount++] = loadedAt;
+        }
+
+        // true when 'snapshot' holds exactly what has been collected
+        public boolean matches(PlacementSnapshot snapshot) {
+            if ((snapshot == null) || (snapshot.readyLoadedAt.length != readyCount)) {
+                return false;
+            }
+
+            for (int i = 0; i < readyCount; i++) {
+                if (snapshot.readyLoadedAt[i] != readyLoadedAt[i]) {
+                    return false;
+                }
+            }
+
+            return adType.equals(snapshot.adType) && (showTaskKey == snapshot.showTaskKey)
+                    && (depth == snapshot.depth) && (ttlMs == snapshot.ttlMs) && (sources == snapshot.sources)
+                    && (waterfallPolicy == snapshot.waterfallPolicy) && (full == snapshot.full)
+                    && (showing == snapshot.showing) && (loading == snapshot.loading)
+                    && (restingState == snapshot.restingState) && (readyState == snapshot.readyState)
+                    && (width == snapshot.width) && (height == snapshot.height);
+        }
+
+        public PlacementSnapshot build() {
+            return new PlacementSnapshot(this);
+        }
+    }
+
+    private PlacementSnapshot(Builder builder) {
+        adType = builder.adType;
+        showTaskKey = builder.showTaskKey;
+        depth = builder.depth;
+        ttlMs = builder.ttlMs;
+        sources = builder.sources;
+        waterfallPolicy = builder.waterfallPolicy;
+        full = builder.full;
+        showing = builder.showing;
+        loading = builder.loading;
+        restingState = builder.restingState;
+        readyState = builder.readyState;
+        readyLoadedAt = Arrays.copyOf(builder.readyLoadedAt, builder.readyCount);
+        width = builder.width;
+        height = builder.height;
+    }
+
+    // load time of the ad show() would display at 'now', NOT_READY when there is none
+    public long readyLoadedAt(long now) {
+        for (long loadedAt : readyLoadedAt) {
+            // stale ads wait to be dropped by the UI thread
+            if ((ttlMs == NEVER_EXPIRES) || (now - loadedAt < ttlMs)) {
+                return loadedAt;
+            }
+        }
+
+        return NOT_READY;
+    }
+
+    // age in seconds of the ad show() would display at 'now', -1 when there is none
+    public double readyAge(long now) {
+        long loadedAt = readyLoadedAt(now);
+        return (loadedAt == NOT_READY) ? -1 : (now - loadedAt) / 1000.0;
+    }
+
+    // aggregate state of the placement at 'now', see getState()
+    public int getState(long now) {
+        if (showing) {
+            return AdStatus.STATE_SHOWING;
+        }
+
+        if (readyLoadedAt(now) != NOT_READY) {
+            return readyState;
+        }
+
+        return loading ? AdStatus.STATE_LOADING : restingState;
+    }
+}
@@ -0,0 +1,114 @@
+//
+//  PlacementStats.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latencies for one placement, updated from the listener callbacks
+ */
+public final class PlacementStats {
+    // stat counters
+    public static final int STAT_REQUESTS = 0;
+    public static final int STAT_LOADED = 1;
+    public static final int STAT_REFRESHED = 2;
+    public static final int STAT_FAILED = 3;
+    public static final int STAT_SHOWS = 4;
+    public static final int STAT_IMPRESSIONS = 5;
+    public static final int STAT_CLICKS = 6;
+    public static final int STAT_EXPIRED = 7;
+    private static final String[] STAT_NAMES = {"requests", "loaded", "refreshed", "failed", "shows", "impressions", "clicks", "expired"};
+
+    // error codes counted individually, anything else is counted as 'otherErrors'
+    private static final int[] STAT_ERROR_CODES = {
+            AdErrorCodes.NETWORK_ERROR,
+            AdErrorCodes.NO_FILL,
+            AdErrorCodes.LOAD_TOO_FREQUENTLY,
+            AdErrorCodes.SERVER_ERROR,
+            AdErrorCodes.INTERNAL_ERROR,
+            AdErrorCodes.CACHE_ERROR,
+    };
+
+    volatile String adType;
+    private final AtomicLongArray counters = new AtomicLongArray(STAT_NAMES.length);
+    private final AtomicLongArray errors = new AtomicLongArray(STAT_ERROR_CODES.length + 1);  // last entry counts other codes
+    public final LatencyHistogram loadLatency = new LatencyHistogram();   // loadAd() to onAdLoaded()
+    public final LatencyHistogram showLatency = new LatencyHistogram();   // show() to the ad being displayed
+
+    PlacementStats(String adType) {
+        this.adType = adType;
+    }
+
+    public void count(int stat) {
+        counters.incrementAndGet(stat);
+    }
+
+    public long get(int stat) {
+        return counters.get(stat);
+    }
+
+    public void countError(int errorCode) {
+        counters.incrementAndGet(STAT_FAILED);
+
+        int index = 0;
+        while ((index < STAT_ERROR_CODES.length) && (STAT_ERROR_CODES[index] != errorCode)) {
+            index++;
+        }
+        errors.incrementAndGet(index);
+    }
+
+    public void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        for (int i = 0; i < errors.length(); i++) {
+            errors.set(i, 0);
+        }
+        loadLatency.reset();
+        showLatency.reset();
+    }
+
+    // push a table with the stats onto the Lua stack
+    public void push(LuaStack L) {
+        L.newTable();
+
+        L.pushString(adType);
+        L.setField(-2, AdEvent.TYPE_KEY);
+
+        for (int i = 0; i < STAT_NAMES.length; i++) {
+            L.pushNumber(counters.get(i));
+            L.setField(-2, STAT_NAMES[i]);
+        }
+
+        long requests = counters.get(STAT_REQUESTS);
+        L.pushNumber((requests > 0) ? (double) counters.get(STAT_LOADED) / requests : 0);
+        L.setField(-2, "fillRate");
+
+        // error counts keyed by error code, only codes which occurred are present
+        L.newTable();
+        for (int i = 0; i < STAT_ERROR_CODES.length; i++) {
+            long count = errors.get(i);
+            if (count > 0) {
+                L.pushNumber(count);
+                L.rawSet(-2, STAT_ERROR_CODES[i]);
+            }
+        }
+        L.setField(-2, "errors");
+
+        L.pushNumber(errors.get(STAT_ERROR_CODES.length));
+        L.setField(-2, "otherErrors");
+
+        loadLatency.push(L);
+        L.setField(-2, "loadLatency");
+
+        showLatency.push(L);
+        L.setField(-2, "showLatency");
+    }
+}
@@ -0,0 +1,42 @@
+//
+//  RefreshPolicy.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+/**
+ * When the plugin refreshes a banner, configured per placement in load()
+ */
+public final class RefreshPolicy {
+    public static final long DEFAULT_INTERVAL_MS = 60000;
+    public static final long MIN_INTERVAL_MS = 30000;    // the SDK doesn't refresh banners faster either
+    public static final int UNLIMITED_REFRESHES = -1;  // maxRefreshes left out of load()
+
+    public final long intervalMs;
+    public final int maxRefreshes;          // UNLIMITED_REFRESHES for no limit
+    public final boolean pauseWhenHidden;   // hidden or covered by a full-screen ad
+
+    public RefreshPolicy(long intervalMs, int maxRefreshes, boolean pauseWhenHidden) {
+        this.intervalMs = intervalMs;
+        this.maxRefreshes = maxRefreshes;
+        this.pauseWhenHidden = pauseWhenHidden;
+    }
+
+    // returns when a banner which got its current ad at 'loadedAt' should be refreshed, or -1 for not now
+    public long nextRefreshAt(long loadedAt, int refreshCount, boolean visible) {
+        if ((maxRefreshes != UNLIMITED_REFRESHES) && (refreshCount >= maxRefreshes)) {
+            return -1;
+        }
+
+        if (pauseWhenHidden && !visible) {
+            return -1;
+        }
+
+        return loadedAt + intervalMs;
+    }
+}
@@ -0,0 +1,90 @@
+//
+//  RetryPolicy.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter for failed loads, configured per placement in load()
+ */
+public final class RetryPolicy {
+    public static final int DEFAULT_MAX_RETRIES = 5;
+    public static final int MAX_RETRIES = 20;
+    public static final long DEFAULT_BASE_DELAY_MS = 2000;
+    public static final long DEFAULT_MAX_DELAY_MS = 120000;
+    private static final int NO_FILL_DELAY_MULTIPLIER = 4;   // no-fill rarely clears up within seconds
+
+    // jitter source for load retries
+    private static final Random retryRandom = new Random();
+
+    public final int maxRetries;
+    public final long baseDelayMs;
+    public final long maxDelayMs;
+
+    public RetryPolicy(int maxRetries, long baseDelayMs, long maxDelayMs) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    // false for errors which won't fix themselves, like an invalid placement or a disabled app
+    public static boolean isRetryable(int errorCode) {
+        switch (errorCode) {
+            case AdErrorCodes.NETWORK_ERROR:
+            case AdErrorCodes.SERVER_ERROR:
+            case AdErrorCodes.INTERNAL_ERROR:
+            case AdErrorCodes.CACHE_ERROR:
+            case AdErrorCodes.NO_FILL:
+            case AdErrorCodes.LOAD_TOO_FREQUENTLY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // returns the delay before retry number 'attempt' (0 based), or -1 to give up
+    public long nextDelay(int attempt, int errorCode) {
+        return nextDelay(attempt, errorCode, 0);
+    }
+
+    // same, with the backoff starting 'headStart' doublings further. the number of retries doesn't change
+    public long nextDelay(int attempt, int errorCode, int headStart) {
+        if ((attempt >= maxRetries) || !isRetryable(errorCode)) {
+            return -1;
+        }
+
+        long delay;
+
+        switch (errorCode) {
+            case AdErrorCodes.NO_FILL:
+                delay = baseDelayMs * NO_FILL_DELAY_MULTIPLIER;
+                break;
+            case AdErrorCodes.LOAD_TOO_FREQUENTLY:
+                // the SDK is throttling us, asking again early only makes it worse
+                delay = maxDelayMs;
+                break;
+            default:
+                // transient, retry soon
+                delay = baseDelayMs;
+                break;
+        }
+
+        // double the delay on every attempt, capped
+        for (int i = 0; (i < attempt + headStart) && (delay < maxDelayMs); i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelayMs);
+
+        // equal jitter: keep half of the delay and randomize the other half so that
+        // placements which failed together don't retry in lock-step
+        long half = delay / 2;
+        return half + (long) (retryRandom.nextDouble() * (delay - half));
+    }
+}
@@ -0,0 +1,179 @@
+//
+//  SimulatorConfig.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import java.util.Random;
+
+/**
+ * Behavior of the simulated ad backend, from init()'s 'simulator' option.
+ * <p>
+ * Load latency follows a log-normal distribution given by its median and 95th percentile, which matches
+ * the long tail of real ad requests. Every random decision comes from a single seeded generator so a run
+ * can be reproduced.
+ */
+public final class SimulatorConfig {
+    public static final double DEFAULT_FILL_RATE = 1.0;
+    public static final long DEFAULT_MEDIAN_LATENCY_MS = 500;
+    public static final long DEFAULT_P95_LATENCY_MS = 2000;
+    public static final long DEFAULT_SHOW_DURATION_MS = 2000;
+
+    private static final double Z_95 = 1.6449;  // standard normal 95th percentile
+
+    public double fillRate = DEFAULT_FILL_RATE;
+    public long medianLatencyMs = DEFAULT_MEDIAN_LATENCY_MS;
+    public long p95LatencyMs = DEFAULT_P95_LATENCY_MS;
+    public int[] errorCodes = {AdErrorCodes.NO_FILL};  // reported for requests which aren't filled, picked at random
+    public long ttlMs = AdExpiry.DEFAULT_TTL_MS;        // simulated ads are invalidated after this long
+    public long showDurationMs = DEFAULT_SHOW_DURATION_MS;
+    public long seed = System.nanoTime();
+
+    public Random newRandom() {
+        return new Random(seed);
+    }
+
+    // true when the next request should be filled
+    public boolean nextFill(Random random) {
+        return random.nextDouble() < fillRate;
+    }
+
+    // time until the next request completes, filled or not
+    public long nextLatency(Random random) {
+        if ((medianLatencyMs <= 0) || (p95LatencyMs <= medianLatencyMs)) {
+            return Math.max(0, medianLatencyMs);
+        }
+
+        double sigma = (Math.log(p95LatencyMs) - Math.log(medianLatencyMs)) / Z_95;
+        return (long) (medianLatencyMs * Math.exp(sigma * random.nextGaussian()));
+    }
+
+    public int nextErrorCode(Random random) {
+        return errorCodes[random.nextInt(errorCodes.length)];
+    }
+
+    // parses the option on top of the stack: true for the defaults, or a table overriding them.
+    // returns null on success, otherwise the error message
+    public String parse(LuaStack L) {
+        if (L.type(-1) == LuaStack.TYPE_BOOLEAN) {
+            return null;
+        }
+
+        if (L.type(-1) != LuaStack.TYPE_TABLE) {
+            return "options.simulator (boolean or table) expected, got: " + L.typeName(-1);
+        }
+
+        // traverse simulator options
+        for (L.pushNil(); L.next(-2); L.pop(1)) {
+            if (L.type(-2) != LuaStack.TYPE_STRING) {
+                L.pop(2);
+                return "options.simulator must be a key/value table";
+            }
+
+            String key = L.toString(-2);
+            String error = null;
+
+            if (key.equals("errorCodes")) {
+                error = parseErrorCodes(L);
+            } else if (key.equals("latency") && (L.type(-1) == LuaStack.TYPE_TABLE)) {
+                error = parseLatency(L);
+            } else if (L.type(-1) != LuaStack.TYPE_NUMBER) {
+                error = "options.simulator." + key + " (number) expected, got: " + L.typeName(-1);
+            } else if (key.equals("fillRate")) {
+                fillRate = L.toNumber(-1);
+            } else if (key.equals("latency")) {
+                // fixed latency
+                medianLatencyMs = (long) L.toNumber(-1);
+                p95LatencyMs = medianLatencyMs;
+            } else if (key.equals("ttl")) {
+                ttlMs = (long) L.toNumber(-1);
+            } else if (key.equals("showDuration")) {
+                showDurationMs = (long) L.toNumber(-1);
+            } else if (key.equals("seed")) {
+                seed = (long) L.toNumber(-1);
+            } else {
+                error = "Invalid option 'simulator." + key + "'";
+            }
+
+            if (error != null) {
+                L.pop(2);
+                return error;
+            }
+        }
+
+        // validation
+        if ((fillRate < 0) || (fillRate > 1)) {
+            return "options.simulator.fillRate must be between 0 and 1";
+        }
+
+        if ((medianLatencyMs < 0) || (p95LatencyMs < medianLatencyMs)) {
+            return "options.simulator.latency.median must be positive and not greater than options.simulator.latency.p95";
+        }
+
+        if ((ttlMs <= 0) || (showDurationMs < 0)) {
+            return "options.simulator.ttl must be positive and options.simulator.showDuration must not be negative";
+        }
+
+        return null;
+    }
+
+    // options.simulator.latency = {median=, p95=}, on top of the stack
+    private String parseLatency(LuaStack L) {
+        for (L.pushNil(); L.next(-2); L.pop(1)) {
+            String latencyKey = (L.type(-2) == LuaStack.TYPE_STRING) ? L.toString(-2) : null;
+
+            if (L.type(-1) != LuaStack.TYPE_NUMBER) {
+                L.pop(2);
+                return "options.simulator.latency." + latencyKey + " (number) expected";
+            }
+
+            if ("median".equals(latencyKey)) {
+                medianLatencyMs = (long) L.toNumber(-1);
+            } else if ("p95".equals(latencyKey)) {
+                p95LatencyMs = (long) L.toNumber(-1);
+            } else {
+                L.pop(2);
+                return "Invalid option 'simulator.latency." + latencyKey + "'";
+            }
+        }
+
+        return null;
+    }
+
+    // options.simulator.errorCodes = {1001, 1000, ...}, on top of the stack
+    private String parseErrorCodes(LuaStack L) {
+        if (L.type(-1) != LuaStack.TYPE_TABLE) {
+            return "options.simulator.errorCodes (table) expected, got: " + L.typeName(-1);
+        }
+
+        int count = 0;
+        int[] codes = new int[8];
+
+        for (L.pushNil(); L.next(-2); L.pop(1)) {
+            if (L.type(-1) != LuaStack.TYPE_NUMBER) {
+                L.pop(2);
+                return "options.simulator.errorCodes must only hold numbers";
+            }
+
+            if (count == codes.length) {
+                int[] grown = new int[codes.length * 2];
+                System.arraycopy(codes, 0, grown, 0, count);
+                codes = grown;
+            }
+            codes[count++] = (int) L.toNumber(-1);
+        }
+
+        if (count == 0) {
+            return "options.simulator.errorCodes cannot be empty";
+        }
+
+        errorCodes = new int[count];
+        System.arraycopy(codes, 0, errorCodes, 0, count);
+        return null;
+    }
+}
@@ -0,0 +1,61 @@
+//
+//  StatsRegistry.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Performance stats per placement id. They outlive the ad slots so hiding a banner keeps its history.
+ * Lookups are lock-free from any thread.
+ */
+public final class StatsRegistry {
+    private final ConcurrentHashMap<String, PlacementStats> stats = new ConcurrentHashMap<>();
+
+    // returns the stats of a placement, or null if nothing was loaded for it
+    public PlacementStats get(String placementId) {
+        return stats.get(placementId);
+    }
+
+    // returns the stats of a placement, creating them on first use
+    public PlacementStats obtain(String placementId, String adType) {
+        PlacementStats placementStats = stats.get(placementId);
+
+        if (placementStats == null) {
+            placementStats = new PlacementStats(adType);
+            PlacementStats existing = stats.putIfAbsent(placementId, placementStats);
+            if (existing != null) {
+                placementStats = existing;
+            }
+        }
+
+        placementStats.adType = adType;
+        return placementStats;
+    }
+
+    public void resetAll() {
+        for (PlacementStats placementStats : stats.values()) {
+            placementStats.reset();
+        }
+    }
+
+    public void clear() {
+        stats.clear();
+    }
+
+    // push a table with the stats of every placement, keyed by placement id
+    public void push(LuaStack L) {
+        L.newTable();
+        for (Map.Entry<String, PlacementStats> entry : stats.entrySet()) {
+            entry.getValue().push(L);
+            L.setField(-2, entry.getKey());
+        }
+    }
+}
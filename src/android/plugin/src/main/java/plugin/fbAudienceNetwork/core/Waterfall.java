@@ -0,0 +1,78 @@
+//
+//  Waterfall.java
+//  Facebook Advertising Network Paid Plugin
+//
+//  Copyright (c) 2015 CoronaLabs inc. All rights reserved.
+//
+
+// @formatter:off
+
+package plugin.fbAudienceNetwork.core;
+
+/**
+ * Decides which of several placements requested at the same time provides an ad.
+ * <p>
+ * Sources are indexed by priority, 0 being the highest. With POLICY_PRIORITY a source only wins once every
+ * source above it has failed, with POLICY_FIRST the first one to load wins.
+ */
+public final class Waterfall {
+    public static final int POLICY_PRIORITY = 0;
+    public static final int POLICY_FIRST = 1;
+    public static final String[] POLICY_NAMES = {"priority", "first"};
+
+    // results of loaded() and failed() which aren't a winning source index
+    public static final int PENDING = -1;     // wait for more results
+    public static final int EXHAUSTED = -2;   // every source failed
+
+    private static final int SOURCE_LOADING = 0;
+    private static final int SOURCE_LOADED = 1;
+    private static final int SOURCE_FAILED = 2;
+
+    private final int policy;
+    private final int[] sources;
+
+    public Waterfall(int policy, int sourceCount) {
+        this.policy = policy;
+        this.sources = new int[sourceCount];
+    }
+
+    // source 'index' loaded. returns the winner, or PENDING
+    public int loaded(int index) {
+        sources[index] = SOURCE_LOADED;
+        return (policy == POLICY_FIRST) ? index : decide();
+    }
+
+    // source 'index' failed. returns the winner, PENDING or EXHAUSTED
+    public int failed(int index) {
+        sources[index] = SOURCE_FAILED;
+        return decide();
+    }
+
+    private int decide() {
+        boolean pending = false;
+
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i] == SOURCE_LOADED) {
+                return i;
+            }
+            if (sources[i] == SOURCE_LOADING) {
+                if (policy == POLICY_PRIORITY) {
+                    return PENDING;   // a better source may still fill
+                }
+                pending = true;
+            }
+        }
+
+        return pending ? PENDING : EXHAUSTED;
+    }
+
+    // returns the policy constant for 'name', or -1 if unknown
+    public static int policyFromName(String name) {
+        for (int i = 0; i < POLICY_NAMES.length; i++) {
+            if (POLICY_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}